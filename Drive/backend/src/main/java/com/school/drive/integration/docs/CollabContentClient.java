@@ -0,0 +1,21 @@
+package com.school.drive.integration.docs;
+
+import jakarta.ws.rs.*;
+import jakarta.ws.rs.core.MediaType;
+import org.eclipse.microprofile.rest.client.annotation.ClientHeaderParam;
+import org.eclipse.microprofile.rest.client.annotation.RegisterClientHeaders;
+import org.eclipse.microprofile.rest.client.inject.RegisterRestClient;
+
+// CollabContentClient: saves through docs-service, so editors with the document open see the change.
+// The user's Authorization header is passed on; the service token shows the save came through Drive.
+@RegisterRestClient(configKey = "collab-service")
+@RegisterClientHeaders
+@ClientHeaderParam(name = "X-Collab-Service-Token", value = "${app.collab.service-token}")
+@Path("/internal/documents")
+@Produces(MediaType.APPLICATION_JSON)
+@Consumes(MediaType.APPLICATION_JSON)
+public interface CollabContentClient {
+  @PUT
+  @Path("/{id}/content")
+  ContentSaveResponse saveContent(@PathParam("id") String id, ContentSaveRequest req);
+}
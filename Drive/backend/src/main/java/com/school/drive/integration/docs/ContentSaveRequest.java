@@ -0,0 +1,7 @@
+package com.school.drive.integration.docs;
+
+// ContentSaveRequest.
+public class ContentSaveRequest {
+  public String content;
+  public String userId;
+}
@@ -0,0 +1,11 @@
+package com.school.drive.integration.docs;
+
+// ContentSaveResponse.
+public class ContentSaveResponse {
+  public String documentId;
+  // Session version when live, otherwise the stored document's version
+  public long version;
+  public int ops;
+  // Applied to an open editing session rather than written to the store directly
+  public boolean live;
+}
@@ -8,7 +8,9 @@ import com.school.drive.model.ItemShareId;
 import com.school.drive.model.ItemType;
 import com.school.drive.model.ShareRole;
 import com.school.drive.integration.docs.*;
+import org.eclipse.microprofile.rest.client.RestClientBuilder;
 import org.eclipse.microprofile.rest.client.inject.RestClient;
+import org.jboss.logging.Logger;
 import com.school.drive.repo.AppUserRepository;
 import com.school.drive.repo.ItemRepository;
 import com.school.drive.repo.ItemShareRepository;
@@ -37,6 +39,7 @@ import java.time.Duration;
 
 
 import java.io.InputStream;
+import java.net.URI;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.List;
@@ -47,6 +50,8 @@ import java.util.stream.Collectors;
 @ApplicationScoped
 public class ItemService {
 
+  private static final Logger LOG = Logger.getLogger(ItemService.class);
+
   @Inject ItemRepository items;
   @Inject ItemShareRepository shares;
   @Inject AppUserRepository users;
@@ -59,6 +64,10 @@ public class ItemService {
   @RestClient
   DocumentServiceClient documentService;
 
+  @Inject
+  @RestClient
+  CollabContentClient collabService;
+
 @Inject S3Client s3;
 
   
@@ -515,25 +524,37 @@ public com.school.drive.api.dto.DocResponse updateDoc(UUID userId, UUID docId, S
   var access = perms.accessFor(userId, docId);
   if (!access.canWrite()) throw new ForbiddenException("Need EDITOR");
 
+  String previousName = it.name;
   if (title != null && !title.isBlank()) {
     it.name = title.trim();
   }
+  boolean renamed = !it.name.equals(previousName);
   it.updatedAt = java.time.Instant.now();
   it.persist();
 
   DocumentUpdateRequest req = new DocumentUpdateRequest();
   req.title = it.name;
-  req.content = content; // allow null to update title only
-  DocumentResponse doc = documentService.update(docId.toString(), req);
+  req.content = null; // content goes through docs-service below
+  // Only on an actual rename: the store is not touched otherwise
+  DocumentResponse doc = renamed ? documentService.update(docId.toString(), req) : null;
+
+  // An open editing session takes the new content as edits, so editors are not overwritten
+  // by the session's next flush; without one docs-service stores it directly
+  ContentSaveResponse saved = content == null ? null : saveContent(userId, docId, content);
+  if (content != null && saved == null) {
+    req.content = content;
+    doc = documentService.update(docId.toString(), req);
+  }
+  if (doc == null && saved == null) doc = documentService.getById(docId.toString());
 
   com.school.drive.api.dto.DocResponse out = new com.school.drive.api.dto.DocResponse();
   out.id = it.id;
   out.parentId = it.parentId;
   out.title = it.name;
-  out.content = (doc != null && doc.content != null) ? doc.content : (req.content != null ? req.content : "");
+  out.content = content != null ? content : (doc != null && doc.content != null ? doc.content : "");
   out.createdAt = it.createdAt;
   out.updatedAt = it.updatedAt;
-  out.version = doc == null ? 0 : doc.version;
+  out.version = saved != null ? saved.version : (doc == null ? 0 : doc.version);
   
   out.access = access.name();
   out.canWrite = access.canWrite();
@@ -541,4 +562,35 @@ public com.school.drive.api.dto.DocResponse updateDoc(UUID userId, UUID docId, S
   return out;
 }
 
+// Save content through docs-service; null if it cannot be reached, so the caller writes it to the store.
+// Errors it answers with (e.g. a busy session) are passed on rather than saved around the session.
+// A node that does not own the document answers 421 with the owner's endpoint, which is tried once.
+private ContentSaveResponse saveContent(UUID userId, UUID docId, String content) {
+  ContentSaveRequest req = new ContentSaveRequest();
+  req.content = content;
+  req.userId = userId.toString();
+  try {
+    try {
+      return collabService.saveContent(docId.toString(), req);
+    } catch (jakarta.ws.rs.WebApplicationException e) {
+      URI owner = ownerNode(e);
+      if (owner == null) throw e;
+      return RestClientBuilder.newBuilder().baseUri(owner).build(CollabContentClient.class)
+          .saveContent(docId.toString(), req);
+    }
+  } catch (jakarta.ws.rs.ProcessingException e) {
+    LOG.warnf("docs-service save failed, writing to the store: %s", e.getMessage());
+    return null;
+  }
+}
+
+// Base URL of the docs-service node a 421 points at, or null for any other error.
+private static URI ownerNode(jakarta.ws.rs.WebApplicationException e) {
+  var res = e.getResponse();
+  if (res == null || res.getStatus() != 421 || res.getLocation() == null) return null;
+  String location = res.getLocation().toString();
+  int path = location.indexOf("/internal/documents/");
+  return path < 0 ? null : URI.create(location.substring(0, path));
+}
+
 }
@@ -76,8 +76,16 @@ export default function DocEditorPage() {
   const [wsStatus, setWsStatus] = useState<'disconnected' | 'connecting' | 'connected'>('disconnected');
 
   const wsRef = useRef<WebSocket | null>(null);
+  // Node that owns this document, when the one we first reached redirected us
+  const wsRedirectRef = useRef<string | null>(null);
   const lastContentRef = useRef<string>('');
   const isApplyingRemoteRef = useRef<boolean>(false);
+  // Last server version applied locally; null until init or after an offline edit (forces a full init)
+  const serverVersionRef = useRef<number | null>(null);
+  // An edit was sent since the last init/resume; no ack says whether it arrived, so a rejoin starts over
+  const unackedEditRef = useRef<boolean>(false);
+  // Roster version from the last init/resume or membership delta; older deltas are ignored
+  const presenceVersionRef = useRef<number>(0);
 
   const textareaRef = useRef<HTMLTextAreaElement | null>(null);
   const mirrorRef = useRef<HTMLDivElement | null>(null);
@@ -165,7 +173,8 @@ export default function DocEditorPage() {
       position: start,
       content: inserted,
       deleteCount,
-      clientVersion: serverVersion,
+      // The last version applied here; the REST load's version goes stale as soon as frames arrive
+      clientVersion: serverVersionRef.current ?? serverVersion,
     };
   }
 
@@ -268,11 +277,31 @@ export default function DocEditorPage() {
     };
   }
 
+  // Redirects are only followed to docs-service nodes we know: the origins in
+  // NEXT_PUBLIC_DOCS_WS_ORIGINS (comma-separated), or else the default socket's own origin
+  function isAllowedDocsWsUrl(url: string) {
+    const originOf = (u: string) => {
+      try {
+        const parsed = new URL(u);
+        return parsed.protocol === 'ws:' || parsed.protocol === 'wss:' ? `${parsed.protocol}//${parsed.host}` : null;
+      } catch {
+        return null;
+      }
+    };
+    const configured = (process.env.NEXT_PUBLIC_DOCS_WS_ORIGINS as string | undefined) ||
+      (process.env.NEXT_PUBLIC_DOCS_WS_URL as string | undefined) ||
+      'ws://localhost:8082';
+    const allowed = configured.split(',').map((o) => originOf(o.trim())).filter(Boolean);
+    const origin = originOf(url);
+    return origin !== null && allowed.includes(origin);
+  }
+
   function connectWs() {
     if (!docId) return;
     if (!meId) return;
 
     const base =
+      wsRedirectRef.current ||
       (process.env.NEXT_PUBLIC_DOCS_WS_URL as string | undefined) ||
       'ws://localhost:8082/ws/docs';
 
@@ -287,7 +316,8 @@ export default function DocEditorPage() {
 
     ws.onopen = () => {
       setWsStatus('connected');
-      ws.send(JSON.stringify({ type: 'join', documentId: docId, userId: meId, username: myUsername }));
+      const lastVersion = unackedEditRef.current ? null : serverVersionRef.current;
+      ws.send(JSON.stringify({ type: 'join', documentId: docId, userId: meId, username: myUsername, lastVersion }));
 
       // Send initial cursor (best-effort)
       window.setTimeout(() => {
@@ -301,12 +331,31 @@ export default function DocEditorPage() {
       const msg = safeJsonParse(ev.data || '{}');
       if (!msg?.type) return;
 
+      if (msg.type === 'redirect' && msg?.url) {
+        // Another node owns this document; rejoin there once this socket closes
+        if (!isAllowedDocsWsUrl(msg.url.toString())) {
+          pushToast('Ignored redirect to an unknown server');
+          return;
+        }
+        wsRedirectRef.current = msg.url.toString();
+        ws.onclose = () => {
+          wsRef.current = null;
+          // Spread rejoins out, so a node sending all its clients away is not met by a stampede
+          window.setTimeout(connectWs, 200 + Math.random() * 800);
+        };
+        ws.close();
+        return;
+      }
+
       if (msg.type === 'init') {
         const newContent = (msg?.content ?? '').toString();
         isApplyingRemoteRef.current = true;
         setContent(newContent);
         lastContentRef.current = newContent;
         isApplyingRemoteRef.current = false;
+        serverVersionRef.current = Number(msg?.version ?? 0);
+        unackedEditRef.current = false;
+        presenceVersionRef.current = Number(msg?.presenceVersion ?? 0);
 
         const users: ActiveUser[] = Array.isArray(msg?.activeUsers) ? msg.activeUsers : [];
         setActiveUsers(users);
@@ -325,15 +374,35 @@ export default function DocEditorPage() {
         return;
       }
 
-      if (msg.type === 'edit' && msg?.edit) {
-        const op = msg.edit;
+      if (msg.type === 'resume') {
+        // Reconnected within the server's buffer: replay only what we missed
+        const ops: any[] = Array.isArray(msg?.ops) ? msg.ops : [];
         isApplyingRemoteRef.current = true;
         setContent((cur) => {
-          const updated = applyEdit((cur ?? '').toString(), op);
+          const updated = ops.reduce((acc, op) => applyEdit(acc, op), (cur ?? '').toString());
           lastContentRef.current = updated;
           return updated;
         });
         isApplyingRemoteRef.current = false;
+        serverVersionRef.current = Number(msg?.version ?? 0);
+        unackedEditRef.current = false;
+        presenceVersionRef.current = Number(msg?.presenceVersion ?? 0);
+        const users: ActiveUser[] = Array.isArray(msg?.activeUsers) ? msg.activeUsers : [];
+        setActiveUsers(users);
+        return;
+      }
+
+      if (msg.type === 'edits') {
+        // Other users' ops applied within one server batch window, in order
+        const ops: any[] = Array.isArray(msg?.ops) ? msg.ops : [];
+        isApplyingRemoteRef.current = true;
+        setContent((cur) => {
+          const updated = ops.reduce((acc, op) => applyEdit(acc, op), (cur ?? '').toString());
+          lastContentRef.current = updated;
+          return updated;
+        });
+        isApplyingRemoteRef.current = false;
+        if (msg?.version) serverVersionRef.current = Number(msg.version);
         return;
       }
 
@@ -347,33 +416,47 @@ export default function DocEditorPage() {
         return;
       }
 
+      if (msg.type === 'presence') {
+        // Batched cursor moves: latest position per user since the previous tick
+        const users: ActiveUser[] = Array.isArray(msg?.activeUsers) ? msg.activeUsers : [];
+        const cursorMap: Record<string, number> = {};
+        const nameMap: Record<string, string> = {};
+        for (const u of users) {
+          if (!u?.userId || u.userId === meId) continue;
+          cursorMap[u.userId] = Number(u.cursorPosition ?? 0);
+          if (u.username) nameMap[u.userId] = String(u.username);
+        }
+        if (Object.keys(nameMap).length) setRemoteUsernames((m) => ({ ...m, ...nameMap }));
+        if (Object.keys(cursorMap).length) setRemoteCursors((cur) => ({ ...cur, ...cursorMap }));
+        return;
+      }
+
       if (msg.type === 'user_joined') {
+        // Roster delta: add one user to what init/resume gave us
+        const pv = Number(msg?.presenceVersion ?? 0);
+        if (pv && pv <= presenceVersionRef.current) return;
+        if (pv) presenceVersionRef.current = pv;
+
         const uid = (msg?.userId ?? '').toString();
         const uname = (msg?.username ?? '').toString();
         if (uid && uid !== meId) pushToast(`${uname || shortId(uid)} joined`);
         if (uname) setRemoteUsernames((m) => ({ ...m, [uid]: uname }));
 
-        const users: ActiveUser[] = Array.isArray(msg?.activeUsers) ? msg.activeUsers : [];
-        if (users.length) {
-          setActiveUsers(users);
-          const cursorMap: Record<string, number> = {};
-          const nameMap: Record<string, string> = {};
-          for (const u of users) {
-            if (!u?.userId) continue;
-            if (u.userId === meId) continue;
-            cursorMap[u.userId] = Number(u.cursorPosition ?? 0);
-            if (u.username) nameMap[u.userId] = String(u.username);
-          }
-          setRemoteCursors(cursorMap);
-          if (Object.keys(nameMap).length) setRemoteUsernames((m) => ({ ...m, ...nameMap }));
-        } else if (uid && uid !== meId) {
-          // Best-effort if backend didn't send list
-          setRemoteCursors((cur) => ({ ...cur, [uid]: cur[uid] ?? 0 }));
+        if (uid) {
+          setActiveUsers((cur) => [
+            ...cur.filter((u) => u.userId !== uid),
+            { userId: uid, username: uname || undefined, cursorPosition: 0 },
+          ]);
+          if (uid !== meId) setRemoteCursors((cur) => ({ ...cur, [uid]: cur[uid] ?? 0 }));
         }
         return;
       }
 
       if (msg.type === 'user_left') {
+        const pv = Number(msg?.presenceVersion ?? 0);
+        if (pv && pv <= presenceVersionRef.current) return;
+        if (pv) presenceVersionRef.current = pv;
+
         const uid = (msg?.userId ?? '').toString();
         const uname = (msg?.username ?? '').toString();
         if (uid && uid !== meId) pushToast(`${uname || shortId(uid)} left`);
@@ -618,7 +701,11 @@ export default function DocEditorPage() {
               const op = computeEdit(prev, next);
               if (op) {
                 ws.send(JSON.stringify({ type: 'edit', documentId: docId, userId: meId, edit: op }));
+                unackedEditRef.current = true;
               }
+            } else if (!isApplyingRemoteRef.current) {
+              // Edited while offline: our text no longer matches any server version
+              serverVersionRef.current = null;
             }
 
             // Also send cursor after change (best-effort).
@@ -0,0 +1,63 @@
+package com.splitttr.collab.bench;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Prints a side-by-side table of two JMH JSON result files (-rf json), e.g. from two commits.
+// Usage: java -cp target/benchmarks.jar com.splitttr.collab.bench.CompareResults base.json head.json
+public final class CompareResults {
+
+    private record Score(double value, double error, String unit) {}
+
+    private CompareResults() {}
+
+    // Main.
+    public static void main(String[] args) throws Exception {
+        if (args.length != 2) {
+            System.err.println("usage: CompareResults <base.json> <head.json>");
+            System.exit(2);
+        }
+        Map<String, Score> base = read(new File(args[0]));
+        Map<String, Score> head = read(new File(args[1]));
+
+        System.out.printf("%-90s %14s %14s %9s%n", "benchmark", "base", "head", "change");
+        for (var entry : head.entrySet()) {
+            Score h = entry.getValue();
+            Score b = base.get(entry.getKey());
+            String change = b == null ? "new" : String.format("%+.1f%%", (h.value() - b.value()) / b.value() * 100);
+            System.out.printf("%-90s %14s %14s %9s%n", entry.getKey(),
+                b == null ? "-" : format(b), format(h), change);
+        }
+        for (String key : base.keySet()) {
+            if (!head.containsKey(key)) System.out.printf("%-90s %14s %14s %9s%n", key, format(base.get(key)), "-", "gone");
+        }
+    }
+
+    private static Map<String, Score> read(File file) throws Exception {
+        Map<String, Score> scores = new LinkedHashMap<>();
+        for (JsonNode run : new ObjectMapper().readTree(file)) {
+            StringBuilder key = new StringBuilder(run.get("benchmark").asText().replace("com.splitttr.collab.", ""));
+            JsonNode params = run.get("params");
+            if (params != null) {
+                Iterator<Map.Entry<String, JsonNode>> it = params.fields();
+                while (it.hasNext()) {
+                    var p = it.next();
+                    key.append(' ').append(p.getKey()).append('=').append(p.getValue().asText());
+                }
+            }
+            JsonNode metric = run.get("primaryMetric");
+            scores.put(key.toString(), new Score(metric.get("score").asDouble(),
+                metric.get("scoreError").asDouble(), metric.get("scoreUnit").asText()));
+        }
+        return scores;
+    }
+
+    private static String format(Score s) {
+        return String.format("%.1f %s", s.value(), s.unit());
+    }
+}
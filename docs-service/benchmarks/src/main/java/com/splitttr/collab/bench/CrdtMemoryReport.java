@@ -0,0 +1,84 @@
+package com.splitttr.collab.bench;
+
+import com.splitttr.collab.crdt.Rga;
+import com.splitttr.collab.message.EditOperation;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Supplier;
+
+// Heap the CRDT engine holds per visible character, for documents loaded, typed and edited.
+// Prints the engine's own estimate and the heap actually retained by a batch of copies; a plain
+// String costs 2 bytes per character for comparison (the rope adds a little on top).
+// Usage: java -cp target/benchmarks.jar com.splitttr.collab.bench.CrdtMemoryReport [chars]
+public final class CrdtMemoryReport {
+
+    private static final int COPIES = 4;
+
+    private CrdtMemoryReport() {}
+
+    // Main.
+    public static void main(String[] args) {
+        int chars = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+
+        System.out.printf("%-32s %8s %12s %12s%n", "scenario", "runs", "estimated/ch", "retained/ch");
+        report("loaded", () -> new Rga("bench", Texts.prose(chars, new Random(42)), 0));
+        report("typed", () -> typed(chars, false));
+        report("typed, compacted", () -> typed(chars, true));
+        report("edited, 20% deleted", () -> edited(chars, false));
+        report("edited, 20% deleted, compacted", () -> edited(chars, true));
+    }
+
+    // One char per op at a cursor, as a single user types.
+    private static Rga typed(int chars, boolean compact) {
+        Rga rga = new Rga("bench", "", 0);
+        for (int i = 0; i < chars; i++) {
+            rga.apply(new EditOperation("u1", "insert", i, "a", 0, i), i, i + 1);
+        }
+        if (compact) rga.compact(chars);
+        return rga;
+    }
+
+    // A loaded document with random words inserted and ranges deleted until a fifth of it is gone.
+    private static Rga edited(int chars, boolean compact) {
+        Random random = new Random(42);
+        Rga rga = new Rga("bench", Texts.prose(chars, random), 0);
+        long version = 0;
+        long deleted = 0;
+        while (deleted < chars / 5) {
+            int length = rga.length();
+            if (random.nextBoolean()) {
+                int count = Math.min(length, 1 + random.nextInt(8));
+                int position = random.nextInt(length - count + 1);
+                rga.apply(new EditOperation("u1", "delete", position, null, count, version), version, ++version);
+                deleted += count;
+            } else {
+                rga.apply(new EditOperation("u2", "insert", random.nextInt(length + 1), "word ", 0, version),
+                    version, ++version);
+            }
+        }
+        if (compact) rga.compact(version);
+        return rga;
+    }
+
+    private static void report(String scenario, Supplier<Rga> build) {
+        Rga sample = build.get();
+        double estimated = (double) sample.estimatedBytes() / sample.length();
+
+        List<Rga> held = new ArrayList<>(COPIES);
+        long before = usedHeap();
+        for (int i = 0; i < COPIES; i++) held.add(build.get());
+        long retained = usedHeap() - before;
+        double perChar = (double) retained / COPIES / sample.length();
+
+        System.out.printf("%-32s %8d %12.1f %12.1f%n", scenario, sample.runCount(), estimated, perChar);
+        held.clear();
+    }
+
+    private static long usedHeap() {
+        Runtime rt = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) System.gc();
+        return rt.totalMemory() - rt.freeMemory();
+    }
+}
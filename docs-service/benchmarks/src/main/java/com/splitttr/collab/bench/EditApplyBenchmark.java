@@ -0,0 +1,61 @@
+package com.splitttr.collab.bench;
+
+import com.splitttr.collab.message.EditOperation;
+import com.splitttr.collab.session.DocumentSession;
+import com.splitttr.collab.session.SessionRuntime;
+import com.splitttr.collab.session.SessionSettings;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Cost of DocumentSession.applyEdit across document sizes and typing patterns.
+// Documents are rebuilt once they drift to half or twice their size, so every pattern keeps
+// measuring roughly the size it is labelled with.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EditApplyBenchmark {
+
+    @Param({"1024", "102400", "1048576", "10485760"})
+    int docSize;
+
+    @Param({"append", "random-insert", "paste", "delete"})
+    String pattern;
+
+    private String base;
+    private String pasteBlock;
+    private Random random;
+    private DocumentSession session;
+
+    @Setup(Level.Trial)
+    // Setup.
+    public void setup() {
+        random = new Random(42);
+        base = Texts.prose(docSize, random);
+        pasteBlock = Texts.prose(2048, random);
+        session = new DocumentSession("bench", SessionRuntime.direct(SessionSettings.defaults()));
+        session.initContent(base, 0);
+    }
+
+    @Benchmark
+    // Apply one edit.
+    public long applyEdit() {
+        int length = session.snapshot().content().length();
+        if (length < docSize / 2 || length > docSize * 2) {
+            session.initContent(base, session.getVersion());
+            length = docSize;
+        }
+        EditOperation op = switch (pattern) {
+            case "append" -> new EditOperation("u1", "insert", length, "a", 0, 0);
+            case "random-insert" -> new EditOperation("u1", "insert", random.nextInt(length + 1), "a", 0, 0);
+            case "paste" -> new EditOperation("u1", "insert", random.nextInt(length + 1), pasteBlock, 0, 0);
+            case "delete" -> new EditOperation("u1", "delete", random.nextInt(length), null, 1, 0);
+            default -> throw new IllegalArgumentException(pattern);
+        };
+        return session.applyEdit(op);
+    }
+}
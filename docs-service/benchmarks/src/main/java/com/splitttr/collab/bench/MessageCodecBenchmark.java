@@ -0,0 +1,119 @@
+package com.splitttr.collab.bench;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.splitttr.collab.message.ClientMessage;
+import com.splitttr.collab.message.CollabCodec;
+import com.splitttr.collab.message.EditOperation;
+import com.splitttr.collab.message.ServerMessage;
+import com.splitttr.collab.message.ServerMessage.ActiveUser;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// JSON encode/decode of the frames on the hot path: data binding (the old socket setup) against the
+// streaming CollabCodec the socket uses now. Run with -prof gc to compare allocation per frame.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MessageCodecBenchmark {
+
+    @Param({"1", "32"})
+    int opsPerFrame;
+
+    private final ObjectMapper mapper = new ObjectMapper().registerModule(new JavaTimeModule());
+
+    private String editJson;
+    private String editsJson;
+    private ServerMessage editsFrame;
+    private ServerMessage initFrame;
+    private ServerMessage presenceFrame;
+
+    @Setup(Level.Trial)
+    // Setup.
+    public void setup() throws Exception {
+        Random random = new Random(42);
+        List<EditOperation> ops = new ArrayList<>();
+        for (int i = 0; i < opsPerFrame; i++) {
+            ops.add(new EditOperation("user-" + (i % 4), "insert", random.nextInt(10_000), "x", 0, i));
+        }
+        List<ActiveUser> users = new ArrayList<>();
+        for (int i = 0; i < 50; i++) users.add(new ActiveUser("user-" + i, "User " + i, random.nextInt(10_000)));
+
+        editJson = mapper.writeValueAsString(
+            new ClientMessage("edit", "doc-1", "user-1", "User 1", ops.get(0), null, null, null, null, null,
+                null, null, null));
+        editsJson = mapper.writeValueAsString(
+            new ClientMessage("edits", "doc-1", "user-1", "User 1", null, null, null, ops, 10L, null, null,
+                null, null));
+        editsFrame = ServerMessage.edits("doc-1", 10, 10 + opsPerFrame, ops);
+        initFrame = ServerMessage.init("doc-1", Texts.prose(64 * 1024, random), 10, users, 50);
+        presenceFrame = ServerMessage.presence("doc-1", users);
+    }
+
+    @Benchmark
+    // Decode edit.
+    public ClientMessage decodeEdit() throws Exception {
+        return mapper.readValue(editJson, ClientMessage.class);
+    }
+
+    @Benchmark
+    // Decode edits.
+    public ClientMessage decodeEdits() throws Exception {
+        return mapper.readValue(editsJson, ClientMessage.class);
+    }
+
+    @Benchmark
+    // Encode edits.
+    public String encodeEdits() throws Exception {
+        return mapper.writeValueAsString(editsFrame);
+    }
+
+    @Benchmark
+    // Encode a 64 KB init frame.
+    public String encodeInit() throws Exception {
+        return mapper.writeValueAsString(initFrame);
+    }
+
+    @Benchmark
+    // Encode presence for 50 users.
+    public String encodePresence() throws Exception {
+        return mapper.writeValueAsString(presenceFrame);
+    }
+
+    @Benchmark
+    // Decode edit with the streaming codec.
+    public ClientMessage codecDecodeEdit() throws Exception {
+        return CollabCodec.decodeClient(editJson);
+    }
+
+    @Benchmark
+    // Decode edits with the streaming codec.
+    public ClientMessage codecDecodeEdits() throws Exception {
+        return CollabCodec.decodeClient(editsJson);
+    }
+
+    @Benchmark
+    // Encode edits with the streaming codec.
+    public String codecEncodeEdits() {
+        return CollabCodec.encode(editsFrame);
+    }
+
+    @Benchmark
+    // Encode a 64 KB init frame with the streaming codec.
+    public String codecEncodeInit() {
+        return CollabCodec.encode(initFrame);
+    }
+
+    @Benchmark
+    // Encode presence for 50 users with the streaming codec.
+    public String codecEncodePresence() {
+        return CollabCodec.encode(presenceFrame);
+    }
+}
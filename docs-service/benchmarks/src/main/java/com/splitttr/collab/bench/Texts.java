@@ -0,0 +1,25 @@
+package com.splitttr.collab.bench;
+
+import java.util.Random;
+
+// Deterministic filler text for benchmarks.
+final class Texts {
+
+    private static final String[] WORDS = {
+        "the", "document", "service", "edit", "cursor", "session", "version", "merge",
+        "paragraph", "shared", "a", "of", "and", "to", "collaboration", "draft"
+    };
+
+    private Texts() {}
+
+    // Words and line breaks up to exactly length characters.
+    static String prose(int length, Random random) {
+        StringBuilder sb = new StringBuilder(length + 16);
+        while (sb.length() < length) {
+            sb.append(WORDS[random.nextInt(WORDS.length)]);
+            sb.append(random.nextInt(12) == 0 ? '\n' : ' ');
+        }
+        sb.setLength(length);
+        return sb.toString();
+    }
+}
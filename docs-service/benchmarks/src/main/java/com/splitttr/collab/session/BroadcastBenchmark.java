@@ -0,0 +1,73 @@
+package com.splitttr.collab.session;
+
+import com.splitttr.collab.message.EditOperation;
+import com.splitttr.collab.message.ServerMessage;
+import com.splitttr.collab.message.ServerMessage.ActiveUser;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+
+// Preparing and queueing frames for every participant of a document.
+// Lives in the session package to attach sinks without real connections; sends complete at
+// once, so this measures serialization and queueing, not the network.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BroadcastBenchmark {
+
+    private static final CompletionStage<Void> SENT = CompletableFuture.completedFuture(null);
+
+    private static final OutboundQueue.Sink DISCARD = new OutboundQueue.Sink() {
+        @Override
+        public CompletionStage<Void> send(String text) {
+            return SENT;
+        }
+
+        @Override
+        public void close() {}
+    };
+
+    @Param({"1", "10", "100", "500"})
+    int participants;
+
+    private DocumentSession session;
+    private EditOperation op;
+    private long version;
+
+    @Setup(Level.Trial)
+    // Setup.
+    public void setup() {
+        // No batch window: every published op is fanned out immediately
+        var settings = new SessionSettings(64, 1024, 1024, 50, 0);
+        session = new DocumentSession("bench", SessionRuntime.direct(settings));
+        session.initContent("", 0);
+        for (int i = 0; i < participants; i++) {
+            session.addUser("user-" + i, "User " + i, DISCARD);
+        }
+        op = new EditOperation("user-0", "insert", 0, "x", 0, 0);
+    }
+
+    @Benchmark
+    // One op fanned out to everyone but its author.
+    public void publishEdit() {
+        session.publishEdit(++version, op);
+    }
+
+    @Benchmark
+    // Membership delta to everyone.
+    public void broadcastUserJoined() {
+        session.broadcast(ServerMessage.userJoined("bench", "user-0", "User 0", session.presenceVersion()), null);
+    }
+
+    @Benchmark
+    // Roster snapshot, cached between changes.
+    public List<ActiveUser> getActiveUsers() {
+        return session.getActiveUsers();
+    }
+}
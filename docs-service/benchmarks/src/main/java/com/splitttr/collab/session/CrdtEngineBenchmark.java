@@ -0,0 +1,64 @@
+package com.splitttr.collab.session;
+
+import com.splitttr.collab.message.EditOperation;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Cost of applying a client op on the positional engine against the CRDT engine.
+// Lives in the session package to switch a document to the CRDT engine. Ops are sent as of a version
+// a few ops back, so the CRDT engine resolves each one past ops its author had not seen yet.
+// Documents are rebuilt once they grow to twice their size.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CrdtEngineBenchmark {
+
+    @Param({"1024", "102400", "1048576"})
+    int docSize;
+
+    @Param({"positional", "crdt"})
+    String engine;
+
+    @Param({"typing", "random-insert"})
+    String pattern;
+
+    private String base;
+    private Random random;
+    private DocumentSession session;
+    private int cursor;
+
+    @Setup(Level.Trial)
+    // Setup.
+    public void setup() {
+        random = new Random(42);
+        StringBuilder sb = new StringBuilder(docSize);
+        while (sb.length() < docSize) sb.append("lorem ipsum dolor sit amet\n");
+        base = sb.substring(0, docSize);
+        rebuild();
+    }
+
+    private void rebuild() {
+        session = new DocumentSession("bench", SessionRuntime.direct(SessionSettings.defaults()));
+        if ("crdt".equals(engine)) session.useCrdt("bench-node");
+        session.initContent(base, 0);
+        cursor = docSize / 2;
+    }
+
+    @Benchmark
+    // Apply one client op.
+    public List<EditOperation> applyClientEdit() {
+        if (session.snapshot().content().length() > docSize * 2) rebuild();
+        int length = session.snapshot().content().length();
+        boolean typing = "typing".equals(pattern);
+        int position = typing ? cursor++ : random.nextInt(length + 1);
+        String user = typing ? "u1" : "u" + random.nextInt(4);
+        long seen = Math.max(0, session.getVersion() - 4);
+        return session.applyClientEdit(new EditOperation(user, "insert", position, "a", 0, seen));
+    }
+}
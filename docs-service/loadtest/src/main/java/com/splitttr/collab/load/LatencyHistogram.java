@@ -0,0 +1,61 @@
+package com.splitttr.collab.load;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Lock-free log-linear histogram of microsecond latencies: each power of two is split into
+// 16 linear buckets, so percentiles are within about 6% without keeping every sample.
+final class LatencyHistogram {
+
+    private static final int SUB_BUCKETS = 16;
+    private static final int MAGNITUDES = 40;
+
+    private final AtomicLongArray counts = new AtomicLongArray(MAGNITUDES * SUB_BUCKETS);
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    // Record.
+    void record(long micros) {
+        long v = Math.max(micros, 0);
+        counts.incrementAndGet(index(v));
+        total.incrementAndGet();
+        max.accumulateAndGet(v, Math::max);
+    }
+
+    // Count.
+    long count() {
+        return total.get();
+    }
+
+    // Max.
+    long max() {
+        return max.get();
+    }
+
+    // Upper bound of the bucket holding the given percentile (0-100), in microseconds.
+    long percentile(double p) {
+        long n = total.get();
+        if (n == 0) return 0;
+        long rank = (long) Math.ceil(n * p / 100.0);
+        long seen = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= rank) return Math.min(upperBound(i), max.get());
+        }
+        return max.get();
+    }
+
+    private static int index(long v) {
+        if (v < SUB_BUCKETS) return (int) v;
+        int magnitude = 63 - Long.numberOfLeadingZeros(v) - 4;    // v >>> magnitude is in [16, 32)
+        int sub = (int) (v >>> magnitude) - SUB_BUCKETS;
+        return Math.min((magnitude + 1) * SUB_BUCKETS + sub, MAGNITUDES * SUB_BUCKETS - 1);
+    }
+
+    private static long upperBound(int index) {
+        if (index < SUB_BUCKETS) return index;
+        int magnitude = index / SUB_BUCKETS - 1;
+        int sub = index % SUB_BUCKETS;
+        return ((long) (SUB_BUCKETS + sub + 1) << magnitude) - 1;
+    }
+}
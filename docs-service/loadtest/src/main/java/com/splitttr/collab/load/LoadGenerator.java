@@ -0,0 +1,119 @@
+package com.splitttr.collab.load;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+// Drives simulated editors against a running docs-service and reports how quickly each edit
+// reaches the other editors of its document.
+//
+// Usage: java -jar target/loadtest.jar [--url ws://localhost:8082/ws/docs] [--docs 10]
+//   [--clients 5] [--rate 5] [--profile steady|bursty|paste] [--cursor-every 3]
+//   [--warmup 10] [--duration 60] [--stub-port 8081]
+// --stub-port serves an in-memory document store for docs-service's DOC_STORE_URL (0 = off).
+public final class LoadGenerator {
+
+    record Options(URI url, int docs, int clients, double rate, TypingProfile profile, int cursorEvery,
+                   int warmupSeconds, int durationSeconds, int stubPort) {
+
+        static Options parse(String[] args) {
+            URI url = URI.create("ws://localhost:8082/ws/docs");
+            int docs = 10, clients = 5, cursorEvery = 3, warmup = 10, duration = 60, stubPort = 8081;
+            double rate = 5;
+            TypingProfile profile = TypingProfile.STEADY;
+            for (int i = 0; i + 1 < args.length; i += 2) {
+                String value = args[i + 1];
+                switch (args[i]) {
+                    case "--url" -> url = URI.create(value);
+                    case "--docs" -> docs = Integer.parseInt(value);
+                    case "--clients" -> clients = Integer.parseInt(value);
+                    case "--rate" -> rate = Double.parseDouble(value);
+                    case "--profile" -> profile = TypingProfile.valueOf(value.toUpperCase(Locale.ROOT));
+                    case "--cursor-every" -> cursorEvery = Integer.parseInt(value);
+                    case "--warmup" -> warmup = Integer.parseInt(value);
+                    case "--duration" -> duration = Integer.parseInt(value);
+                    case "--stub-port" -> stubPort = Integer.parseInt(value);
+                    default -> throw new IllegalArgumentException("Unknown option " + args[i]);
+                }
+            }
+            return new Options(url, docs, clients, rate, profile, cursorEvery, warmup, duration, stubPort);
+        }
+    }
+
+    private LoadGenerator() {}
+
+    // Main.
+    public static void main(String[] args) throws Exception {
+        Options options = Options.parse(args);
+        StubDocumentStore stub = options.stubPort() > 0 ? new StubDocumentStore(options.stubPort()) : null;
+        try {
+            run(options);
+        } finally {
+            if (stub != null) stub.close();
+        }
+    }
+
+    private static void run(Options options) throws Exception {
+        LoadRun run = new LoadRun();
+        HttpClient http = HttpClient.newHttpClient();
+        String runId = Long.toString(System.currentTimeMillis(), 36);
+
+        List<SimulatedClient> clients = new ArrayList<>();
+        CountDownLatch joined = new CountDownLatch(options.docs() * options.clients());
+        try (ExecutorService connectors = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int d = 0; d < options.docs(); d++) {
+                String documentId = "load-" + runId + "-" + d;
+                for (int c = 0; c < options.clients(); c++) {
+                    var client = new SimulatedClient(run, documentId, "u" + d + "-" + c, joined, d * 1000L + c);
+                    clients.add(client);
+                    connectors.execute(() -> client.connect(http, options.url()));
+                }
+            }
+        }
+        // Everyone is in before anyone types, so each peer sees every author's ops from the first
+        if (!joined.await(30, TimeUnit.SECONDS)) {
+            System.err.println("Only " + (clients.size() - joined.getCount()) + " of " + clients.size() + " clients joined");
+        }
+
+        long start = System.nanoTime();
+        long recordFrom = start + TimeUnit.SECONDS.toNanos(options.warmupSeconds());
+        long deadline = recordFrom + TimeUnit.SECONDS.toNanos(options.durationSeconds());
+        try (ExecutorService typists = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (SimulatedClient client : clients) {
+                typists.execute(() -> client.type(options.profile(), options.rate(), options.cursorEvery(), deadline));
+            }
+            TimeUnit.NANOSECONDS.sleep(recordFrom - System.nanoTime());
+            run.startRecording();
+        }
+        // Let in-flight frames arrive before counting
+        Thread.sleep(2_000);
+        run.stopRecording();
+        clients.forEach(SimulatedClient::close);
+
+        report(options, run);
+    }
+
+    private static void report(Options options, LoadRun run) {
+        double seconds = options.durationSeconds();
+        LatencyHistogram latency = run.latency();
+        long expected = run.sent() * (options.clients() - 1);
+
+        System.out.printf(Locale.ROOT, "docs=%d clients/doc=%d profile=%s rate=%.1f/s duration=%ds%n",
+            options.docs(), options.clients(), options.profile().name().toLowerCase(Locale.ROOT),
+            options.rate(), options.durationSeconds());
+        System.out.printf(Locale.ROOT, "ops sent        %10d  %10.1f/s%n", run.sent(), run.sent() / seconds);
+        System.out.printf(Locale.ROOT, "ops at peers    %10d  %10.1f/s  (expected ~%d)%n",
+            run.delivered(), run.delivered() / seconds, expected);
+        System.out.printf(Locale.ROOT, "latency ms      p50 %.2f  p90 %.2f  p99 %.2f  p99.9 %.2f  max %.2f%n",
+            latency.percentile(50) / 1000.0, latency.percentile(90) / 1000.0, latency.percentile(99) / 1000.0,
+            latency.percentile(99.9) / 1000.0, latency.max() / 1000.0);
+        System.out.printf("errors %d  disconnects %d%n", run.errors(), run.disconnects());
+        for (String sample : run.errorSamples()) System.out.println("  " + sample);
+    }
+}
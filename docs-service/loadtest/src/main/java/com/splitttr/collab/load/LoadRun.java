@@ -0,0 +1,76 @@
+package com.splitttr.collab.load;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Shared counters for one run; latencies are only recorded once warm-up is over.
+final class LoadRun {
+
+    // Send times of one author's ops, in order
+    private static final class SendLog {
+        private long[] times = new long[1024];
+        private int size;
+
+        synchronized void add(long nanos) {
+            if (size == times.length) times = java.util.Arrays.copyOf(times, size * 2);
+            times[size++] = nanos;
+        }
+
+        synchronized long get(int index) {
+            return index < size ? times[index] : -1;
+        }
+    }
+
+    private final Map<String, SendLog> sendLogs = new ConcurrentHashMap<>();
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong disconnects = new AtomicLong();
+    private final Map<String, Boolean> errorSamples = new ConcurrentHashMap<>();
+    private volatile boolean recording;
+
+    // Start recording.
+    void startRecording() {
+        recording = true;
+    }
+
+    // Stop recording.
+    void stopRecording() {
+        recording = false;
+    }
+
+    // An op is about to be sent by author.
+    void sent(String author) {
+        sendLogs.computeIfAbsent(author, a -> new SendLog()).add(System.nanoTime());
+        if (recording) sent.incrementAndGet();
+    }
+
+    // A peer received author's index-th op at receivedNanos.
+    void delivered(String author, int index, long receivedNanos) {
+        SendLog log = sendLogs.get(author);
+        long sentAt = log == null ? -1 : log.get(index);
+        if (sentAt < 0 || !recording) return;
+        delivered.incrementAndGet();
+        latency.record((receivedNanos - sentAt) / 1_000);
+    }
+
+    // Error.
+    void error(String message) {
+        errors.incrementAndGet();
+        if (errorSamples.size() < 5) errorSamples.put(message, Boolean.TRUE);
+    }
+
+    // Disconnected.
+    void disconnected() {
+        disconnects.incrementAndGet();
+    }
+
+    long sent() { return sent.get(); }
+    long delivered() { return delivered.get(); }
+    long errors() { return errors.get(); }
+    long disconnects() { return disconnects.get(); }
+    LatencyHistogram latency() { return latency; }
+    Iterable<String> errorSamples() { return errorSamples.keySet(); }
+}
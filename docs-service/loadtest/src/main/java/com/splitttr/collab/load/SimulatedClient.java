@@ -0,0 +1,150 @@
+package com.splitttr.collab.load;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.WebSocket;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CountDownLatch;
+
+// One simulated editor: joins a document, types according to a profile and reports the
+// latency of every peer op it sees. Ops always go to position 0 so they stay valid whatever
+// the others do concurrently.
+final class SimulatedClient implements WebSocket.Listener {
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    private final LoadRun run;
+    private final String documentId;
+    private final String userId;
+    private final CountDownLatch joined;
+    private final Random random;
+
+    private final StringBuilder partial = new StringBuilder();
+    // Ops seen so far per author; each author's ops reach every peer in send order
+    private final Map<String, Integer> seen = new HashMap<>();
+
+    private WebSocket ws;
+    private volatile boolean closing;
+
+    SimulatedClient(LoadRun run, String documentId, String userId, CountDownLatch joined, long seed) {
+        this.run = run;
+        this.documentId = documentId;
+        this.userId = userId;
+        this.joined = joined;
+        this.random = new Random(seed);
+    }
+
+    // Connect and join.
+    void connect(HttpClient http, URI uri) {
+        ws = http.newWebSocketBuilder().buildAsync(uri, this).join();
+        send(mapper.createObjectNode()
+            .put("type", "join")
+            .put("documentId", documentId)
+            .put("userId", userId)
+            .put("username", userId));
+    }
+
+    // Type until the deadline (System.nanoTime()).
+    void type(TypingProfile profile, double charsPerSecond, int cursorEvery, long deadline) {
+        int edits = 0;
+        while (System.nanoTime() < deadline && !closing) {
+            try {
+                Thread.sleep(profile.nextDelayMillis(charsPerSecond, random));
+            } catch (InterruptedException e) {
+                return;
+            }
+            String text = profile.nextText(random);
+            ObjectNode edit = mapper.createObjectNode()
+                .put("userId", userId)
+                .put("type", "insert")
+                .put("position", 0)
+                .put("content", text)
+                .put("deleteCount", 0)
+                .put("clientVersion", 0);
+            ObjectNode frame = mapper.createObjectNode()
+                .put("type", "edit")
+                .put("documentId", documentId)
+                .put("userId", userId);
+            frame.set("edit", edit);
+
+            run.sent(userId);
+            send(frame);
+
+            if (cursorEvery > 0 && ++edits % cursorEvery == 0) {
+                send(mapper.createObjectNode()
+                    .put("type", "cursor")
+                    .put("documentId", documentId)
+                    .put("userId", userId)
+                    .put("cursorPosition", text.length()));
+            }
+        }
+    }
+
+    // Close.
+    void close() {
+        closing = true;
+        if (ws != null) ws.sendClose(WebSocket.NORMAL_CLOSURE, "done");
+    }
+
+    private void send(ObjectNode frame) {
+        try {
+            ws.sendText(mapper.writeValueAsString(frame), true).join();
+        } catch (Exception e) {
+            if (!closing) run.error("send failed: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public CompletionStage<?> onText(WebSocket webSocket, CharSequence data, boolean last) {
+        partial.append(data);
+        if (last) {
+            String text = partial.toString();
+            partial.setLength(0);
+            handle(text);
+        }
+        webSocket.request(1);
+        return null;
+    }
+
+    private void handle(String text) {
+        long now = System.nanoTime();
+        JsonNode msg;
+        try {
+            msg = mapper.readTree(text);
+        } catch (Exception e) {
+            run.error("unreadable frame");
+            return;
+        }
+        switch (msg.path("type").asText()) {
+            case "init", "resume" -> joined.countDown();
+            case "edits" -> {
+                for (JsonNode op : msg.path("ops")) {
+                    String author = op.path("userId").asText();
+                    int index = seen.merge(author, 1, Integer::sum) - 1;
+                    run.delivered(author, index, now);
+                }
+            }
+            case "error" -> run.error(msg.path("error").asText());
+            case "redirect" -> run.error("redirected to " + msg.path("url").asText() + "; point --url at the owner");
+            default -> {}
+        }
+    }
+
+    @Override
+    public CompletionStage<?> onClose(WebSocket webSocket, int statusCode, String reason) {
+        if (!closing) run.disconnected();
+        return null;
+    }
+
+    @Override
+    public void onError(WebSocket webSocket, Throwable error) {
+        if (!closing) run.error("socket error: " + error.getMessage());
+    }
+}
@@ -0,0 +1,115 @@
+package com.splitttr.collab.load;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+
+// In-memory stand-in for mdb-service's /api/documents endpoints used by docs-service
+// (get, full save, op append), so a load test measures docs-service alone.
+final class StubDocumentStore implements AutoCloseable {
+
+    private static final String PREFIX = "/api/documents/";
+
+    private static final class Doc {
+        final StringBuilder content = new StringBuilder();
+        long version = 1;
+    }
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final Map<String, Doc> docs = new ConcurrentHashMap<>();
+    private final HttpServer server;
+
+    StubDocumentStore(int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        server.createContext(PREFIX, this::handle);
+        server.start();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            String rest = exchange.getRequestURI().getPath().substring(PREFIX.length());
+            boolean ops = rest.endsWith("/ops");
+            String id = ops ? rest.substring(0, rest.length() - 4) : rest;
+            Doc doc = docs.computeIfAbsent(id, k -> new Doc());
+
+            ObjectNode response;
+            synchronized (doc) {
+                switch (exchange.getRequestMethod()) {
+                    case "GET" -> response = document(id, doc);
+                    case "PUT" -> {
+                        JsonNode body = mapper.readTree(exchange.getRequestBody());
+                        if (body.hasNonNull("content")) {
+                            doc.content.setLength(0);
+                            doc.content.append(body.get("content").asText());
+                        }
+                        doc.version++;
+                        response = document(id, doc);
+                    }
+                    case "POST" -> {
+                        JsonNode body = mapper.readTree(exchange.getRequestBody());
+                        if (body.get("baseVersion").asLong() != doc.version) {
+                            send(exchange, 409, mapper.createObjectNode().put("currentVersion", doc.version));
+                            return;
+                        }
+                        for (JsonNode op : body.get("ops")) apply(doc.content, op);
+                        doc.version += body.get("ops").size();
+                        response = mapper.createObjectNode().put("id", id).put("version", doc.version);
+                    }
+                    default -> {
+                        send(exchange, 405, mapper.createObjectNode());
+                        return;
+                    }
+                }
+            }
+            send(exchange, 200, response);
+        }
+    }
+
+    private ObjectNode document(String id, Doc doc) {
+        String now = Instant.now().toString();
+        return mapper.createObjectNode()
+            .put("id", id)
+            .put("title", "load " + id)
+            .put("content", doc.content.toString())
+            .put("ownerId", "loadtest")
+            .put("createdAt", now)
+            .put("updatedAt", now)
+            .put("version", doc.version);
+    }
+
+    private static void apply(StringBuilder content, JsonNode op) {
+        int length = content.length();
+        int position = Math.min(Math.max(op.path("position").asInt(), 0), length);
+        int deleteCount = Math.min(Math.max(op.path("deleteCount").asInt(), 0), length - position);
+        String text = op.path("content").asText("");
+        switch (op.path("type").asText()) {
+            case "insert" -> content.insert(position, text);
+            case "delete" -> content.delete(position, position + deleteCount);
+            case "replace" -> content.replace(position, position + deleteCount, text);
+            default -> {}
+        }
+    }
+
+    private void send(HttpExchange exchange, int status, JsonNode body) throws IOException {
+        byte[] bytes = mapper.writeValueAsBytes(body);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        exchange.getResponseBody().write(bytes);
+    }
+}
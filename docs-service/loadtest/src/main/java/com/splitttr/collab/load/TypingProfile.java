@@ -0,0 +1,50 @@
+package com.splitttr.collab.load;
+
+import java.util.Random;
+
+// How a simulated user types: pause before the next edit and the text it inserts.
+enum TypingProfile {
+
+    // Even keystrokes at the configured rate.
+    STEADY {
+        @Override
+        long nextDelayMillis(double charsPerSecond, Random random) {
+            return jitter(1000.0 / charsPerSecond, random);
+        }
+    },
+
+    // Quick runs of 5-30 keystrokes separated by thinking pauses; same average rate.
+    BURSTY {
+        @Override
+        long nextDelayMillis(double charsPerSecond, Random random) {
+            if (random.nextInt(20) == 0) return jitter(19 * 1000.0 / charsPerSecond, random);
+            return jitter(1000.0 / charsPerSecond / 20, random);
+        }
+    },
+
+    // Steady typing with an occasional 1-4 KB paste.
+    PASTE {
+        @Override
+        long nextDelayMillis(double charsPerSecond, Random random) {
+            return STEADY.nextDelayMillis(charsPerSecond, random);
+        }
+
+        @Override
+        String nextText(Random random) {
+            if (random.nextInt(200) != 0) return super.nextText(random);
+            return "x".repeat(1024 + random.nextInt(3 * 1024));
+        }
+    };
+
+    // Next delay millis.
+    abstract long nextDelayMillis(double charsPerSecond, Random random);
+
+    // Next text.
+    String nextText(Random random) {
+        return String.valueOf((char) ('a' + random.nextInt(26)));
+    }
+
+    private static long jitter(double meanMillis, Random random) {
+        return Math.max(0, Math.round(meanMillis * (0.5 + random.nextDouble())));
+    }
+}
@@ -1,5 +1,6 @@
 package com.splitttr.collab.client;
 
+import io.smallrye.mutiny.Uni;
 import jakarta.ws.rs.*;
 import jakarta.ws.rs.core.MediaType;
 import org.eclipse.microprofile.rest.client.inject.RegisterRestClient;
@@ -15,7 +16,16 @@ public interface DocumentClient {
     @Path("/{id}")
     DocumentResponse getById(@PathParam("id") String id);
 
+    // Same request without blocking the caller, for loading sessions.
+    @GET
+    @Path("/{id}")
+    Uni<DocumentResponse> getByIdAsync(@PathParam("id") String id);
+
     @PUT
     @Path("/{id}")
     DocumentResponse update(@PathParam("id") String id, DocumentUpdateRequest req);
+
+    @POST
+    @Path("/{id}/ops")
+    OperationAppendResponse appendOps(@PathParam("id") String id, OperationAppendRequest req);
 }
\ No newline at end of file
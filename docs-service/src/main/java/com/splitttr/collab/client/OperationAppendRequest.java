@@ -0,0 +1,8 @@
+package com.splitttr.collab.client;
+
+import com.splitttr.collab.message.EditOperation;
+
+import java.util.List;
+
+// OperationAppendRequest.
+public record OperationAppendRequest(long baseVersion, List<EditOperation> ops) {}
@@ -0,0 +1,4 @@
+package com.splitttr.collab.client;
+
+// OperationAppendResponse.
+public record OperationAppendResponse(String id, long version) {}
@@ -0,0 +1,116 @@
+package com.splitttr.collab.cluster;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+// Which docs-service node owns which document.
+// Members are the WebSocket base URLs of the nodes (e.g. ws://docs-0:8082); with no members
+// configured this node owns every document, which is the single-replica default.
+@ApplicationScoped
+public class ClusterMembership {
+
+    @ConfigProperty(name = "collab.cluster.self", defaultValue = "local")
+    String self;
+
+    @ConfigProperty(name = "collab.cluster.members")
+    Optional<String> configuredMembers;
+
+    // Nodes membership changes may name; defaults to the configured members and this node
+    @ConfigProperty(name = "collab.cluster.allowed-members")
+    Optional<String> allowedMembers;
+
+    // Shared secret for changing membership at runtime; unset disables it
+    @ConfigProperty(name = "collab.cluster.token")
+    Optional<String> token;
+
+    static final String SOCKET_PATH = "/ws/docs";
+
+    private volatile HashRing ring = new HashRing(List.of());
+    private Set<String> allowed = Set.of();
+    private final List<Runnable> listeners = new CopyOnWriteArrayList<>();
+
+    @PostConstruct
+    // Init.
+    void init() {
+        ring = new HashRing(parse(configuredMembers.orElse("")));
+        var known = new LinkedHashSet<>(parse(allowedMembers.orElse(configuredMembers.orElse(""))));
+        if (allowedMembers.isEmpty()) known.add(self);
+        allowed = Set.copyOf(known);
+    }
+
+    // Retrieve get self.
+    public String getSelf() {
+        return self;
+    }
+
+    // Retrieve get members.
+    public List<String> getMembers() {
+        return ring.members();
+    }
+
+    // Owner of a document; this node when running unclustered.
+    public String ownerOf(String documentId) {
+        String owner = ring.ownerOf(documentId);
+        return owner != null ? owner : self;
+    }
+
+    // Is local.
+    public boolean isLocal(String documentId) {
+        return self.equals(ownerOf(documentId));
+    }
+
+    // WebSocket URL clients should use for a document.
+    public String socketUrl(String documentId) {
+        return ownerOf(documentId) + SOCKET_PATH;
+    }
+
+    // WebSocket URL of the node that owns a document once this one is gone, or null with no other member.
+    public String successorUrl(String documentId) {
+        var others = ring.members().stream().filter(m -> !m.equals(self)).toList();
+        String successor = new HashRing(others).ownerOf(documentId);
+        return successor == null ? null : successor + SOCKET_PATH;
+    }
+
+    // HTTP base URL of a document's owner, for internal REST calls that must reach its session.
+    public String httpUrl(String documentId) {
+        return ownerOf(documentId).replaceFirst("^ws", "http");
+    }
+
+    // Whether a caller presented the membership token; always false when none is configured.
+    public boolean authorized(String presented) {
+        String expected = token.filter(t -> !t.isBlank()).orElse(null);
+        if (expected == null || presented == null) return false;
+        return MessageDigest.isEqual(expected.getBytes(StandardCharsets.UTF_8), presented.getBytes(StandardCharsets.UTF_8));
+    }
+
+    // Whether a member URL may be installed: a ws:// or wss:// base URL on the allow-list.
+    public boolean isAllowed(String member) {
+        String m = member == null ? "" : member.trim();
+        return (m.startsWith("ws://") || m.startsWith("wss://")) && allowed.contains(m);
+    }
+
+    // Replace the member list and let listeners hand off documents that moved.
+    public void updateMembers(List<String> members) {
+        ring = new HashRing(parse(String.join(",", members)));
+        listeners.forEach(Runnable::run);
+    }
+
+    // On change.
+    public void onChange(Runnable listener) {
+        listeners.add(listener);
+    }
+
+    private static List<String> parse(String members) {
+        return Arrays.stream(members.split(",")).map(String::trim).filter(m -> !m.isEmpty()).distinct().toList();
+    }
+}
@@ -0,0 +1,51 @@
+package com.splitttr.collab.cluster;
+
+import jakarta.inject.Inject;
+import jakarta.ws.rs.*;
+import jakarta.ws.rs.core.MediaType;
+
+import java.util.List;
+
+// Internal endpoints for inspecting and changing cluster membership.
+@Path("/internal/cluster")
+@Produces(MediaType.APPLICATION_JSON)
+@Consumes(MediaType.APPLICATION_JSON)
+public class ClusterResource {
+
+    public record MembershipResponse(String self, List<String> members) {}
+
+    public record OwnerResponse(String documentId, String owner, boolean local) {}
+
+    static final String TOKEN_HEADER = "X-Cluster-Token";
+
+    @Inject
+    ClusterMembership membership;
+
+    @GET
+    @Path("/members")
+    // Retrieve get members.
+    public MembershipResponse getMembers() {
+        return new MembershipResponse(membership.getSelf(), membership.getMembers());
+    }
+
+    @PUT
+    @Path("/members")
+    // Update update members; sessions this node no longer owns are flushed and their clients redirected.
+    // Clients follow those redirects, so only callers with the cluster token may name members, and only
+    // members on the allow-list.
+    public MembershipResponse updateMembers(@HeaderParam(TOKEN_HEADER) String token, List<String> members) {
+        if (!membership.authorized(token)) throw new ForbiddenException("Cluster token required");
+        if (members == null || members.isEmpty()) throw new BadRequestException("members is required");
+        var rejected = members.stream().filter(m -> !membership.isAllowed(m)).toList();
+        if (!rejected.isEmpty()) throw new BadRequestException("Members not on the allow-list: " + rejected);
+        membership.updateMembers(members);
+        return getMembers();
+    }
+
+    @GET
+    @Path("/owner/{documentId}")
+    // Retrieve get owner.
+    public OwnerResponse getOwner(@PathParam("documentId") String documentId) {
+        return new OwnerResponse(documentId, membership.ownerOf(documentId), membership.isLocal(documentId));
+    }
+}
@@ -0,0 +1,53 @@
+package com.splitttr.collab.cluster;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Consistent-hash ring over cluster members.
+// Each member owns many virtual points so documents spread evenly and a membership change
+// only moves the documents whose nearest point changed owner.
+public final class HashRing {
+
+    static final int POINTS_PER_MEMBER = 128;
+
+    private final TreeMap<Long, String> points = new TreeMap<>();
+    private final List<String> members;
+
+    public HashRing(List<String> members) {
+        this.members = List.copyOf(members);
+        for (String member : this.members) {
+            for (int i = 0; i < POINTS_PER_MEMBER; i++) {
+                points.put(hash(member + "#" + i), member);
+            }
+        }
+    }
+
+    // Members.
+    public List<String> members() {
+        return members;
+    }
+
+    // Owner of a key, or null if the ring is empty.
+    public String ownerOf(String key) {
+        if (points.isEmpty()) return null;
+        Map.Entry<Long, String> point = points.ceilingEntry(hash(key));
+        return (point != null ? point : points.firstEntry()).getValue();
+    }
+
+    // FNV-1a over UTF-8 followed by a splitmix64 finalizer for good avalanche on short keys.
+    static long hash(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 30;
+        h *= 0xbf58476d1ce4e5b9L;
+        h ^= h >>> 27;
+        h *= 0x94d049bb133111ebL;
+        h ^= h >>> 31;
+        return h;
+    }
+}
@@ -0,0 +1,14 @@
+package com.splitttr.collab.crdt;
+
+// An edit as replicas of a CRDT document exchange it: by character id, not by position.
+public sealed interface CrdtOp {
+
+    // Id of one character: the replica that typed it and a Lamport counter, one per character.
+    record CharId(String replica, long counter) {}
+
+    // Text whose characters get consecutive counters from id on, typed right after origin (null: at the start).
+    record Insert(CharId id, CharId origin, String text, String author) implements CrdtOp {}
+
+    // The characters of one replica with counters [id.counter, id.counter + length).
+    record Delete(CharId id, int length, String author) implements CrdtOp {}
+}
@@ -0,0 +1,349 @@
+package com.splitttr.collab.crdt;
+
+import com.splitttr.collab.crdt.CrdtOp.CharId;
+import com.splitttr.collab.message.EditOperation;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+// Sequence CRDT (RGA) holding a document as runs of characters with unique ids.
+// Each character is placed right after the one it was typed after; characters typed concurrently
+// after the same one are ordered by id, larger first. Replicas that integrate the same ops therefore
+// hold the same text whatever order the ops arrived in, as long as each op arrives after the ones
+// it builds on. Deleted characters stay as tombstones until compact() drops the ones no op can
+// still refer to, and then merges neighbouring runs of one replica back together.
+//
+// Positional ops are resolved against the text their author was looking at: everything applied up
+// to its view version plus the author's own later ops. An edit sent from a stale position lands next
+// to the characters its author saw there, whatever has been applied since.
+public final class Rga {
+
+    // Run object, its index entry and its String header on a 64-bit JVM with compressed oops
+    private static final int RUN_BYTES = 152;
+
+    private final String replica;
+    private final Run head = new Run(null, 0, "", null, 0);
+    private final Map<String, TreeMap<Long, Run>> index = new HashMap<>();
+    private long clock;
+    private int length;
+
+    // Views older than this are resolved as of it; tombstones up to here are gone
+    private long horizon;
+
+    // Ops applied locally, as positional edits of the current text and as ops for other replicas.
+    public record Result(List<EditOperation> applied, List<CrdtOp> minted) {}
+
+    private static final class Run {
+        final String replica;       // with counter, the id of the first char; char i has counter + i
+        final long counter;
+        String text;
+        String author;              // user who typed it; null once compacted
+        long insertedAt;            // version that applied it
+        long deletedAt;             // version that deleted it, 0 while live
+        String deletedBy;
+        Run prev, next;
+
+        Run(String replica, long counter, String text, String author, long insertedAt) {
+            this.replica = replica;
+            this.counter = counter;
+            this.text = text;
+            this.author = author;
+            this.insertedAt = insertedAt;
+        }
+
+        boolean live() {
+            return deletedAt == 0;
+        }
+    }
+
+    // Document holding content as of version. Replicas loading the same content get the same ids.
+    public Rga(String replica, String content, long version) {
+        this.replica = replica;
+        this.horizon = version;
+        if (!content.isEmpty()) {
+            Run initial = new Run("", 1, content, null, version);
+            linkAfter(head, initial);
+            length = content.length();
+            clock = content.length();
+        }
+    }
+
+    // Apply a positional op as its author saw the text at viewVersion, stamping it with version stamp.
+    public Result apply(EditOperation op, long viewVersion, long stamp) {
+        String user = op.userId();
+        long view = Math.max(viewVersion, horizon);
+        int position = Math.max(0, op.position());
+        int deleted = "delete".equals(op.type()) || "replace".equals(op.type()) ? op.deleteCount() : 0;
+        boolean inserts = "insert".equals(op.type()) || "replace".equals(op.type());
+        String text = inserts && op.content() != null ? op.content() : "";
+
+        List<EditOperation> applied = new ArrayList<>();
+        List<CrdtOp> minted = new ArrayList<>();
+
+        if (deleted > 0) {
+            int end = position + deleted;
+            Set<Run> marked = Collections.newSetFromMap(new IdentityHashMap<>());
+            int seen = 0;
+            for (Run r = head.next; r != null && seen < end; r = r.next) {
+                if (!inView(r, user, view)) continue;
+                int from = Math.max(position - seen, 0);
+                int to = Math.min(end - seen, r.text.length());
+                if (from < to && r.live()) {
+                    // Characters already deleted by someone else stay deleted; the rest go now
+                    r = isolate(r, from, to);
+                    seen += from;
+                    r.deletedAt = stamp;
+                    r.deletedBy = user;
+                    length -= r.text.length();
+                    marked.add(r);
+                    minted.add(new CrdtOp.Delete(new CharId(r.replica, r.counter), r.text.length(), user));
+                }
+                seen += r.text.length();
+            }
+            applied.addAll(deletes(marked, user, op.clientVersion()));
+        }
+
+        if (!text.isEmpty()) {
+            var insert = new CrdtOp.Insert(new CharId(replica, clock + 1), originAt(position, user, view), text, user);
+            minted.add(insert);
+            applied.addAll(integrateInsert(insert, stamp, op.clientVersion()));
+        }
+
+        // A delete and an insert at the same spot read as the replace the client sent
+        if (applied.size() == 2 && "delete".equals(applied.get(0).type())
+                && applied.get(0).position() == applied.get(1).position()) {
+            EditOperation del = applied.get(0), ins = applied.get(1);
+            applied = List.of(new EditOperation(user, "replace", del.position(), ins.content(), del.deleteCount(),
+                op.clientVersion()));
+        }
+        return new Result(applied, minted);
+    }
+
+    // Merge an op from another replica; returns what it did to this replica's text, as positional ops.
+    public List<EditOperation> integrate(CrdtOp op, long stamp) {
+        return switch (op) {
+            case CrdtOp.Insert insert -> integrateInsert(insert, stamp, 0);
+            case CrdtOp.Delete delete -> integrateDelete(delete, stamp);
+        };
+    }
+
+    // Forget tombstones deleted at or before horizon and merge runs nobody can split apart by version any
+    // more. Ops from other replicas must not refer to characters deleted before horizon after this.
+    public void compact(long horizon) {
+        this.horizon = Math.max(this.horizon, horizon);
+        for (Run r = head.next; r != null; r = r.next) {
+            if (!r.live() && r.deletedAt <= this.horizon) unlink(r);
+        }
+
+        Run r = head.next;
+        while (r != null) {
+            Run last = r;
+            while (mergeable(last, last.next)) last = last.next;
+            if (last != r) {
+                StringBuilder text = new StringBuilder(r.text);
+                long insertedAt = r.insertedAt;
+                for (Run n = r.next; n != last.next; ) {
+                    Run following = n.next;
+                    text.append(n.text);
+                    insertedAt = Math.max(insertedAt, n.insertedAt);
+                    unlink(n);
+                    n = following;
+                }
+                r.text = text.toString();
+                r.insertedAt = insertedAt;
+                r.author = null;
+            }
+            r = r.next;
+        }
+    }
+
+    // Visible length.
+    public int length() {
+        return length;
+    }
+
+    // Runs held, tombstones included.
+    public int runCount() {
+        int runs = 0;
+        for (Run r = head.next; r != null; r = r.next) runs++;
+        return runs;
+    }
+
+    // Approximate heap held, tombstones included.
+    public long estimatedBytes() {
+        long bytes = 64;
+        for (Run r = head.next; r != null; r = r.next) bytes += RUN_BYTES + 2L * r.text.length();
+        return bytes;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(length);
+        for (Run r = head.next; r != null; r = r.next) {
+            if (r.live()) sb.append(r.text);
+        }
+        return sb.toString();
+    }
+
+    // Part of the author's view: applied by viewVersion or typed by the author, and not deleted by either.
+    private boolean inView(Run r, String user, long view) {
+        boolean inserted = r.insertedAt <= view || user != null && user.equals(r.author);
+        boolean deleted = !r.live() && (r.deletedAt <= view || user != null && user.equals(r.deletedBy));
+        return inserted && !deleted;
+    }
+
+    // Id of the char at view index position - 1, the last one if the view is shorter, null at the start.
+    private CharId originAt(int position, String user, long view) {
+        CharId origin = null;
+        int seen = 0;
+        for (Run r = head.next; r != null && seen < position; r = r.next) {
+            if (!inView(r, user, view)) continue;
+            int take = Math.min(position - seen, r.text.length());
+            origin = new CharId(r.replica, r.counter + take - 1);
+            seen += take;
+        }
+        return origin;
+    }
+
+    private List<EditOperation> integrateInsert(CrdtOp.Insert insert, long stamp, long clientVersion) {
+        CharId id = insert.id();
+        if (runAt(id) != null || insert.text().isEmpty()) return List.of();
+
+        Run ref = head;
+        if (insert.origin() != null) {
+            Run origin = runAt(insert.origin());
+            if (origin == null) throw new IllegalStateException("Unknown origin " + insert.origin());
+            int offset = (int) (insert.origin().counter() - origin.counter);
+            if (offset + 1 < origin.text.length()) split(origin, offset + 1);
+            ref = origin;
+        }
+        // Skip the runs typed concurrently after the same char that sort first, with everything typed after them
+        while (ref.next != null && sortsBefore(ref.next, id)) ref = ref.next;
+
+        Run run = new Run(id.replica(), id.counter(), insert.text(), insert.author(), stamp);
+        linkAfter(ref, run);
+        length += run.text.length();
+        clock = Math.max(clock, id.counter() + run.text.length() - 1);
+        return List.of(new EditOperation(insert.author(), "insert", offsetOf(run), run.text, 0, clientVersion));
+    }
+
+    private List<EditOperation> integrateDelete(CrdtOp.Delete delete, long stamp) {
+        var runs = index.get(delete.id().replica());
+        if (runs == null) return List.of();
+        Set<Run> marked = Collections.newSetFromMap(new IdentityHashMap<>());
+        long end = delete.id().counter() + delete.length();
+        long c = delete.id().counter();
+        while (c < end) {
+            var entry = runs.floorEntry(c);
+            Run r = entry == null ? null : entry.getValue();
+            if (r == null || c >= r.counter + r.text.length()) {
+                // Already compacted away or never held here; move on to the next run we have
+                var next = runs.higherEntry(c);
+                if (next == null) break;
+                c = next.getKey();
+                continue;
+            }
+            int from = (int) (c - r.counter);
+            int to = (int) Math.min(end - r.counter, r.text.length());
+            c = r.counter + to;
+            if (r.live()) {
+                r = isolate(r, from, to);
+                r.deletedAt = stamp;
+                r.deletedBy = delete.author();
+                length -= r.text.length();
+                marked.add(r);
+            }
+        }
+        return deletes(marked, delete.author(), 0);
+    }
+
+    // Positional deletes for the runs just marked, left to right, each against the text after the previous.
+    private List<EditOperation> deletes(Set<Run> marked, String user, long clientVersion) {
+        List<EditOperation> ops = new ArrayList<>();
+        if (marked.isEmpty()) return ops;
+        int offset = 0;
+        for (Run r = head.next; r != null; r = r.next) {
+            if (marked.contains(r)) {
+                int last = ops.size() - 1;
+                if (last >= 0 && ops.get(last).position() == offset) {
+                    EditOperation prev = ops.get(last);
+                    ops.set(last, new EditOperation(user, "delete", offset, null,
+                        prev.deleteCount() + r.text.length(), clientVersion));
+                } else {
+                    ops.add(new EditOperation(user, "delete", offset, null, r.text.length(), clientVersion));
+                }
+            } else if (r.live()) {
+                offset += r.text.length();
+            }
+        }
+        return ops;
+    }
+
+    // Concurrent siblings with larger ids come first; ties on counter go to the larger replica name.
+    private static boolean sortsBefore(Run r, CharId id) {
+        if (r.counter != id.counter()) return r.counter > id.counter();
+        return r.replica.compareTo(id.replica()) > 0;
+    }
+
+    private boolean mergeable(Run r, Run n) {
+        return n != null && r.live() && n.live()
+            && r.replica.equals(n.replica) && r.counter + r.text.length() == n.counter
+            && r.insertedAt <= horizon && n.insertedAt <= horizon;
+    }
+
+    // Live chars before run.
+    private int offsetOf(Run run) {
+        int offset = 0;
+        for (Run r = head.next; r != run; r = r.next) {
+            if (r.live()) offset += r.text.length();
+        }
+        return offset;
+    }
+
+    private Run runAt(CharId id) {
+        var runs = index.get(id.replica());
+        if (runs == null) return null;
+        var entry = runs.floorEntry(id.counter());
+        if (entry == null) return null;
+        Run r = entry.getValue();
+        return id.counter() < r.counter + r.text.length() ? r : null;
+    }
+
+    // Split r so that [from, to) of it is a run of its own, and return that run.
+    private Run isolate(Run r, int from, int to) {
+        if (to < r.text.length()) split(r, to);
+        return from > 0 ? split(r, from) : r;
+    }
+
+    // Cut r at offset; r keeps the head, the returned run holds the rest.
+    private Run split(Run r, int offset) {
+        Run rest = new Run(r.replica, r.counter + offset, r.text.substring(offset), r.author, r.insertedAt);
+        rest.deletedAt = r.deletedAt;
+        rest.deletedBy = r.deletedBy;
+        r.text = r.text.substring(0, offset);
+        linkAfter(r, rest);
+        return rest;
+    }
+
+    private void linkAfter(Run ref, Run run) {
+        run.prev = ref;
+        run.next = ref.next;
+        if (ref.next != null) ref.next.prev = run;
+        ref.next = run;
+        index.computeIfAbsent(run.replica, k -> new TreeMap<>()).put(run.counter, run);
+    }
+
+    private void unlink(Run run) {
+        run.prev.next = run.next;
+        if (run.next != null) run.next.prev = run.prev;
+        var runs = index.get(run.replica);
+        runs.remove(run.counter);
+        if (runs.isEmpty()) index.remove(run.replica);
+    }
+}
@@ -0,0 +1,403 @@
+package com.splitttr.collab.message;
+
+import com.splitttr.collab.message.ServerMessage.ActiveUser;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+// Compact binary codec for /ws/docs, for clients that join with a binary frame.
+// A frame is a one-byte type followed by its fields: integers as unsigned LEB128 varints, strings
+// as a varint byte length plus UTF-8. Field names are implicit, the document id is left out
+// because a connection is bound to one document, and users are referred to by their UserTable
+// number. The layout of each frame is listed in the README.
+public final class BinaryCodec {
+
+    // Client frame types
+    public static final byte JOIN = 1;
+    public static final byte EDITS = 2;
+    public static final byte CURSOR = 3;
+    public static final byte LEAVE = 4;
+    public static final byte RANGE = 5;
+
+    // Server frame types
+    public static final byte INIT = 1;
+    public static final byte SERVER_EDITS = 2;
+    public static final byte RESUME = 3;
+    public static final byte PRESENCE = 4;
+    public static final byte USER_JOINED = 5;
+    public static final byte USER_LEFT = 6;
+    public static final byte REDIRECT = 7;
+    public static final byte ERROR = 8;
+    public static final byte SNAPSHOT = 9;
+    public static final byte INIT_RANGE = 10;
+    public static final byte SERVER_RANGE = 11;
+    public static final byte ACK = 12;
+    public static final byte USERS = 13;
+
+    // Op kinds
+    private static final int INSERT = 1;
+    private static final int DELETE = 2;
+    private static final int REPLACE = 3;
+    private static final int SHIFT = 4;
+
+    private static final int POOLED_BUFFERS = 16;
+    private static final int MAX_POOLED_BYTES = 256 * 1024;
+    private static final Queue<Output> buffers = new ConcurrentLinkedQueue<>();
+
+    private BinaryCodec() {}
+
+    // Decode a client frame into the same message the JSON path produces.
+    public static ClientMessage decodeClient(byte[] frame) throws IOException {
+        Input in = new Input(frame);
+        return switch (in.readByte()) {
+            case JOIN -> {
+                String documentId = in.readString();
+                String userId = in.readString();
+                String username = in.readString();
+                long lastVersion = in.readVarLong();
+                // Optional trailing flags byte (1 joins as a viewer, 2 pipelines ops), then optionally a
+                // range-mode span
+                int flags = in.hasMore() ? in.readByte() : 0;
+                String role = (flags & 1) != 0 ? "viewer" : null;
+                Integer rangeStart = null, rangeLength = null;
+                if (in.hasMore()) {
+                    rangeStart = in.readVarInt();
+                    rangeLength = in.readVarInt();
+                }
+                yield new ClientMessage("join", documentId, userId, username.isEmpty() ? null : username,
+                    null, null, lastVersion == 0 ? null : lastVersion - 1, null, null, role, rangeStart, rangeLength,
+                    (flags & 2) != 0 ? Boolean.TRUE : null);
+            }
+            case EDITS -> {
+                long baseVersion = in.readVarLong();
+                int count = in.readCount();
+                List<EditOperation> ops = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) ops.add(in.readOp(null));
+                yield new ClientMessage("edits", null, null, null, null, null, null, ops,
+                    baseVersion == 0 ? null : baseVersion - 1, null, null, null, null);
+            }
+            case CURSOR -> new ClientMessage("cursor", null, null, null, null, in.readVarInt(), null, null, null, null,
+                null, null, null);
+            case RANGE -> new ClientMessage("range", null, null, null, null, null, null, null, null, null,
+                in.readVarInt(), in.readVarInt(), null);
+            case LEAVE -> new ClientMessage("leave", null, null, null, null, null, null, null, null, null, null, null,
+                null);
+            default -> throw new IOException("Unknown binary frame type " + frame[0]);
+        };
+    }
+
+    // Encode a server frame; users are written as their number in the session's table.
+    public static byte[] encode(ServerMessage m, UserTable users) {
+        Output out = buffers.poll();
+        if (out == null) out = new Output();
+        try {
+            switch (m.type()) {
+                case "init" -> {
+                    int[] active = ids(m.activeUsers(), users);
+                    out.writeByte(INIT);
+                    out.writeString(m.content());
+                    out.writeVarLong(m.version());
+                    writeTable(out, users);
+                    writeUsers(out, m.activeUsers(), active);
+                    out.writeVarLong(m.presenceVersion());
+                }
+                case "init_range" -> {
+                    int[] active = ids(m.activeUsers(), users);
+                    out.writeByte(INIT_RANGE);
+                    out.writeVarInt(m.rangeStart());
+                    out.writeString(m.content());
+                    out.writeVarInt(m.length());
+                    out.writeVarLong(m.version());
+                    writeTable(out, users);
+                    writeUsers(out, m.activeUsers(), active);
+                    out.writeVarLong(m.presenceVersion());
+                }
+                case "range" -> {
+                    out.writeByte(SERVER_RANGE);
+                    out.writeVarInt(m.rangeStart());
+                    out.writeString(m.content());
+                    out.writeVarInt(m.length());
+                    out.writeVarLong(m.version());
+                }
+                case "edits" -> {
+                    int[] authors = authors(m.ops(), users);
+                    out.writeByte(SERVER_EDITS);
+                    out.writeVarLong(m.baseVersion() == null ? 0 : m.baseVersion());
+                    out.writeVarLong(m.version());
+                    writeOps(out, m.ops(), authors);
+                }
+                case "resume" -> {
+                    // Assign numbers first so the table covers every user the frame mentions
+                    int[] authors = authors(m.ops(), users);
+                    int[] active = ids(m.activeUsers(), users);
+                    out.writeByte(RESUME);
+                    out.writeVarLong(m.version());
+                    writeTable(out, users);
+                    writeOps(out, m.ops(), authors);
+                    writeUsers(out, m.activeUsers(), active);
+                    out.writeVarLong(m.presenceVersion());
+                }
+                case "presence" -> {
+                    out.writeByte(PRESENCE);
+                    writeUsers(out, m.activeUsers(), ids(m.activeUsers(), users));
+                }
+                case "user_joined" -> {
+                    int id = users.intern(m.userId(), m.username());
+                    out.writeByte(USER_JOINED);
+                    out.writeVarInt(id);
+                    out.writeString(m.userId());
+                    out.writeString(users.username(id));
+                    out.writeVarLong(m.presenceVersion());
+                }
+                case "user_left" -> {
+                    out.writeByte(USER_LEFT);
+                    out.writeVarInt(users.idOf(m.userId()));
+                    out.writeVarLong(m.presenceVersion());
+                }
+                case "ack" -> {
+                    out.writeByte(ACK);
+                    out.writeVarLong(m.version());
+                }
+                case "snapshot" -> {
+                    out.writeByte(SNAPSHOT);
+                    out.writeString(m.content());
+                    out.writeVarLong(m.version());
+                }
+                case "redirect" -> {
+                    out.writeByte(REDIRECT);
+                    out.writeString(m.url());
+                }
+                case "error" -> {
+                    out.writeByte(ERROR);
+                    out.writeString(m.error());
+                }
+                default -> throw new IllegalArgumentException("No binary form for " + m.type());
+            }
+            return out.toByteArray();
+        } finally {
+            out.reset();
+            if (buffers.size() < POOLED_BUFFERS) buffers.offer(out);
+        }
+    }
+
+    // Encode a frame that refers to no users (errors, redirects).
+    public static byte[] encode(ServerMessage m) {
+        return encode(m, new UserTable());
+    }
+
+    // Encode a users frame announcing table entries [from, to) to a client that lacks them.
+    public static byte[] encodeUsers(UserTable users, int from, int to) {
+        Output out = new Output();
+        out.writeByte(USERS);
+        out.writeVarInt(from);
+        out.writeVarInt(to - from);
+        for (int id = from; id < to; id++) {
+            out.writeString(users.userId(id));
+            out.writeString(users.username(id));
+        }
+        return out.toByteArray();
+    }
+
+    // One past the highest user number the encoding of m refers to, 0 if it names no users.
+    // Call after encoding: numbers are assigned then.
+    public static int usersReferenced(ServerMessage m, UserTable users) {
+        int max = -1;
+        switch (m.type()) {
+            case "init", "init_range", "resume" -> max = users.size() - 1;
+            case "edits" -> {
+                for (EditOperation op : m.ops()) max = Math.max(max, users.idOf(op.userId()));
+            }
+            case "presence" -> {
+                for (ActiveUser u : m.activeUsers()) max = Math.max(max, users.idOf(u.userId()));
+            }
+            case "user_joined", "user_left" -> max = users.idOf(m.userId());
+            default -> {}
+        }
+        return max + 1;
+    }
+
+    private static int[] ids(List<ActiveUser> list, UserTable users) {
+        if (list == null) return new int[0];
+        int[] ids = new int[list.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ActiveUser u = list.get(i);
+            ids[i] = users.intern(u.userId(), u.username());
+        }
+        return ids;
+    }
+
+    private static int[] authors(List<EditOperation> ops, UserTable users) {
+        if (ops == null) return new int[0];
+        int[] ids = new int[ops.size()];
+        for (int i = 0; i < ids.length; i++) ids[i] = users.idOf(ops.get(i).userId());
+        return ids;
+    }
+
+    private static void writeTable(Output out, UserTable users) {
+        // Read the size once: another thread may append while this frame is written
+        int size = users.size();
+        out.writeVarInt(size);
+        for (int id = 0; id < size; id++) {
+            out.writeString(users.userId(id));
+            out.writeString(users.username(id));
+        }
+    }
+
+    private static void writeUsers(Output out, List<ActiveUser> list, int[] ids) {
+        out.writeVarInt(ids.length);
+        for (int i = 0; i < ids.length; i++) {
+            out.writeVarInt(ids[i]);
+            out.writeVarInt(list.get(i).cursorPosition());
+        }
+    }
+
+    private static void writeOps(Output out, List<EditOperation> ops, int[] authors) {
+        out.writeVarInt(authors.length);
+        for (int i = 0; i < authors.length; i++) {
+            EditOperation op = ops.get(i);
+            out.writeVarInt(authors[i]);
+            writeOpBody(out, op);
+        }
+    }
+
+    // Kind, position, then content and/or delete count as the kind needs, then client version.
+    // A shift's count may be negative and is written as its 32-bit two's complement.
+    private static void writeOpBody(Output out, EditOperation op) {
+        int kind = kindOf(op.type());
+        out.writeByte((byte) kind);
+        out.writeVarInt(op.position());
+        if (kind == INSERT || kind == REPLACE) out.writeString(op.content());
+        if (kind == DELETE || kind == REPLACE || kind == SHIFT) out.writeVarInt(op.deleteCount());
+        out.writeVarLong(op.clientVersion());
+    }
+
+    private static int kindOf(String type) {
+        if (type == null) return 0;
+        return switch (type) {
+            case "insert" -> INSERT;
+            case "delete" -> DELETE;
+            case "replace" -> REPLACE;
+            case "shift" -> SHIFT;
+            default -> 0;
+        };
+    }
+
+    // Growable write buffer; the result is copied out so the buffer can be pooled.
+    static final class Output {
+        private byte[] buf = new byte[256];
+        private int size;
+
+        void writeByte(byte b) {
+            ensure(1);
+            buf[size++] = b;
+        }
+
+        void writeVarInt(int v) {
+            writeVarLong(v & 0xFFFFFFFFL);
+        }
+
+        void writeVarLong(long v) {
+            ensure(10);
+            while ((v & ~0x7FL) != 0) {
+                buf[size++] = (byte) ((v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            buf[size++] = (byte) v;
+        }
+
+        void writeString(String s) {
+            if (s == null || s.isEmpty()) {
+                writeVarInt(0);
+                return;
+            }
+            byte[] utf8 = s.getBytes(StandardCharsets.UTF_8);
+            writeVarInt(utf8.length);
+            ensure(utf8.length);
+            System.arraycopy(utf8, 0, buf, size, utf8.length);
+            size += utf8.length;
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buf, size);
+        }
+
+        void reset() {
+            if (buf.length > MAX_POOLED_BYTES) buf = new byte[256];
+            size = 0;
+        }
+
+        private void ensure(int extra) {
+            if (size + extra > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length * 2, size + extra));
+            }
+        }
+    }
+
+    // Reader over one frame; running past the end is a malformed frame.
+    static final class Input {
+        private final byte[] buf;
+        private int pos;
+
+        Input(byte[] buf) {
+            this.buf = buf;
+        }
+
+        boolean hasMore() {
+            return pos < buf.length;
+        }
+
+        byte readByte() throws IOException {
+            if (pos >= buf.length) throw new IOException("Truncated binary frame");
+            return buf[pos++];
+        }
+
+        int readVarInt() throws IOException {
+            return (int) readVarLong();
+        }
+
+        int readCount() throws IOException {
+            int n = readVarInt();
+            // Every entry takes at least one byte, so a larger count cannot be genuine
+            if (n < 0 || n > buf.length - pos) throw new IOException("Bad count in binary frame");
+            return n;
+        }
+
+        long readVarLong() throws IOException {
+            long v = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                byte b = readByte();
+                v |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) return v;
+            }
+            throw new IOException("Varint too long in binary frame");
+        }
+
+        String readString() throws IOException {
+            int len = readVarInt();
+            if (len < 0 || len > buf.length - pos) throw new IOException("Truncated binary frame");
+            String s = new String(buf, pos, len, StandardCharsets.UTF_8);
+            pos += len;
+            return s;
+        }
+
+        EditOperation readOp(String userId) throws IOException {
+            int kind = readByte();
+            int position = readVarInt();
+            String type = switch (kind) {
+                case INSERT -> "insert";
+                case DELETE -> "delete";
+                case REPLACE -> "replace";
+                case SHIFT -> "shift";
+                default -> throw new IOException("Unknown op kind " + kind);
+            };
+            String content = kind == DELETE || kind == SHIFT ? null : readString();
+            int deleteCount = kind == INSERT ? 0 : readVarInt();
+            return new EditOperation(userId, type, position, content, deleteCount, readVarLong());
+        }
+    }
+}
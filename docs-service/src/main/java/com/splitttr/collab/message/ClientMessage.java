@@ -1,11 +1,44 @@
 package com.splitttr.collab.message;
 
+import java.util.List;
+
 // ClientMessage.
 public record ClientMessage(
-    String type,            // "join", "edit", "cursor", "leave"
+    String type,            // "join", "edit", "edits", "cursor", "range", "leave"
     String documentId,
     String userId,
     String username,
     EditOperation edit,
-    Integer cursorPosition
-) {}
\ No newline at end of file
+    Integer cursorPosition,
+    Long lastVersion,       // join only: last server version the client has applied, to resume from
+    List<EditOperation> edits,  // "edits" only: ops applied in order, each against the result of the previous
+    Long baseVersion,       // "edits" only: server version the batch was produced against; see batchEdits()
+    String role,            // join only: "viewer" for a read-only participant served by the viewer tier
+    Integer rangeStart,     // join and "range": first char of the span wanted, in range mode
+    Integer rangeLength,    // join and "range": chars wanted; on a join, asks for range mode
+    Boolean pipelined       // join only: true to have ops transformed past what the client had not seen, and acked
+) {
+    // Whether a join asks for the read-only viewer tier.
+    public boolean joinsAsViewer() {
+        return "viewer".equals(role);
+    }
+
+    // Whether a join asks for its ops to be transformed against clientVersion and acknowledged.
+    public boolean joinsPipelined() {
+        return Boolean.TRUE.equals(pipelined);
+    }
+
+    // Whether a join asks for range mode: the length plus one span instead of the whole content.
+    public boolean joinsInRangeMode() {
+        return rangeLength != null;
+    }
+
+    // Ops of an "edits" frame, those without a clientVersion of their own taking the batch's baseVersion.
+    public List<EditOperation> batchEdits() {
+        if (edits == null || baseVersion == null) return edits;
+        return edits.stream()
+            .map(op -> op.clientVersion() != 0 ? op
+                : new EditOperation(op.userId(), op.type(), op.position(), op.content(), op.deleteCount(), baseVersion))
+            .toList();
+    }
+}
\ No newline at end of file
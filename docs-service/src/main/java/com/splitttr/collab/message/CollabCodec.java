@@ -0,0 +1,210 @@
+package com.splitttr.collab.message;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.util.JsonRecyclerPools;
+import com.splitttr.collab.message.ServerMessage.ActiveUser;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+// JSON codec for the /ws/docs protocol.
+// Reads and writes the message records field by field with Jackson's streaming API instead of
+// data binding, leaves out null fields, and reuses output buffers. Buffers are pooled rather
+// than thread-local because sequencer drains run on short-lived virtual threads.
+public final class CollabCodec {
+
+    private static final JsonFactory FACTORY = JsonFactory.builder()
+        .recyclerPool(JsonRecyclerPools.sharedConcurrentDequePool())
+        .build();
+
+    private static final int POOLED_BUFFERS = 16;
+    private static final int MAX_POOLED_CHARS = 256 * 1024;
+    private static final Queue<TextBuffer> buffers = new ConcurrentLinkedQueue<>();
+
+    private CollabCodec() {}
+
+    // Decode a client frame; unknown fields are skipped.
+    public static ClientMessage decodeClient(String json) throws IOException {
+        try (JsonParser p = FACTORY.createParser(json)) {
+            expect(p, p.nextToken(), JsonToken.START_OBJECT);
+            String type = null, documentId = null, userId = null, username = null;
+            EditOperation edit = null;
+            Integer cursorPosition = null, rangeStart = null, rangeLength = null;
+            Long lastVersion = null, baseVersion = null;
+            String role = null;
+            Boolean pipelined = null;
+            List<EditOperation> edits = null;
+
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                String field = p.currentName();
+                JsonToken value = p.nextToken();
+                switch (field) {
+                    case "type" -> type = text(p, value);
+                    case "documentId" -> documentId = text(p, value);
+                    case "userId" -> userId = text(p, value);
+                    case "username" -> username = text(p, value);
+                    case "edit" -> edit = readOp(p, value);
+                    case "edits" -> edits = readOps(p, value);
+                    case "cursorPosition" -> cursorPosition = value == JsonToken.VALUE_NULL ? null : p.getValueAsInt();
+                    case "lastVersion" -> lastVersion = value == JsonToken.VALUE_NULL ? null : p.getValueAsLong();
+                    case "baseVersion" -> baseVersion = value == JsonToken.VALUE_NULL ? null : p.getValueAsLong();
+                    case "role" -> role = text(p, value);
+                    case "rangeStart" -> rangeStart = value == JsonToken.VALUE_NULL ? null : p.getValueAsInt();
+                    case "rangeLength" -> rangeLength = value == JsonToken.VALUE_NULL ? null : p.getValueAsInt();
+                    case "pipelined" -> pipelined = value == JsonToken.VALUE_NULL ? null : p.getValueAsBoolean();
+                    default -> p.skipChildren();
+                }
+            }
+            return new ClientMessage(type, documentId, userId, username, edit, cursorPosition, lastVersion, edits,
+                baseVersion, role, rangeStart, rangeLength, pipelined);
+        }
+    }
+
+    // Encode a server frame, leaving out null fields.
+    public static String encode(ServerMessage m) {
+        TextBuffer out = buffers.poll();
+        if (out == null) out = new TextBuffer();
+        try {
+            try (JsonGenerator g = FACTORY.createGenerator(out)) {
+                g.writeStartObject();
+                field(g, "type", m.type());
+                field(g, "documentId", m.documentId());
+                field(g, "content", m.content());
+                g.writeNumberField("version", m.version());
+                if (m.edit() != null) {
+                    g.writeFieldName("edit");
+                    writeOp(g, m.edit());
+                }
+                field(g, "userId", m.userId());
+                field(g, "username", m.username());
+                if (m.cursorPosition() != null) g.writeNumberField("cursorPosition", m.cursorPosition());
+                if (m.activeUsers() != null) {
+                    g.writeArrayFieldStart("activeUsers");
+                    for (ActiveUser u : m.activeUsers()) {
+                        g.writeStartObject();
+                        field(g, "userId", u.userId());
+                        field(g, "username", u.username());
+                        g.writeNumberField("cursorPosition", u.cursorPosition());
+                        g.writeEndObject();
+                    }
+                    g.writeEndArray();
+                }
+                field(g, "error", m.error());
+                if (m.ops() != null) {
+                    g.writeArrayFieldStart("ops");
+                    for (EditOperation op : m.ops()) writeOp(g, op);
+                    g.writeEndArray();
+                }
+                if (m.baseVersion() != null) g.writeNumberField("baseVersion", m.baseVersion());
+                field(g, "url", m.url());
+                if (m.presenceVersion() != null) g.writeNumberField("presenceVersion", m.presenceVersion());
+                if (m.rangeStart() != null) g.writeNumberField("rangeStart", m.rangeStart());
+                if (m.length() != null) g.writeNumberField("length", m.length());
+                g.writeEndObject();
+            }
+            return out.toString();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            out.reset();
+            if (buffers.size() < POOLED_BUFFERS) buffers.offer(out);
+        }
+    }
+
+    private static void writeOp(JsonGenerator g, EditOperation op) throws IOException {
+        g.writeStartObject();
+        field(g, "userId", op.userId());
+        field(g, "type", op.type());
+        g.writeNumberField("position", op.position());
+        field(g, "content", op.content());
+        g.writeNumberField("deleteCount", op.deleteCount());
+        g.writeNumberField("clientVersion", op.clientVersion());
+        g.writeEndObject();
+    }
+
+    private static void field(JsonGenerator g, String name, String value) throws IOException {
+        if (value != null) g.writeStringField(name, value);
+    }
+
+    private static List<EditOperation> readOps(JsonParser p, JsonToken token) throws IOException {
+        if (token == JsonToken.VALUE_NULL) return null;
+        expect(p, token, JsonToken.START_ARRAY);
+        List<EditOperation> ops = new ArrayList<>();
+        for (JsonToken t = p.nextToken(); t != JsonToken.END_ARRAY; t = p.nextToken()) {
+            ops.add(readOp(p, t));
+        }
+        return ops;
+    }
+
+    private static EditOperation readOp(JsonParser p, JsonToken token) throws IOException {
+        if (token == JsonToken.VALUE_NULL) return null;
+        expect(p, token, JsonToken.START_OBJECT);
+        String userId = null, type = null, content = null;
+        int position = 0, deleteCount = 0;
+        long clientVersion = 0;
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String field = p.currentName();
+            JsonToken value = p.nextToken();
+            switch (field) {
+                case "userId" -> userId = text(p, value);
+                case "type" -> type = text(p, value);
+                case "position" -> position = p.getValueAsInt();
+                case "content" -> content = text(p, value);
+                case "deleteCount" -> deleteCount = p.getValueAsInt();
+                case "clientVersion" -> clientVersion = p.getValueAsLong();
+                default -> p.skipChildren();
+            }
+        }
+        return new EditOperation(userId, type, position, content, deleteCount, clientVersion);
+    }
+
+    private static String text(JsonParser p, JsonToken token) throws IOException {
+        return token == JsonToken.VALUE_NULL ? null : p.getValueAsString();
+    }
+
+    private static void expect(JsonParser p, JsonToken actual, JsonToken expected) throws JsonParseException {
+        if (actual != expected) {
+            throw new JsonParseException(p, "Expected " + expected + " but found " + actual);
+        }
+    }
+
+    // Writer over a reusable StringBuilder; oversized buffers are dropped instead of pooled.
+    private static final class TextBuffer extends Writer {
+        private StringBuilder sb = new StringBuilder(256);
+
+        @Override
+        public void write(char[] cbuf, int off, int len) {
+            sb.append(cbuf, off, len);
+        }
+
+        @Override
+        public void write(String str, int off, int len) {
+            sb.append(str, off, off + len);
+        }
+
+        @Override
+        public void flush() {}
+
+        @Override
+        public void close() {}
+
+        @Override
+        public String toString() {
+            return sb.toString();
+        }
+
+        void reset() {
+            if (sb.capacity() > MAX_POOLED_CHARS) sb = new StringBuilder(256);
+            else sb.setLength(0);
+        }
+    }
+}
@@ -3,9 +3,9 @@ package com.splitttr.collab.message;
 // EditOperation.
 public record EditOperation(
     String userId,
-    String type,        // "insert", "delete", "replace"
+    String type,        // "insert", "delete", "replace"; to range-mode clients also "shift"
     int position,
     String content,
-    int deleteCount,
+    int deleteCount,    // "shift": net chars removed at position, negative when text was added
     long clientVersion
 ) {}
\ No newline at end of file
@@ -13,37 +13,82 @@ public record ServerMessage(
     String username,
     Integer cursorPosition,
     List<ActiveUser> activeUsers,
-    String error
+    String error,
+    List<EditOperation> ops,
+    Long baseVersion,
+    String url,
+    Long presenceVersion,
+    Integer rangeStart,
+    Integer length
 ) {
     public record ActiveUser(String userId, String username, int cursorPosition) {}
 
-    // Create init.
-    public static ServerMessage init(String docId, String content, long version, List<ActiveUser> users) {
-        return new ServerMessage("init", docId, content, version, null, null, null, null, users, null);
+    // Create init: the document and the full roster as of presenceVersion.
+    public static ServerMessage init(String docId, String content, long version, List<ActiveUser> users,
+                                     long presenceVersion) {
+        return new ServerMessage("init", docId, content, version, null, null, null, null, users, null, null, null, null,
+            presenceVersion, null, null);
     }
 
-    // Edit.
-    public static ServerMessage edit(String docId, EditOperation op) {
-        return new ServerMessage("edit", docId, null, 0, op, op.userId(), null, null, null, null);
+    // Init in range mode: the document length and only the span of content starting at rangeStart.
+    public static ServerMessage initRange(String docId, String content, int rangeStart, int length, long version,
+                                          List<ActiveUser> users, long presenceVersion) {
+        return new ServerMessage("init_range", docId, content, version, null, null, null, null, users, null, null, null,
+            null, presenceVersion, rangeStart, length);
     }
 
-    // Cursor.
-    public static ServerMessage cursor(String docId, String userId, String username, int position) {
-        return new ServerMessage("cursor", docId, null, 0, null, userId, username, position, null, null);
+    // Range: a further span for a range-mode client, cut at version, when the document is length chars long.
+    public static ServerMessage range(String docId, String content, int rangeStart, int length, long version) {
+        return new ServerMessage("range", docId, content, version, null, null, null, null, null, null, null, null, null,
+            null, rangeStart, length);
     }
 
-    // User joined.
-    public static ServerMessage userJoined(String docId, String userId, String username, List<ActiveUser> users) {
-        return new ServerMessage("user_joined", docId, null, 0, null, userId, username, null, users, null);
+    // Edits: ops applied in order on top of baseVersion, ending at version.
+    public static ServerMessage edits(String docId, long baseVersion, long version, List<EditOperation> ops) {
+        return new ServerMessage("edits", docId, null, version, null, null, null, null, null, null, ops, baseVersion, null, null, null, null);
     }
 
-    // User left.
-    public static ServerMessage userLeft(String docId, String userId, String username) {
-        return new ServerMessage("user_left", docId, null, 0, null, userId, username, null, null, null);
+    // Ack: the sender's op is applied, taking the document to version; sent only to pipelining clients.
+    public static ServerMessage ack(String docId, long version) {
+        return new ServerMessage("ack", docId, null, version, null, null, null, null, null, null, null, null, null, null, null, null);
+    }
+
+    // Resume: the ops a reconnecting client missed, ending at version, and the roster it may also have missed.
+    public static ServerMessage resume(String docId, long version, List<EditOperation> ops, List<ActiveUser> users,
+                                       long presenceVersion) {
+        return new ServerMessage("resume", docId, null, version, null, null, null, null, users, null, ops, null, null,
+            presenceVersion, null, null);
+    }
+
+    // Snapshot: the whole content at version, for viewers too far behind for a digest.
+    public static ServerMessage snapshot(String docId, String content, long version) {
+        return new ServerMessage("snapshot", docId, content, version, null, null, null, null, null, null, null, null, null, null, null, null);
+    }
+
+    // Presence: latest cursor positions of the users listed, batched per tick.
+    public static ServerMessage presence(String docId, List<ActiveUser> cursors) {
+        return new ServerMessage("presence", docId, null, 0, null, null, null, null, cursors, null, null, null, null, null, null, null);
+    }
+
+    // User joined: a roster delta, taking the roster to presenceVersion.
+    public static ServerMessage userJoined(String docId, String userId, String username, long presenceVersion) {
+        return new ServerMessage("user_joined", docId, null, 0, null, userId, username, null, null, null, null, null, null,
+            presenceVersion, null, null);
+    }
+
+    // User left: a roster delta, taking the roster to presenceVersion.
+    public static ServerMessage userLeft(String docId, String userId, String username, long presenceVersion) {
+        return new ServerMessage("user_left", docId, null, 0, null, userId, username, null, null, null, null, null, null,
+            presenceVersion, null, null);
+    }
+
+    // Redirect: another node owns this document; reconnect to url and join again.
+    public static ServerMessage redirect(String docId, String url) {
+        return new ServerMessage("redirect", docId, null, 0, null, null, null, null, null, null, null, null, url, null, null, null);
     }
 
     // Error.
     public static ServerMessage error(String message) {
-        return new ServerMessage("error", null, null, 0, null, null, null, null, null, message);
+        return new ServerMessage("error", null, null, 0, null, null, null, null, null, message, null, null, null, null, null, null);
     }
 }
@@ -0,0 +1,53 @@
+package com.splitttr.collab.message;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Session-local user ids for the binary protocol.
+// The first time a session sees a user id it assigns the next small integer, which binary frames
+// then carry as one varint instead of the id string. Numbers are never reused within a session,
+// so clients can keep their copy of the table until they join again. Synchronized because the
+// viewer tier encodes frames off the document's sequencer.
+public final class UserTable {
+
+    private final Map<String, Integer> ids = new HashMap<>();
+    private final List<String> userIds = new ArrayList<>();
+    private final List<String> usernames = new ArrayList<>();
+
+    // Number for userId, assigned on first sight; a later join may update the display name.
+    public synchronized int intern(String userId, String username) {
+        Integer id = ids.get(userId);
+        if (id == null) {
+            id = userIds.size();
+            ids.put(userId, id);
+            userIds.add(userId);
+            usernames.add(username == null ? userId : username);
+        } else if (username != null) {
+            usernames.set(id, username);
+        }
+        return id;
+    }
+
+    // Number for userId, assigning one (named after the id) if it has none yet.
+    public synchronized int idOf(String userId) {
+        Integer id = ids.get(userId);
+        return id != null ? id : intern(userId, null);
+    }
+
+    // Size.
+    public synchronized int size() {
+        return userIds.size();
+    }
+
+    // User id.
+    public synchronized String userId(int id) {
+        return userIds.get(id);
+    }
+
+    // Username.
+    public synchronized String username(int id) {
+        return usernames.get(id);
+    }
+}
@@ -0,0 +1,183 @@
+package com.splitttr.collab.metrics;
+
+import com.splitttr.collab.session.DocumentSession;
+import com.splitttr.collab.session.OutboundMetrics;
+import com.splitttr.collab.session.SessionManager;
+import com.splitttr.collab.session.SessionMetrics;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.quarkus.runtime.StartupEvent;
+import io.quarkus.scheduler.Scheduled;
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// Collaboration metrics, exported through Micrometer at /q/metrics.
+// Per-document activity is kept out of the registry (unbounded label values); the hottest
+// documents of the last window are served by /collab/stats/hot instead.
+@ApplicationScoped
+public class CollabMetrics implements SessionMetrics {
+
+    private static final Set<String> MESSAGE_TYPES = Set.of("join", "edit", "edits", "cursor", "range", "leave");
+
+    public record HotDocument(String documentId, long edits) {}
+
+    @Inject
+    MeterRegistry registry;
+
+    @Inject
+    SessionManager sessionManager;
+
+    @ConfigProperty(name = "collab.metrics.hot-documents", defaultValue = "10")
+    int hotDocuments;
+
+    private final Map<String, Counter> messageCounters = new ConcurrentHashMap<>();
+    private final Map<String, Counter> errorCounters = new ConcurrentHashMap<>();
+    private final Map<String, Counter> sessionErrorCounters = new ConcurrentHashMap<>();
+    private final Map<String, Timer> fanOutTimers = new ConcurrentHashMap<>();
+    private Timer applyEdit;
+    private DistributionSummary fanOutRecipients;
+    private Timer flushDelta;
+    private Timer flushFull;
+    private Counter flushFailures;
+
+    // Edits per document in the current window, and the last completed window
+    private volatile Map<String, LongAdder> editsThisWindow = new ConcurrentHashMap<>();
+    private volatile List<HotDocument> hot = List.of();
+
+    @PostConstruct
+    // Init.
+    void init() {
+        applyEdit = Timer.builder("collab.edit.apply")
+            .description("Time to apply one op to the in-memory document")
+            .publishPercentileHistogram()
+            .register(registry);
+        fanOutRecipients = DistributionSummary.builder("collab.fanout.recipients")
+            .description("Connections a frame was queued for")
+            .publishPercentileHistogram()
+            .register(registry);
+        flushDelta = flushTimer("delta");
+        flushFull = flushTimer("full");
+        flushFailures = Counter.builder("collab.persist.failures")
+            .description("Flushes the document store did not accept")
+            .register(registry);
+    }
+
+    // Gauges read the live session map, so bind them once everything is up.
+    void onStart(@Observes StartupEvent event) {
+        Gauge.builder("collab.sessions.active", sessionManager, m -> m.getSessions().size())
+            .description("Open document sessions")
+            .register(registry);
+        Gauge.builder("collab.connections.active", sessionManager, CollabMetrics::connections)
+            .description("Connected users across all sessions")
+            .register(registry);
+        Gauge.builder("collab.outbound.queued", sessionManager, SessionManager::queuedFrames)
+            .description("Frames waiting to be written across all connections")
+            .register(registry);
+
+        OutboundMetrics outbound = sessionManager.getOutboundMetrics();
+        FunctionCounter.builder("collab.outbound.frames", outbound, OutboundMetrics::framesSent)
+            .register(registry);
+        FunctionCounter.builder("collab.outbound.presence.dropped", outbound, OutboundMetrics::presenceFramesDropped)
+            .register(registry);
+        FunctionCounter.builder("collab.outbound.evictions", outbound, OutboundMetrics::slowConsumerEvictions)
+            .register(registry);
+    }
+
+    // Count an incoming message by type.
+    public void messageReceived(String type) {
+        String key = type != null && MESSAGE_TYPES.contains(type) ? type : "unknown";
+        messageCounters.computeIfAbsent(key, t -> Counter.builder("collab.messages")
+            .description("Messages received on /ws/docs")
+            .tag("type", t)
+            .register(registry)).increment();
+    }
+
+    // Record an applied op and its latency.
+    public void editApplied(String documentId, long nanos) {
+        applyEdit.record(nanos, TimeUnit.NANOSECONDS);
+        editsThisWindow.computeIfAbsent(documentId, id -> new LongAdder()).increment();
+    }
+
+    @Override
+    public void fannedOut(String kind, int recipients, long nanos) {
+        fanOutTimers.computeIfAbsent(kind, k -> Timer.builder("collab.fanout")
+            .description("Time to serialize a frame and queue it for every recipient")
+            .tag("kind", k)
+            .publishPercentileHistogram()
+            .register(registry)).record(nanos, TimeUnit.NANOSECONDS);
+        fanOutRecipients.record(recipients);
+    }
+
+    // Record a flush that reached the store; delta when only ops were sent.
+    public void flushed(boolean delta, long nanos) {
+        (delta ? flushDelta : flushFull).record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    // Record a flush the store did not accept.
+    public void flushFailed() {
+        flushFailures.increment();
+    }
+
+    // Count a socket error by where it surfaced: message, handler or transport.
+    public void socketError(String stage) {
+        errorCounters.computeIfAbsent(stage, s -> Counter.builder("collab.socket.errors")
+            .description("Errors on /ws/docs connections")
+            .tag("stage", s)
+            .register(registry)).increment();
+    }
+
+    @Override
+    // Count a session error by the stage that failed.
+    public void sessionError(String stage) {
+        sessionErrorCounters.computeIfAbsent(stage, s -> Counter.builder("collab.session.errors")
+            .description("Failures loading, sequencing or journaling document sessions")
+            .tag("stage", s)
+            .register(registry)).increment();
+    }
+
+    // Hottest documents by edits in the last completed window.
+    public List<HotDocument> hotDocuments() {
+        return hot;
+    }
+
+    @Scheduled(every = "{collab.metrics.hot-window}")
+    // Roll the hot-document window.
+    void rollWindow() {
+        Map<String, LongAdder> finished = editsThisWindow;
+        editsThisWindow = new ConcurrentHashMap<>();
+        hot = finished.entrySet().stream()
+            .map(e -> new HotDocument(e.getKey(), e.getValue().sum()))
+            .sorted(Comparator.comparingLong(HotDocument::edits).reversed())
+            .limit(hotDocuments)
+            .toList();
+    }
+
+    private Timer flushTimer(String mode) {
+        return Timer.builder("collab.persist.flush")
+            .description("Time to write a session to the document store")
+            .tag("mode", mode)
+            .publishPercentileHistogram()
+            .register(registry);
+    }
+
+    private static double connections(SessionManager manager) {
+        int total = 0;
+        for (DocumentSession session : manager.getSessions()) total += session.userCount();
+        return total;
+    }
+}
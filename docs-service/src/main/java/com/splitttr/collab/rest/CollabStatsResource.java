@@ -0,0 +1,96 @@
+package com.splitttr.collab.rest;
+
+import com.splitttr.collab.metrics.CollabMetrics;
+import com.splitttr.collab.session.DocumentSession;
+import com.splitttr.collab.session.SessionEvictor;
+import com.splitttr.collab.session.SessionManager;
+import jakarta.inject.Inject;
+import jakarta.ws.rs.GET;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.core.MediaType;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Read-only delivery counters for the collaboration socket.
+@Path("/collab/stats")
+@Produces(MediaType.APPLICATION_JSON)
+public class CollabStatsResource {
+
+    public record OutboundStats(
+        int queuedFrames,
+        long framesSent,
+        long presenceFramesDropped,
+        long slowConsumerEvictions
+    ) {}
+
+    public record SessionStats(long totalBytes, long maxHeapBytes, List<SessionInfo> sessions) {}
+
+    public record SessionInfo(
+        String documentId,
+        int users,
+        int viewers,
+        long version,
+        long estimatedBytes,
+        boolean compressed,
+        boolean dirty,
+        boolean crdt,
+        long idleSeconds
+    ) {}
+
+    @Inject
+    SessionManager sessionManager;
+
+    @Inject
+    SessionEvictor sessionEvictor;
+
+    @Inject
+    CollabMetrics collabMetrics;
+
+    @GET
+    // Retrieve get.
+    public OutboundStats get() {
+        var metrics = sessionManager.getOutboundMetrics();
+        return new OutboundStats(
+            sessionManager.queuedFrames(),
+            metrics.framesSent(),
+            metrics.presenceFramesDropped(),
+            metrics.slowConsumerEvictions()
+        );
+    }
+
+    @GET
+    @Path("/sessions")
+    // Retrieve get sessions: estimated heap per open session, largest first.
+    public SessionStats getSessions() {
+        List<SessionInfo> sessions = sessionManager.getSessions().stream()
+            .map(CollabStatsResource::info)
+            .sorted(Comparator.comparingLong(SessionInfo::estimatedBytes).reversed())
+            .toList();
+        long total = sessions.stream().mapToLong(SessionInfo::estimatedBytes).sum();
+        return new SessionStats(total, sessionEvictor.getMaxHeapBytes(), sessions);
+    }
+
+    private static SessionInfo info(DocumentSession session) {
+        return new SessionInfo(
+            session.getDocumentId(),
+            session.userCount(),
+            session.viewerCount(),
+            session.getVersion(),
+            session.estimatedBytes(),
+            session.isCompressed(),
+            session.isDirty(),
+            session.usesCrdt(),
+            TimeUnit.NANOSECONDS.toSeconds(session.idleNanos())
+        );
+    }
+
+    @GET
+    @Path("/hot")
+    // Retrieve get hot: documents with the most edits in the last metrics window.
+    public List<CollabMetrics.HotDocument> getHot() {
+        return collabMetrics.hotDocuments();
+    }
+}
@@ -0,0 +1,131 @@
+package com.splitttr.collab.rest;
+
+import com.splitttr.collab.client.DocumentClient;
+import com.splitttr.collab.client.DocumentUpdateRequest;
+import com.splitttr.collab.cluster.ClusterMembership;
+import com.splitttr.collab.session.DocumentSession;
+import com.splitttr.collab.session.SessionFlusher;
+import com.splitttr.collab.session.SessionManager;
+import jakarta.inject.Inject;
+import jakarta.ws.rs.*;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.eclipse.microprofile.rest.client.inject.RestClient;
+import org.jboss.logging.Logger;
+
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+// Internal endpoint for content saved outside the socket (e.g. a Drive "save" of the whole text).
+// With a session open the new content is diffed against it and applied as ordinary edits, so editors
+// keep their place and the store gets it on the next flush; otherwise it is written to the store directly.
+// Callers need a user's JWT, like the Drive API, and the service token: Drive checks the user may edit
+// the document. The edits are the server's, so the saving user's own open editor receives them too.
+@Path("/internal/documents")
+@Produces(MediaType.APPLICATION_JSON)
+@Consumes(MediaType.APPLICATION_JSON)
+public class DocumentContentResource {
+
+    private static final Logger LOG = Logger.getLogger(DocumentContentResource.class);
+
+    // userId: who saved, for the log
+    public record ContentRequest(String content, String userId) {}
+
+    // live: applied to an open session, version is the session's; otherwise the store's
+    public record ContentResponse(String documentId, long version, int ops, boolean live) {}
+
+    static final String TOKEN_HEADER = "X-Collab-Service-Token";
+
+    // Shared with Drive; unset refuses every save
+    @ConfigProperty(name = "collab.internal.token")
+    Optional<String> serviceToken;
+
+    @ConfigProperty(name = "collab.save.max-diff-edits", defaultValue = "2000")
+    int maxDiffEdits;
+
+    @ConfigProperty(name = "collab.sessions.load-timeout", defaultValue = "10s")
+    Duration loadTimeout;
+
+    @Inject
+    SessionManager sessionManager;
+
+    @Inject
+    SessionFlusher sessionFlusher;
+
+    @Inject
+    ClusterMembership clusterMembership;
+
+    @Inject
+    @RestClient
+    DocumentClient documentClient;
+
+    @PUT
+    @Path("/{documentId}/content")
+    // Update content; documents owned by another node get a 421 whose Location is that node's endpoint.
+    // Not a 307: clients follow those for GET and HEAD only.
+    public Response updateContent(@PathParam("documentId") String documentId,
+                                  @HeaderParam(TOKEN_HEADER) String token, ContentRequest req) {
+        if (!fromDrive(token)) throw new ForbiddenException("Service token required");
+        if (req == null || req.content() == null) throw new BadRequestException("content is required");
+        if (!clusterMembership.isLocal(documentId)) {
+            URI owner = URI.create(clusterMembership.httpUrl(documentId) + "/internal/documents/" + documentId + "/content");
+            return Response.status(Response.Status.MISDIRECTED_REQUEST).location(owner).build();
+        }
+
+        DocumentSession session = sessionManager.getSession(documentId);
+        ContentResponse applied = session == null ? null : applyToSession(session, req);
+        if (applied != null) return Response.ok(applied).build();
+
+        // No live session (or it closed meanwhile): the store takes the content as it is
+        var doc = documentClient.update(documentId, new DocumentUpdateRequest(null, req.content()));
+        return Response.ok(new ContentResponse(documentId, doc.version(), 0, false)).build();
+    }
+
+    private boolean fromDrive(String token) {
+        String expected = serviceToken.filter(t -> !t.isBlank()).orElse(null);
+        if (expected == null || token == null) return false;
+        return MessageDigest.isEqual(expected.getBytes(StandardCharsets.UTF_8), token.getBytes(StandardCharsets.UTF_8));
+    }
+
+    // Diff and apply on the session's sequencer; null if the session closed before the task ran.
+    private ContentResponse applyToSession(DocumentSession session, ContentRequest req) {
+        var result = new CompletableFuture<ContentResponse>();
+        session.submit(() -> {
+            // Timed out while queued behind a load: the caller has been answered, so leave the text alone
+            if (result.isDone()) return;
+            if (session.isClosed()) {
+                result.complete(null);
+                return;
+            }
+            try {
+                var ops = session.applyContent(req.content(), maxDiffEdits);
+                LOG.debugf("Applied save of %s by %s as %d ops", session.getDocumentId(), req.userId(), ops.size());
+                long version = session.getVersion() - ops.size();
+                for (var op : ops) session.publishEdit(++version, op);
+                sessionFlusher.onEdit(session);
+                result.complete(new ContentResponse(session.getDocumentId(), session.getVersion(), ops.size(), true));
+            } catch (Exception e) {
+                result.completeExceptionally(e);
+            }
+        });
+        try {
+            return result.orTimeout(loadTimeout.toMillis(), TimeUnit.MILLISECONDS).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServiceUnavailableException("Interrupted");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof TimeoutException) {
+                throw new ServiceUnavailableException("Session for " + session.getDocumentId() + " is busy");
+            }
+            throw new InternalServerErrorException(e.getCause());
+        }
+    }
+}
@@ -1,112 +1,1015 @@
 package com.splitttr.collab.session;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.splitttr.collab.crdt.Rga;
+import com.splitttr.collab.message.BinaryCodec;
+import com.splitttr.collab.message.CollabCodec;
+import com.splitttr.collab.message.EditOperation;
+import com.splitttr.collab.message.ServerMessage;
 import com.splitttr.collab.message.ServerMessage.ActiveUser;
+import com.splitttr.collab.message.UserTable;
 import io.quarkus.websockets.next.WebSocketConnection;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
 
 // DocumentSession.
 public class DocumentSession {
 
-    private static final ObjectMapper mapper = new ObjectMapper()
-        .registerModule(new JavaTimeModule());
-
     private final String documentId;
+    private final SessionRuntime runtime;
+    private final SessionSettings settings;
     private final ConcurrentHashMap<String, UserConnection> connections = new ConcurrentHashMap<>();
 
-    // In-memory document state for fast access
-    private String content;
-    private long version;
+    // All state changes for this document run on this single logical writer
+    private final SessionSequencer sequencer;
+
+    // In-memory document state for fast access; only flattened to a String on demand.
+    // Replaced only from the sequencer, volatile so persistence can read a consistent snapshot.
+    private volatile Snapshot state = new Snapshot(Rope.empty(), 0, 0);
+    private volatile boolean closed;
+
+    // Set while the content is being fetched; the sequencer holds every task until it arrives
+    private volatile boolean loading;
+    private volatile Throwable loadFailure;
+
+    // Last time a client touched this session, for idle eviction
+    private volatile long lastActiveNanos = System.nanoTime();
+
+    // Recently applied ops, so flushes can ship deltas instead of the whole document
+    private final OpHistory history;
+
+    // Replica name when this document runs on the CRDT engine, null for plain positional ops
+    private String crdtReplica;
+
+    // The CRDT engine's copy of the content, resolving client ops against the version their author
+    // saw; the rope stays the copy everything else reads (sequencer only)
+    private Rga crdt;
+    private long crdtCompactedAt;
+
+    // Write-behind bookkeeping: what the document store has already seen, and the
+    // store's own version for it (diverges from ours after a full-content save)
+    private volatile long persistedVersion;
+    private volatile long persistedChars;
+    private volatile long remoteVersion;
+    private final ReentrantLock flushLock = new ReentrantLock();
+
+    // Heap of the CRDT runs and transform windows, last measured on the sequencer, and whether a
+    // measurement is queued
+    private volatile long sequencerBytes;
+    private final AtomicBoolean measuring = new AtomicBoolean();
+
+    // Cursor moves since the last presence tick, latest position per user (sequencer only)
+    private final Map<String, Integer> movedCursors = new LinkedHashMap<>();
+    private boolean presenceTickArmed;
+
+    // Applied ops not yet sent to peers; flushed as one "edits" frame per recipient (sequencer only)
+    private final List<PendingEdit> pendingEdits = new ArrayList<>();
+    private boolean editTickArmed;
+
+    // Read-only participants, fed digests by the viewer tier instead of the per-op editor fan-out
+    private final ConcurrentHashMap<String, ViewerConnection> viewers = new ConcurrentHashMap<>();
+
+    // Runs viewer fan-out in order without holding up the editors' sequencer
+    private final SessionSequencer viewerTier;
+
+    // Version the last viewer digest reached, and whether the next is armed (sequencer only)
+    private long viewerVersion;
+    private boolean viewerTickArmed;
+
+    // Init frame for joining viewers, reused while version and roster are unchanged (sequencer only)
+    private ViewerInit viewerInit;
+
+    private record ViewerInit(long version, long presenceVersion, Frame frame) {}
+
+    // Bumped on every join and leave; clients apply user_joined/user_left deltas on top of the
+    // roster they got at an earlier presenceVersion (sequencer only)
+    private long presenceVersion;
+
+    // Roster built from the connections, cached until someone joins, leaves or moves (sequencer only)
+    private List<ActiveUser> roster;
+
+    // Numbers standing in for user ids in binary frames (sequencer only)
+    private final UserTable userTable = new UserTable();
+
+    // Marks an author with nothing to receive from a batch
+    private static final Frame NOTHING = new Frame(null, null);
+
+    // Author of ops that did not come from a socket; no client may join under it
+    public static final String SERVER_USER = "server";
+
+    // An op applied at version, or with op null, an ack to user acked that its op was applied up to version
+    private record PendingEdit(long version, EditOperation op, String acked) {}
+
+    public static final class UserConnection {
+        private final OutboundQueue outbound;
+        private final String username;
+        private final boolean binary;
+        private volatile int cursorPosition;
+
+        // Spans a range-mode client holds, or null when it has the whole document (sequencer only)
+        private LoadedRanges ranges;
+
+        // Ops this client may not have seen yet, or null unless it pipelines its ops (sequencer only)
+        private TransformWindow window;
+
+        // Leading user table entries this binary client has been sent (sequencer only)
+        private int knownUsers;
+
+        UserConnection(OutboundQueue outbound, String username, boolean binary) {
+            this.outbound = outbound;
+            this.username = username;
+            this.binary = binary;
+        }
+
+        public OutboundQueue outbound() { return outbound; }
+        public String username() { return username; }
+        public boolean binary() { return binary; }
+        public int cursorPosition() { return cursorPosition; }
+        public boolean inRangeMode() { return ranges != null; }
+
+        void send(Frame frame) {
+            if (binary) outbound.enqueue(binaryFor(frame));
+            else outbound.enqueue(frame.json());
+        }
+
+        boolean sendPresence(Frame frame) {
+            return binary ? outbound.enqueuePresence(binaryFor(frame)) : outbound.enqueuePresence(frame.json());
+        }
+
+        private byte[] binaryFor(Frame frame) {
+            byte[] bytes = frame.binary();
+            knownUsers = frame.announce(knownUsers, outbound);
+            return bytes;
+        }
+    }
+
+    // A read-only participant; joinedVersion is the state its init carried.
+    static final class ViewerConnection {
+        private final OutboundQueue outbound;
+        private final boolean binary;
+        private final long joinedVersion;
+
+        // Leading user table entries this binary viewer has been sent
+        private int knownUsers;
+
+        ViewerConnection(OutboundQueue outbound, boolean binary, long joinedVersion) {
+            this.outbound = outbound;
+            this.binary = binary;
+            this.joinedVersion = joinedVersion;
+        }
+
+        void send(Frame frame) {
+            if (binary) {
+                byte[] bytes = frame.binary();
+                knownUsers = frame.announce(knownUsers, outbound);
+                outbound.enqueue(bytes);
+            } else {
+                outbound.enqueue(frame.json());
+            }
+        }
+    }
+
+    // A message encoded at most once per wire format, shared by every recipient using that format.
+    static final class Frame {
+        private final ServerMessage message;
+        private final UserTable users;
+        private String json;
+        private byte[] binary;
+        // Table entries [tableFrom, tableTo) the binary frame carries, and how many leading entries it uses
+        private int tableFrom;
+        private int tableTo;
+        private int usersReferenced;
 
-    public record UserConnection(WebSocketConnection connection, String username, int cursorPosition) {}
+        Frame(ServerMessage message, UserTable users) {
+            this.message = message;
+            this.users = users;
+        }
+
+        String json() {
+            if (json == null) json = CollabCodec.encode(message);
+            return json;
+        }
+
+        byte[] binary() {
+            if (binary == null) {
+                // Under the table's lock, so no number the viewer tier assigns meanwhile is counted
+                synchronized (users) {
+                    binary = BinaryCodec.encode(message, users);
+                    usersReferenced = BinaryCodec.usersReferenced(message, users);
+                    switch (message.type()) {
+                        case "init", "init_range", "resume" -> tableTo = usersReferenced;
+                        case "user_joined" -> {
+                            tableFrom = usersReferenced - 1;
+                            tableTo = usersReferenced;
+                        }
+                        default -> {}
+                    }
+                }
+            }
+            return binary;
+        }
+
+        // Queue a users frame ahead of this one if it uses numbers a client holding the first known
+        // entries was never sent; returns how many entries the client holds once both arrive.
+        int announce(int known, OutboundQueue outbound) {
+            if (tableFrom <= known) known = Math.max(known, tableTo);
+            if (usersReferenced > known) {
+                outbound.enqueue(BinaryCodec.encodeUsers(users, known, usersReferenced));
+                known = usersReferenced;
+            }
+            return known;
+        }
+    }
+
+    // Immutable view of the document; editedChars counts characters inserted or deleted so far.
+    public record Snapshot(Rope content, long version, long editedChars) {}
 
     public DocumentSession(String documentId) {
+        this(documentId, SessionRuntime.direct());
+    }
+
+    public DocumentSession(String documentId, SessionRuntime runtime) {
+        this(documentId, runtime, false);
+    }
+
+    private DocumentSession(String documentId, SessionRuntime runtime, boolean loading) {
         this.documentId = documentId;
+        this.runtime = runtime;
+        this.settings = runtime.settings();
+        this.loading = loading;
+        this.sequencer = new SessionSequencer(runtime.executor(), loading, runtime.metrics());
+        this.viewerTier = new SessionSequencer(runtime.executor(), false, runtime.metrics());
+        this.history = new OpHistory(settings.historyCapacity());
+    }
+
+    // Session whose content is still being fetched; submitted tasks wait for loaded() or loadFailed().
+    static DocumentSession loading(String documentId, SessionRuntime runtime) {
+        return new DocumentSession(documentId, runtime, true);
+    }
+
+    // Install the fetched content and run the tasks queued meanwhile.
+    void loaded(String content, long version) {
+        initContent(content, version);
+        loading = false;
+        sequencer.release();
+    }
+
+    // Give up on loading: the session is closed and queued tasks run against loadFailure().
+    void loadFailed(Throwable cause) {
+        loadFailure = cause;
+        closed = true;
+        loading = false;
+        sequencer.release();
+    }
+
+    // Is loading.
+    public boolean isLoading() {
+        return loading;
+    }
+
+    // Why the content could not be loaded, or null.
+    public Throwable loadFailure() {
+        return loadFailure;
+    }
+
+    // Queue a task on this document's sequencer; tasks run one at a time in submission order.
+    public void submit(Runnable task) {
+        lastActiveNanos = System.nanoTime();
+        sequencer.execute(task);
+    }
+
+    // Queue housekeeping on the sequencer without counting it as activity.
+    void submitMaintenance(Runnable task) {
+        sequencer.execute(task);
+    }
+
+    // Nanoseconds since a client last touched this session.
+    public long idleNanos() {
+        return System.nanoTime() - lastActiveNanos;
+    }
+
+    // Retrieve get document id.
+    public String getDocumentId() {
+        return documentId;
+    }
+
+    // Mark closed; tasks still queued behind the close must re-resolve the session.
+    void close() {
+        closed = true;
+        runtime.journal().closed(documentId);
+    }
+
+    // Is closed.
+    public boolean isClosed() {
+        return closed;
     }
 
     // Create init content.
     public void initContent(String content, long version) {
-        this.content = content;
-        this.version = version;
+        restore(content, version, version);
+    }
+
+    // Run this document on the CRDT engine; call before its content is loaded.
+    void useCrdt(String replica) {
+        this.crdtReplica = replica;
+    }
+
+    // Whether ops are resolved by the CRDT engine.
+    public boolean usesCrdt() {
+        return crdtReplica != null;
+    }
+
+    // Load content the store holds under remoteVersion as local version; differs after a full save.
+    void restore(String content, long version, long remoteVersion) {
+        this.state = new Snapshot(Rope.of(content), version, 0);
+        if (crdtReplica != null) {
+            crdt = new Rga(crdtReplica, content, version);
+            crdtCompactedAt = version;
+        }
+        this.persistedVersion = version;
+        this.persistedChars = 0;
+        this.remoteVersion = remoteVersion;
+        history.reset(version);
+        // Ops sent as of the replaced content can no longer be transformed
+        for (UserConnection uc : connections.values()) {
+            if (uc.window != null) uc.window.reset(version);
+        }
+        runtime.journal().opened(documentId, version, remoteVersion);
     }
 
     // Retrieve get content.
     public String getContent() {
-        return content;
+        return state.content().toString();
     }
 
     // Retrieve get version.
     public long getVersion() {
+        return state.version();
+    }
+
+    // Retrieve snapshot.
+    public Snapshot snapshot() {
+        return state;
+    }
+
+    // Apply edit at the positions it names in the current text; must run on the sequencer.
+    // Returns the version assigned to the edit.
+    public long applyEdit(EditOperation op) {
+        if (crdt != null) crdt.apply(op, state.version(), state.version() + 1);
+        return commit(op);
+    }
+
+    // Apply an op from a client. Positional documents take it as sent unless its author pipelines, in
+    // which case it is transformed past the ops the author had not seen; CRDT documents resolve it
+    // against what its author had seen. Either may turn it into several ops or none. Returns the ops
+    // applied, which took the versions up to getVersion(), or null if the op was dropped: its author
+    // pipelines and sent it as of a version older than the window kept for it. Must run on the sequencer.
+    public List<EditOperation> applyClientEdit(EditOperation op) {
+        if (crdt != null) {
+            long version = state.version();
+            var applied = crdt.apply(op, Math.min(op.clientVersion(), version), version + 1).applied();
+            for (EditOperation a : applied) commit(a);
+            return applied;
+        }
+        var uc = connections.get(op.userId());
+        if (uc == null || uc.window == null) {
+            applyEdit(op);
+            return List.of(op);
+        }
+        var applied = uc.window.transform(op);
+        if (applied == null) {
+            // The author starts over from the current state; ops it sent before receiving that are dropped
+            if (!uc.window.predatesResync(op)) resync(op.userId(), uc);
+            return null;
+        }
+        for (EditOperation a : applied) commit(a);
+        return applied;
+    }
+
+    // Replace the whole content with text saved outside the socket, as the fewest ops the diff finds
+    // (one replace past maxEdits changed chars). The ops are the server's, so every connected user is
+    // sent them, the one who saved included. Returns the ops applied, which took the versions up to
+    // getVersion(). Must run on the sequencer.
+    public List<EditOperation> applyContent(String content, int maxEdits) {
+        Snapshot current = state;
+        var ops = TextDiff.diff(current.content().toString(), content, SERVER_USER, current.version(), maxEdits);
+        for (EditOperation op : ops) applyEdit(op);
+        return ops;
+    }
+
+    // Transform a user's ops past what it had not seen and acknowledge each one, from the current version on.
+    public void pipeline(String userId) {
+        var uc = connections.get(userId);
+        if (uc != null && uc.ranges == null) uc.window = new TransformWindow(state.version(), settings.historyCapacity());
+    }
+
+    // Whether a user's ops are transformed and acknowledged.
+    public boolean pipelines(String userId) {
+        var uc = connections.get(userId);
+        return uc != null && uc.window != null;
+    }
+
+    // Send a pipelining user the whole current state and transform its ops from there.
+    private void resync(String userId, UserConnection uc) {
+        flushEdits();
+        Snapshot snapshot = state;
+        uc.window.resynced(snapshot.version());
+        uc.send(new Frame(ServerMessage.init(documentId, snapshot.content().toString(), snapshot.version(),
+            getActiveUsers(), presenceVersion), userTable));
+    }
+
+    private long commit(EditOperation op) {
+        long version = applyEdit(op.type(), op.position(), op.content(), op.deleteCount());
+        history.append(version, op);
+        for (var entry : connections.entrySet()) {
+            var window = entry.getValue().window;
+            if (window != null && !entry.getKey().equals(op.userId())) window.add(version, op);
+        }
+        runtime.journal().applied(documentId, version, op);
+        if (crdt != null && version - crdtCompactedAt >= settings.historyCapacity()) {
+            // Views older than the op history reaches back are no longer resolved exactly
+            crdt.compact(version - settings.historyCapacity());
+            crdtCompactedAt = version;
+        }
         return version;
     }
 
-    // Apply edit.
-    public void applyEdit(String type, int position, String text, int deleteCount) {
+    // Apply a raw edit without recording it for delta persistence.
+    long applyEdit(String type, int position, String text, int deleteCount) {
+        Snapshot current = state;
+        Rope content = current.content();
+        int textLength = text == null ? 0 : text.length();
+        long edited = switch (type) {
+            case "insert" -> textLength;
+            case "delete" -> deleteCount;
+            case "replace" -> textLength + deleteCount;
+            default -> 0;
+        };
         content = switch (type) {
-            case "insert" -> content.substring(0, position) + text + content.substring(position);
-            case "delete" -> content.substring(0, position) + content.substring(position + deleteCount);
-            case "replace" -> content.substring(0, position) + text + content.substring(position + deleteCount);
+            case "insert" -> content.insert(position, text);
+            case "delete" -> content.delete(position, deleteCount);
+            case "replace" -> content.replace(position, deleteCount, text);
             default -> content;
         };
-        version++;
+        long version = current.version() + 1;
+        state = new Snapshot(content, version, current.editedChars() + edited);
+        return version;
+    }
+
+    // Queue an applied op for peers; ops applied within one batch window share a frame.
+    public void publishEdit(long version, EditOperation op) {
+        if (!viewers.isEmpty()) armViewerTick();
+        queueEdit(new PendingEdit(version, op, null));
+    }
+
+    // Queue an ack telling a pipelining user its last op is applied, up to version; it goes out
+    // after the ops applied before it, in the same batch.
+    public void acknowledge(String userId, long version) {
+        queueEdit(new PendingEdit(version, null, userId));
+    }
+
+    private void queueEdit(PendingEdit edit) {
+        pendingEdits.add(edit);
+        if (settings.editBatchWindowMillis() <= 0) {
+            flushEdits();
+        } else if (!editTickArmed) {
+            editTickArmed = true;
+            runtime.ticker().schedule(() -> submit(() -> {
+                editTickArmed = false;
+                flushEdits();
+            }), settings.editBatchWindowMillis());
+        }
+    }
+
+    // Send pending ops to every recipient, leaving out each recipient's own ops. Runs of ops by one user
+    // are merged first, except for pipelining clients, which transform what they receive op by op as
+    // the server does. Runs before any other frame goes out so peers always see edits in version order.
+    void flushEdits() {
+        if (pendingEdits.isEmpty()) return;
+
+        long started = System.nanoTime();
+        List<PendingEdit> batch = new ArrayList<>(pendingEdits);
+        pendingEdits.clear();
+
+        Set<String> authors = new HashSet<>();
+        Set<String> acked = new HashSet<>();
+        List<EditOperation> all = new ArrayList<>(batch.size());
+        long first = 0, last = 0;
+        for (PendingEdit e : batch) {
+            if (e.op() == null) {
+                acked.add(e.acked());
+                continue;
+            }
+            if (all.isEmpty()) first = e.version();
+            last = e.version();
+            authors.add(e.op().userId());
+            all.add(e.op());
+        }
+        long baseVersion = first - 1;
+        long version = last;
+        List<EditOperation> compacted = OpCompaction.compact(all);
+
+        Frame shared = null, sharedExact = null;
+        Map<String, Frame> withoutAuthor = new HashMap<>();
+        for (var entry : connections.entrySet()) {
+            String userId = entry.getKey();
+            UserConnection uc = entry.getValue();
+            if (acked.contains(userId)) {
+                // Its acks go between the others' ops, so it knows which of them its own ops came after
+                sendWithAcks(uc, userId, batch, baseVersion);
+                continue;
+            }
+            if (all.isEmpty()) continue;
+            boolean exact = uc.window != null;
+            List<EditOperation> ops = exact ? all : compacted;
+            Frame frame;
+            if (uc.ranges != null && (frame = rangedFrame(uc.ranges, userId, ops, baseVersion, version)) != null) {
+                // Some ops missed every span this client holds and go to it as shifts
+                uc.send(frame);
+                continue;
+            }
+            if (authors.contains(userId)) {
+                frame = withoutAuthor.computeIfAbsent(userId, id -> {
+                    var others = ops.stream().filter(op -> !id.equals(op.userId())).toList();
+                    return others.isEmpty() ? NOTHING : new Frame(ServerMessage.edits(documentId, baseVersion, version, others), userTable);
+                });
+                if (frame == NOTHING) continue;
+            } else if (exact) {
+                if (sharedExact == null) sharedExact = new Frame(ServerMessage.edits(documentId, baseVersion, version, all), userTable);
+                frame = sharedExact;
+            } else {
+                if (shared == null) shared = new Frame(ServerMessage.edits(documentId, baseVersion, version, compacted), userTable);
+                frame = shared;
+            }
+            uc.send(frame);
+        }
+        runtime.metrics().fannedOut("edits", connections.size(), System.nanoTime() - started);
+    }
+
+    // The batch for a user with acks in it: the others' ops up to each ack, then the ack.
+    private void sendWithAcks(UserConnection uc, String userId, List<PendingEdit> batch, long baseVersion) {
+        List<EditOperation> others = new ArrayList<>();
+        long from = baseVersion, upTo = baseVersion;
+        for (PendingEdit e : batch) {
+            if (e.op() != null) {
+                if (userId.equals(e.op().userId())) continue;
+                others.add(e.op());
+                upTo = e.version();
+            } else if (userId.equals(e.acked())) {
+                if (!others.isEmpty()) {
+                    uc.send(new Frame(ServerMessage.edits(documentId, from, upTo, others), userTable));
+                    others = new ArrayList<>();
+                }
+                uc.send(new Frame(ServerMessage.ack(documentId, e.version()), userTable));
+                from = e.version();
+            }
+        }
+        if (!others.isEmpty()) uc.send(new Frame(ServerMessage.edits(documentId, from, upTo, others), userTable));
+    }
+
+    // Move a range-mode client's spans over the batch; returns a frame of its own if any op it
+    // receives became a shift, or null if the shared frames carry what it needs.
+    private Frame rangedFrame(LoadedRanges ranges, String userId, List<EditOperation> all, long baseVersion,
+                              long version) {
+        List<EditOperation> seen = new ArrayList<>(all.size());
+        boolean shifted = false;
+        for (EditOperation op : all) {
+            EditOperation view = ranges.transform(op);
+            if (userId.equals(op.userId())) continue;
+            seen.add(view);
+            shifted |= view != op;
+        }
+        if (!shifted) return null;
+        return new Frame(ServerMessage.edits(documentId, baseVersion, version, seen), userTable);
+    }
+
+    // Put a joined user in range mode: it gets the document length and only [start, start + length).
+    public void sendInitialRange(String userId, int start, int length) {
+        flushEdits();
+        var uc = connections.get(userId);
+        if (uc == null) return;
+        uc.ranges = new LoadedRanges();
+        Snapshot snapshot = state;
+        int from = clamp(start, snapshot);
+        int to = clamp(from + (long) Math.max(0, length), snapshot);
+        uc.ranges.add(from, to);
+        uc.send(new Frame(ServerMessage.initRange(documentId, snapshot.content().substring(from, to), from,
+            snapshot.content().length(), snapshot.version(), getActiveUsers(), presenceVersion), userTable));
+    }
+
+    // Send a range-mode user another span, cut after every op it has been sent and before any other.
+    public void sendRange(String userId, int start, int length) {
+        flushEdits();
+        var uc = connections.get(userId);
+        if (uc == null || uc.ranges == null) return;
+        Snapshot snapshot = state;
+        int from = clamp(start, snapshot);
+        int to = clamp(from + (long) Math.max(0, length), snapshot);
+        uc.ranges.add(from, to);
+        uc.send(new Frame(ServerMessage.range(documentId, snapshot.content().substring(from, to), from,
+            snapshot.content().length(), snapshot.version()), userTable));
+    }
+
+    private static int clamp(long offset, Snapshot snapshot) {
+        return (int) Math.max(0, Math.min(offset, snapshot.content().length()));
+    }
+
+    private void armViewerTick() {
+        if (viewerTickArmed) return;
+        viewerTickArmed = true;
+        runtime.ticker().schedule(() -> submit(this::flushViewers), settings.viewerIntervalMillis());
+    }
+
+    // Hand everything applied since the last digest to the viewer tier; the fan-out runs there.
+    void flushViewers() {
+        viewerTickArmed = false;
+        Snapshot snapshot = state;
+        long base = viewerVersion;
+        viewerVersion = snapshot.version();
+        if (viewers.isEmpty() || base >= snapshot.version()) return;
+
+        List<EditOperation> ops = history.range(base, snapshot.version());
+        viewerTier.execute(() -> fanOutToViewers(base, snapshot, ops));
+    }
+
+    // One frame per distinct starting point: a digest of the ops, or the content if there are too many.
+    private void fanOutToViewers(long base, Snapshot snapshot, List<EditOperation> ops) {
+        long started = System.nanoTime();
+        long version = snapshot.version();
+        boolean digest = ops != null && ops.size() <= settings.viewerMaxDigestOps();
+        Map<Long, Frame> digests = new HashMap<>();
+        Frame full = null;
+
+        for (ViewerConnection viewer : viewers.values()) {
+            // Viewers that joined after base already have the start of this digest in their init
+            long since = Math.max(base, viewer.joinedVersion);
+            if (since >= version) continue;
+            Frame frame;
+            if (digest) {
+                frame = digests.computeIfAbsent(since, from -> new Frame(ServerMessage.edits(documentId, from, version,
+                    OpCompaction.compact(ops.subList((int) (from - base), ops.size()))), userTable));
+            } else {
+                if (full == null) {
+                    full = new Frame(ServerMessage.snapshot(documentId, snapshot.content().toString(), version), userTable);
+                }
+                frame = full;
+            }
+            viewer.send(frame);
+        }
+        runtime.metrics().fannedOut("viewers", viewers.size(), System.nanoTime() - started);
+    }
+
+    // Measure what only the sequencer may walk and publish it for estimatedBytes().
+    private void measureSequencerBytes() {
+        measuring.set(false);
+        long bytes = crdt == null ? 0 : crdt.estimatedBytes();
+        for (UserConnection uc : connections.values()) {
+            if (uc.window != null) bytes += uc.window.estimatedBytes();
+        }
+        sequencerBytes = bytes;
+    }
+
+    // Hold the content deflated until it is next read; only for persisted sessions, on the sequencer.
+    void compress() {
+        Snapshot current = state;
+        if (isDirty() || current.content().isCompressed()) return;
+        state = new Snapshot(current.content().compress(), current.version(), current.editedChars());
+    }
+
+    // Is compressed.
+    public boolean isCompressed() {
+        return state.content().isCompressed();
+    }
+
+    // Approximate heap held by this session: content, op history and connections. Safe off the
+    // sequencer: the CRDT runs and transform windows are measured by a sequencer task this queues,
+    // so their share is as of the previous call.
+    public long estimatedBytes() {
+        if (measuring.compareAndSet(false, true)) submitMaintenance(this::measureSequencerBytes);
+        long bytes = 256 + state.content().estimatedBytes() + history.estimatedBytes() + sequencerBytes;
+        for (UserConnection uc : connections.values()) {
+            bytes += 256 + 64L * uc.outbound().depth();
+        }
+        for (ViewerConnection viewer : viewers.values()) {
+            bytes += 128 + 64L * viewer.outbound.depth();
+        }
+        return bytes;
+    }
+
+    // Is dirty.
+    public boolean isDirty() {
+        return state.version() != persistedVersion;
+    }
+
+    // Edits applied since the last successful persist.
+    public long unpersistedEdits() {
+        return state.version() - persistedVersion;
+    }
+
+    // Characters inserted or deleted since the last successful persist.
+    public long unpersistedChars() {
+        return state.editedChars() - persistedChars;
+    }
+
+    // Ops a client at lastVersion is missing, runs by one user merged, or null when the history no
+    // longer reaches back that far.
+    public List<EditOperation> opsSince(long lastVersion) {
+        return OpCompaction.compact(history.range(lastVersion, state.version()));
+    }
+
+    // Ops to resume a rejoining user from lastVersion with, or null if it needs a full init. A client
+    // names lastVersion only while it holds no op the server has not acknowledged, so one of its own
+    // ops after lastVersion means it cannot tell which of its ops arrived; it starts over instead.
+    public List<EditOperation> resumeOps(String userId, long lastVersion) {
+        List<EditOperation> missed = opsSince(lastVersion);
+        if (missed == null || missed.stream().anyMatch(op -> userId.equals(op.userId()))) return null;
+        return missed;
+    }
+
+    // Ops applied since the last persist up to the snapshot, runs by one user merged, or null if the
+    // history no longer has them all; empty if they cancel out.
+    List<EditOperation> unpersistedOps(Snapshot snapshot) {
+        return OpCompaction.compact(history.range(persistedVersion, snapshot.version()));
+    }
+
+    // Retrieve get remote version.
+    long getRemoteVersion() {
+        return remoteVersion;
+    }
+
+    // Record that a flush of the snapshot is about to be sent to the store.
+    void markFlushing(Snapshot snapshot, long expectedRemoteVersion) {
+        runtime.journal().flushing(documentId, snapshot.version(), expectedRemoteVersion);
     }
 
-    // Add user.
-    public void addUser(String userId, String username, WebSocketConnection conn) {
-        connections.put(userId, new UserConnection(conn, username, 0));
+    // Record that the store now holds the given snapshot under its own remoteVersion.
+    void markPersisted(Snapshot snapshot, long remoteVersion) {
+        this.persistedVersion = snapshot.version();
+        this.persistedChars = snapshot.editedChars();
+        this.remoteVersion = remoteVersion;
+        runtime.journal().persisted(documentId, snapshot.version(), remoteVersion);
+    }
+
+    // Held while a flush is in flight so two flushes of one document never overlap.
+    ReentrantLock flushLock() {
+        return flushLock;
+    }
+
+    // Add user; binary connections get frames in the compact binary protocol.
+    public void addUser(String userId, String username, WebSocketConnection conn, boolean binary) {
+        addUser(userId, username, new OutboundQueue.Sink() {
+            @Override
+            public CompletionStage<Void> send(String text) {
+                return conn.sendText(text).subscribeAsCompletionStage();
+            }
+
+            @Override
+            public CompletionStage<Void> send(byte[] frame) {
+                return conn.sendBinary(frame).subscribeAsCompletionStage();
+            }
+
+            @Override
+            public void close() {
+                conn.close().subscribe().with(ok -> {}, err -> {});
+            }
+
+            @Override
+            public boolean isOpen() {
+                return conn.isOpen();
+            }
+        }, binary);
+    }
+
+    // Add a read-only viewer: it gets the current state now and digests from the viewer tier after.
+    public void addViewer(String userId, WebSocketConnection conn, boolean binary) {
+        addViewer(userId, new OutboundQueue.Sink() {
+            @Override
+            public CompletionStage<Void> send(String text) {
+                return conn.sendText(text).subscribeAsCompletionStage();
+            }
+
+            @Override
+            public CompletionStage<Void> send(byte[] frame) {
+                return conn.sendBinary(frame).subscribeAsCompletionStage();
+            }
+
+            @Override
+            public void close() {
+                conn.close().subscribe().with(ok -> {}, err -> {});
+            }
+
+            @Override
+            public boolean isOpen() {
+                return conn.isOpen();
+            }
+        }, binary);
+    }
+
+    // Add a viewer writing to an arbitrary sink; must run on the sequencer.
+    void addViewer(String userId, OutboundQueue.Sink sink, boolean binary) {
+        long version = state.version();
+        if (viewers.isEmpty()) viewerVersion = version;
+
+        ViewerInit init = viewerInit;
+        if (init == null || init.version() != version || init.presenceVersion() != presenceVersion) {
+            var message = ServerMessage.init(documentId, getContent(), version, getActiveUsers(), presenceVersion);
+            init = new ViewerInit(version, presenceVersion, new Frame(message, userTable));
+            viewerInit = init;
+        }
+
+        var viewer = new ViewerConnection(new OutboundQueue(sink, settings, runtime.outboundMetrics()), binary, version);
+        viewer.send(init.frame());
+        viewers.put(userId, viewer);
+    }
+
+    // Remove viewer.
+    public void removeViewer(String userId) {
+        viewers.remove(userId);
+    }
+
+    // Viewers connected.
+    public int viewerCount() {
+        return viewers.size();
+    }
+
+    // Add a JSON user writing to an arbitrary sink.
+    void addUser(String userId, String username, OutboundQueue.Sink sink) {
+        addUser(userId, username, sink, false);
+    }
+
+    // Add user writing to an arbitrary sink.
+    void addUser(String userId, String username, OutboundQueue.Sink sink, boolean binary) {
+        // Ops already applied belong to the state this user is about to receive, not to its edit stream
+        flushEdits();
+        userTable.intern(userId, username);
+        var outbound = new OutboundQueue(sink, settings, runtime.outboundMetrics());
+        connections.put(userId, new UserConnection(outbound, username, binary));
+        presenceVersion++;
+        roster = null;
     }
 
     // Delete remove user.
     public void removeUser(String userId) {
-        connections.remove(userId);
+        if (connections.remove(userId) != null) {
+            presenceVersion++;
+            roster = null;
+        }
+        movedCursors.remove(userId);
+    }
+
+    // Drop users whose connection went away without a leave and tell the others; returns them keyed by user id.
+    public Map<String, String> removeClosedUsers() {
+        Map<String, String> removed = new LinkedHashMap<>();
+        connections.forEach((userId, uc) -> {
+            if (!uc.outbound().isOpen()) removed.put(userId, uc.username());
+        });
+        removed.forEach((userId, username) -> {
+            removeUser(userId);
+            broadcast(ServerMessage.userLeft(documentId, userId, username, presenceVersion), null);
+        });
+        viewers.values().removeIf(viewer -> !viewer.outbound.isOpen());
+        return removed;
     }
 
-    // Update update cursor.
+    // Record a cursor move; peers see it on the next presence tick. Must run on the sequencer.
     public void updateCursor(String userId, int position) {
         var existing = connections.get(userId);
-        if (existing != null) {
-            connections.put(userId, new UserConnection(existing.connection(), existing.username(), position));
+        if (existing == null) return;
+
+        existing.cursorPosition = position;
+        roster = null;
+        movedCursors.put(userId, position);
+        armPresenceTick();
+    }
+
+    private void armPresenceTick() {
+        if (presenceTickArmed) return;
+        presenceTickArmed = true;
+        runtime.ticker().schedule(() -> submit(this::flushPresence), settings.presenceIntervalMillis());
+    }
+
+    // Send one presence frame with the latest position of every user who moved since the last tick.
+    void flushPresence() {
+        presenceTickArmed = false;
+        flushEdits();
+
+        List<ActiveUser> moved = new ArrayList<>(movedCursors.size());
+        movedCursors.forEach((userId, position) -> {
+            var uc = connections.get(userId);
+            if (uc != null) moved.add(new ActiveUser(userId, uc.username(), position));
+        });
+        movedCursors.clear();
+
+        long started = System.nanoTime();
+        Frame delta = moved.isEmpty() ? null : new Frame(ServerMessage.presence(documentId, moved), userTable);
+        Frame full = null;
+        boolean retry = false;
+
+        for (UserConnection uc : connections.values()) {
+            OutboundQueue out = uc.outbound();
+            if (out.isPresenceStale()) {
+                // This recipient missed a delta; catch it up with everyone's position
+                if (full == null) full = new Frame(ServerMessage.presence(documentId, getActiveUsers()), userTable);
+                if (uc.sendPresence(full)) out.markPresenceFresh();
+                else retry = true;
+            } else if (delta != null && !uc.sendPresence(delta)) {
+                out.markPresenceStale();
+                retry = true;
+            }
         }
+
+        runtime.metrics().fannedOut("presence", connections.size(), System.nanoTime() - started);
+
+        // Recipients still behind get another attempt on the next tick
+        if (retry) armPresenceTick();
     }
 
-    // Is empty.
+    // Send a final message to every user and close their connections once it is written.
+    public void disconnectAll(ServerMessage message) {
+        flushEdits();
+        Frame frame = new Frame(message, userTable);
+        for (UserConnection uc : connections.values()) {
+            uc.send(frame);
+            uc.outbound().closeWhenDrained();
+        }
+        for (ViewerConnection viewer : viewers.values()) {
+            viewer.send(frame);
+            viewer.outbound.closeWhenDrained();
+        }
+        viewers.clear();
+        connections.clear();
+        movedCursors.clear();
+        presenceVersion++;
+        roster = null;
+    }
+
+    // Is empty: no editors and no viewers.
     public boolean isEmpty() {
-        return connections.isEmpty();
+        return connections.isEmpty() && viewers.isEmpty();
+    }
+
+    // Connected users.
+    public int userCount() {
+        return connections.size();
     }
 
-    // Retrieve get active users.
+    // Roster version the next membership delta builds on; must run on the sequencer.
+    public long presenceVersion() {
+        return presenceVersion;
+    }
+
+    // Full roster with cursor positions; rebuilt only after a change. Must run on the sequencer.
     public List<ActiveUser> getActiveUsers() {
-        return connections.entrySet().stream()
-            .map(e -> new ActiveUser(e.getKey(), e.getValue().username(), e.getValue().cursorPosition()))
-            .toList();
+        List<ActiveUser> users = roster;
+        if (users == null) {
+            users = connections.entrySet().stream()
+                .map(e -> new ActiveUser(e.getKey(), e.getValue().username(), e.getValue().cursorPosition()))
+                .toList();
+            roster = users;
+        }
+        return users;
     }
 
-    // Broadcast.
-    public void broadcast(Object message, String excludeUserId) {
-        String json = toJson(message);
+    // Broadcast; serializes once per wire format and queues without waiting on any recipient.
+    public void broadcast(ServerMessage message, String excludeUserId) {
+        flushEdits();
+        long started = System.nanoTime();
+        Frame frame = new Frame(message, userTable);
         connections.forEach((userId, uc) -> {
             if (!userId.equals(excludeUserId)) {
-                uc.connection().sendTextAndAwait(json); 
+                uc.send(frame);
             }
         });
+        runtime.metrics().fannedOut("broadcast", connections.size(), System.nanoTime() - started);
     }
 
     // Send to.
-    public void sendTo(String userId, Object message) {
+    public void sendTo(String userId, ServerMessage message) {
+        flushEdits();
         var uc = connections.get(userId);
         if (uc != null) {
-            uc.connection().sendTextAndAwait(toJson(message));
+            uc.send(new Frame(message, userTable));
         }
     }
 
-    private String toJson(Object obj) {
-        try {
-            return mapper.writeValueAsString(obj);
-        } catch (Exception e) {
-            throw new RuntimeException(e);
+    // Frames queued across all connections of this document.
+    public int queuedFrames() {
+        int total = 0;
+        for (UserConnection uc : connections.values()) {
+            total += uc.outbound().depth();
+        }
+        for (ViewerConnection viewer : viewers.values()) {
+            total += viewer.outbound.depth();
         }
+        return total;
     }
 }
\ No newline at end of file
@@ -0,0 +1,92 @@
+package com.splitttr.collab.session;
+
+import com.splitttr.collab.message.EditOperation;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Spans of the document a range-mode client holds, moved along with every op it is told about.
+// The client follows the same rules (listed in the README), so an op that touches none of its
+// spans only needs to reach it as a shift: where the length changed and by how much.
+final class LoadedRanges {
+
+    // Sorted [start, end) pairs; never overlapping or adjacent after a merge. Spans may be empty:
+    // the client still watches that spot and sees text typed into it.
+    private final List<int[]> spans = new ArrayList<>();
+
+    // Add a span the client has just been sent.
+    void add(int start, int end) {
+        int i = 0;
+        while (i < spans.size() && spans.get(i)[0] < start) i++;
+        spans.add(i, new int[] {start, end});
+        merge();
+    }
+
+    // The op as this client should see it: unchanged if it touches a span, otherwise a shift.
+    // Moves the spans either way, so it must see every op in version order, the client's own included.
+    EditOperation transform(EditOperation op) {
+        int position = op.position();
+        int deleted = deleted(op);
+        int inserted = inserted(op);
+        boolean touches = touches(position, deleted);
+        apply(position, deleted, inserted);
+        if (touches) return op;
+        return new EditOperation(op.userId(), "shift", position, null, deleted - inserted, op.clientVersion());
+    }
+
+    // Spans as [start, end) pairs.
+    List<int[]> spans() {
+        return spans;
+    }
+
+    private boolean touches(int position, int deleted) {
+        for (int[] span : spans) {
+            if (position <= span[1] && position + deleted >= span[0]) return true;
+        }
+        return false;
+    }
+
+    // Removed chars collapse onto position; inserted text joins the first span containing
+    // position and pushes every span after it.
+    private void apply(int position, int deleted, int inserted) {
+        boolean taken = false;
+        for (int[] span : spans) {
+            span[0] = afterDelete(span[0], position, deleted);
+            span[1] = afterDelete(span[1], position, deleted);
+            if (inserted == 0) continue;
+            if (!taken && span[0] <= position && position <= span[1]) {
+                span[1] += inserted;
+                taken = true;
+            } else if (span[0] >= position) {
+                span[0] += inserted;
+                span[1] += inserted;
+            }
+        }
+        merge();
+    }
+
+    private static int afterDelete(int offset, int position, int deleted) {
+        if (offset <= position) return offset;
+        return offset >= position + deleted ? offset - deleted : position;
+    }
+
+    private void merge() {
+        for (int i = spans.size() - 1; i > 0; i--) {
+            int[] before = spans.get(i - 1);
+            int[] span = spans.get(i);
+            if (span[0] <= before[1]) {
+                before[1] = Math.max(before[1], span[1]);
+                spans.remove(i);
+            }
+        }
+    }
+
+    private static int deleted(EditOperation op) {
+        return "delete".equals(op.type()) || "replace".equals(op.type()) ? op.deleteCount() : 0;
+    }
+
+    private static int inserted(EditOperation op) {
+        boolean inserts = "insert".equals(op.type()) || "replace".equals(op.type());
+        return inserts && op.content() != null ? op.content().length() : 0;
+    }
+}
@@ -0,0 +1,73 @@
+package com.splitttr.collab.session;
+
+import com.splitttr.collab.message.EditOperation;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Merges runs of ops by one user into fewer ops with the same effect, before they are sent or stored.
+// Each op is taken as a replace: it removes deleteCount chars at position and puts its content there.
+// An op merges into the one before it when both are by the same user and it touches the text the
+// earlier op left, so "hello" typed a key at a time becomes one insert, backspaces become one delete,
+// and text typed and deleted again disappears.
+final class OpCompaction {
+
+    // Stands for two ops that cancel out
+    private static final EditOperation NOTHING = new EditOperation(null, null, 0, null, 0, 0);
+
+    private OpCompaction() {}
+
+    // Ops with the same effect as ops applied in order; returns ops itself when nothing merges.
+    static List<EditOperation> compact(List<EditOperation> ops) {
+        if (ops == null || ops.size() < 2) return ops;
+        List<EditOperation> out = new ArrayList<>(ops.size());
+        for (EditOperation op : ops) {
+            EditOperation last = out.isEmpty() ? null : out.get(out.size() - 1);
+            EditOperation merged = last == null ? null : merge(last, op);
+            if (merged == null) {
+                out.add(op);
+            } else {
+                out.remove(out.size() - 1);
+                // Typed and deleted again: nothing left to apply
+                if (merged != NOTHING) out.add(merged);
+            }
+        }
+        return out.size() == ops.size() ? ops : out;
+    }
+
+    // One op doing a then b, NOTHING if they cancel out, or null if they do not merge.
+    private static EditOperation merge(EditOperation a, EditOperation b) {
+        if (a.userId() == null || !a.userId().equals(b.userId()) || !positional(a) || !positional(b)) return null;
+        String t = text(a), u = text(b);
+        int p = a.position(), n = removed(a);
+        int q = b.position(), m = removed(b);
+        // b must touch the span a's text now occupies, or the chars between would be unknown here
+        if (q > p + t.length() || q + m < p) return null;
+
+        int start = Math.min(p, q);
+        int deleted = n + Math.max(0, p - q) + Math.max(0, q + m - (p + t.length()));
+        int lo = Math.max(q, p) - p;
+        int hi = Math.min(q + m, p + t.length()) - p;
+        String inserted = t.substring(0, lo) + u + t.substring(hi);
+
+        String type = deleted == 0 ? "insert" : inserted.isEmpty() ? "delete" : "replace";
+        if (deleted == 0 && inserted.isEmpty()) return NOTHING;
+        return new EditOperation(a.userId(), type, start, inserted.isEmpty() ? null : inserted,
+            "insert".equals(type) ? 0 : deleted, a.clientVersion());
+    }
+
+    private static boolean positional(EditOperation op) {
+        return switch (op.type()) {
+            case "insert", "delete", "replace" -> true;
+            default -> false;
+        };
+    }
+
+    private static String text(EditOperation op) {
+        return "delete".equals(op.type()) || op.content() == null ? "" : op.content();
+    }
+
+    private static int removed(EditOperation op) {
+        return "insert".equals(op.type()) ? 0 : op.deleteCount();
+    }
+}
@@ -0,0 +1,78 @@
+package com.splitttr.collab.session;
+
+import com.splitttr.collab.message.EditOperation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Bounded ring of the most recently applied ops, indexed by the version each op produced.
+// Appended from the sequencer, read by flushes; versions are contiguous.
+public class OpHistory {
+
+    private final EditOperation[] ring;
+    private int next;           // slot the next op goes into
+    private int size;
+    private long newestVersion;
+
+    public OpHistory(int capacity) {
+        this.ring = new EditOperation[Math.max(capacity, 1)];
+    }
+
+    // Forget everything and continue numbering after version.
+    public synchronized void reset(long version) {
+        Arrays.fill(ring, null);
+        next = 0;
+        size = 0;
+        newestVersion = version;
+    }
+
+    // Record the op that produced version.
+    public synchronized void append(long version, EditOperation op) {
+        if (version != newestVersion + 1) {
+            // Gap (e.g. content replaced out of band): older entries no longer line up
+            reset(version - 1);
+        }
+        ring[next] = op;
+        next = (next + 1) % ring.length;
+        if (size < ring.length) size++;
+        newestVersion = version;
+    }
+
+    // Ops producing versions (afterVersion, upToVersion], or null if any of them has been overwritten.
+    public synchronized List<EditOperation> range(long afterVersion, long upToVersion) {
+        long oldestVersion = newestVersion - size + 1;
+        if (afterVersion + 1 < oldestVersion || upToVersion > newestVersion || afterVersion > upToVersion) {
+            return null;
+        }
+        List<EditOperation> ops = new ArrayList<>((int) (upToVersion - afterVersion));
+        for (long v = afterVersion + 1; v <= upToVersion; v++) {
+            ops.add(ring[slotOf(v)]);
+        }
+        return ops;
+    }
+
+    // Oldest version still retained, or newest + 1 when empty.
+    public synchronized long oldestVersion() {
+        return newestVersion - size + 1;
+    }
+
+    // Approximate heap held by the retained ops.
+    public synchronized long estimatedBytes() {
+        long bytes = 16 + 16 + 4L * ring.length;
+        for (EditOperation op : ring) {
+            if (op == null) continue;
+            bytes += 48 + chars(op.userId()) + chars(op.type()) + chars(op.content());
+        }
+        return bytes;
+    }
+
+    private static long chars(String s) {
+        return s == null ? 0 : 40 + 2L * s.length();
+    }
+
+    private int slotOf(long version) {
+        int back = (int) (newestVersion - version);         // 0 = newest
+        return Math.floorMod(next - 1 - back, ring.length);
+    }
+}
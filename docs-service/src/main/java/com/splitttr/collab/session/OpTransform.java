@@ -0,0 +1,129 @@
+package com.splitttr.collab.session;
+
+import com.splitttr.collab.message.EditOperation;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Operational transformation of positional ops. Ops are handled as their components: a replace is
+// its delete followed by its insert. Text inserted inside a range deleted concurrently survives, and
+// of two inserts at one position the one on the right-hand side of transform goes first.
+final class OpTransform {
+
+    // Two op sequences moved past each other: a now applies after b, and b after a.
+    record Pair(List<EditOperation> a, List<EditOperation> b) {}
+
+    private OpTransform() {}
+
+    // The inserts and deletes making up op, in the order they apply; empty ones are left out.
+    static List<EditOperation> components(EditOperation op) {
+        int length = op.content() == null ? 0 : op.content().length();
+        return switch (op.type()) {
+            case "insert" -> length == 0 ? List.of() : List.of(insert(op, op.position()));
+            case "delete" -> op.deleteCount() <= 0 ? List.of() : List.of(delete(op, op.position(), op.deleteCount()));
+            case "replace" -> {
+                List<EditOperation> parts = new ArrayList<>(2);
+                if (op.deleteCount() > 0) parts.add(delete(op, op.position(), op.deleteCount()));
+                if (length > 0) parts.add(insert(op, op.position()));
+                yield parts;
+            }
+            default -> List.of();
+        };
+    }
+
+    // Components back as ops, a delete followed by an insert at the same position becoming a replace.
+    static List<EditOperation> merge(List<EditOperation> components) {
+        List<EditOperation> ops = new ArrayList<>(components.size());
+        for (int i = 0; i < components.size(); i++) {
+            EditOperation op = components.get(i);
+            EditOperation next = i + 1 < components.size() ? components.get(i + 1) : null;
+            if ("delete".equals(op.type()) && next != null && "insert".equals(next.type())
+                    && next.position() == op.position()) {
+                ops.add(new EditOperation(op.userId(), "replace", op.position(), next.content(), op.deleteCount(),
+                    op.clientVersion()));
+                i++;
+            } else {
+                ops.add(op);
+            }
+        }
+        return ops;
+    }
+
+    // Components a and b, both applying to the same text, moved past each other; b wins ties.
+    static Pair transform(List<EditOperation> a, List<EditOperation> b) {
+        if (a.isEmpty() || b.isEmpty()) return new Pair(a, b);
+        if (a.size() > 1) {
+            Pair head = transform(a.subList(0, 1), b);
+            Pair tail = transform(a.subList(1, a.size()), head.b());
+            return new Pair(concat(head.a(), tail.a()), tail.b());
+        }
+        if (b.size() > 1) {
+            Pair head = transform(a, b.subList(0, 1));
+            Pair tail = transform(head.a(), b.subList(1, b.size()));
+            return new Pair(tail.a(), concat(head.b(), tail.b()));
+        }
+        return transform(a.get(0), b.get(0));
+    }
+
+    private static Pair transform(EditOperation a, EditOperation b) {
+        boolean aInserts = "insert".equals(a.type());
+        boolean bInserts = "insert".equals(b.type());
+        if (aInserts && bInserts) {
+            if (a.position() < b.position()) {
+                return new Pair(List.of(a), List.of(insert(b, b.position() + a.content().length())));
+            }
+            return new Pair(List.of(insert(a, a.position() + b.content().length())), List.of(b));
+        }
+        if (aInserts) return insertAgainstDelete(a, b);
+        if (bInserts) {
+            Pair p = insertAgainstDelete(b, a);
+            return new Pair(p.b(), p.a());
+        }
+        return new Pair(shrink(a, b), shrink(b, a));
+    }
+
+    // An insert and a delete moved past each other, the insert first in the pair.
+    private static Pair insertAgainstDelete(EditOperation ins, EditOperation del) {
+        int p = ins.position();
+        int length = ins.content().length();
+        int start = del.position();
+        int end = start + del.deleteCount();
+        if (p <= start) {
+            return new Pair(List.of(ins), List.of(delete(del, start + length, del.deleteCount())));
+        }
+        if (p >= end) {
+            return new Pair(List.of(insert(ins, p - del.deleteCount())), List.of(del));
+        }
+        // Inserted inside the deleted range: the text stays, the delete goes around it
+        return new Pair(List.of(insert(ins, start)),
+            List.of(delete(del, start, p - start), delete(del, start + length, end - p)));
+    }
+
+    // What x still deletes once y has deleted its range, in the text after y.
+    private static List<EditOperation> shrink(EditOperation x, EditOperation y) {
+        int xEnd = x.position() + x.deleteCount();
+        int yEnd = y.position() + y.deleteCount();
+        int overlap = Math.max(0, Math.min(xEnd, yEnd) - Math.max(x.position(), y.position()));
+        int count = x.deleteCount() - overlap;
+        if (count == 0) return List.of();
+        int start = x.position() < y.position() ? x.position() : Math.max(y.position(), x.position() - y.deleteCount());
+        return List.of(delete(x, start, count));
+    }
+
+    private static EditOperation insert(EditOperation op, int position) {
+        return new EditOperation(op.userId(), "insert", position, op.content(), 0, op.clientVersion());
+    }
+
+    private static EditOperation delete(EditOperation op, int position, int count) {
+        return new EditOperation(op.userId(), "delete", position, null, count, op.clientVersion());
+    }
+
+    private static List<EditOperation> concat(List<EditOperation> first, List<EditOperation> second) {
+        if (first.isEmpty()) return second;
+        if (second.isEmpty()) return first;
+        List<EditOperation> all = new ArrayList<>(first.size() + second.size());
+        all.addAll(first);
+        all.addAll(second);
+        return all;
+    }
+}
@@ -0,0 +1,19 @@
+package com.splitttr.collab.session;
+
+import java.util.concurrent.atomic.LongAdder;
+
+// Process-wide counters for outbound frame delivery.
+public class OutboundMetrics {
+
+    private final LongAdder framesSent = new LongAdder();
+    private final LongAdder presenceDropped = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    void frameSent() { framesSent.increment(); }
+    void presenceDropped() { presenceDropped.increment(); }
+    void evicted() { evictions.increment(); }
+
+    public long framesSent() { return framesSent.sum(); }
+    public long presenceFramesDropped() { return presenceDropped.sum(); }
+    public long slowConsumerEvictions() { return evictions.sum(); }
+}
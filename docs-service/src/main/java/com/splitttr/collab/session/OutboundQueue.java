@@ -0,0 +1,194 @@
+package com.splitttr.collab.session;
+
+import org.jboss.logging.Logger;
+
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Bounded outbound queue for one connection.
+// Frames are enqueued without blocking and written one at a time with the async send, so a
+// slow client only ever delays itself. Presence frames are dropped first under pressure (the
+// session then resends full presence once the queue drains); a consumer that falls past the
+// hard limit is disconnected. Frames are text (String) or binary (byte[]) depending on the
+// protocol the connection joined with.
+public class OutboundQueue {
+
+    private static final Logger LOG = Logger.getLogger(OutboundQueue.class);
+
+    // Where frames go; the production sink wraps a WebSocketConnection.
+    public interface Sink {
+        CompletionStage<Void> send(String text);
+        void close();
+
+        // Send a binary frame, for sinks of binary-protocol connections.
+        default CompletionStage<Void> send(byte[] frame) {
+            throw new UnsupportedOperationException("binary frames not supported by this sink");
+        }
+
+        // Whether the peer is still connected, for sinks that can tell.
+        default boolean isOpen() {
+            return true;
+        }
+    }
+
+    private final Sink sink;
+    private final SessionSettings settings;
+    private final OutboundMetrics metrics;
+
+    private final Queue<Object> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger depth = new AtomicInteger();
+    private final AtomicBoolean sending = new AtomicBoolean();
+    private volatile boolean evicted;
+    private volatile boolean closing;
+
+    // Set when a presence frame was dropped, so this consumer's view of cursors is out of date
+    private volatile boolean presenceStale;
+
+    public OutboundQueue(Sink sink, SessionSettings settings, OutboundMetrics metrics) {
+        this.sink = sink;
+        this.settings = settings;
+        this.metrics = metrics;
+    }
+
+    // Enqueue a document frame (init, edit, membership); never dropped short of eviction.
+    public void enqueue(String text) {
+        enqueueFrame(text);
+    }
+
+    // Enqueue a binary document frame.
+    public void enqueue(byte[] frame) {
+        enqueueFrame(frame);
+    }
+
+    // Enqueue a presence frame; returns false if it was dropped because the consumer is lagging.
+    public boolean enqueuePresence(String text) {
+        return enqueuePresenceFrame(text);
+    }
+
+    // Enqueue a binary presence frame.
+    public boolean enqueuePresence(byte[] frame) {
+        return enqueuePresenceFrame(frame);
+    }
+
+    private void enqueueFrame(Object frame) {
+        if (evicted || closing) return;
+        offer(frame);
+    }
+
+    private boolean enqueuePresenceFrame(Object frame) {
+        if (evicted || closing) return true;
+        if (depth.get() >= settings.presenceHighWater()) {
+            metrics.presenceDropped();
+            return false;
+        }
+        offer(frame);
+        return true;
+    }
+
+    // Is presence stale.
+    public boolean isPresenceStale() {
+        return presenceStale;
+    }
+
+    void markPresenceStale() {
+        presenceStale = true;
+    }
+
+    void markPresenceFresh() {
+        presenceStale = false;
+    }
+
+    // Depth.
+    public int depth() {
+        return depth.get();
+    }
+
+    // Stop accepting frames and close the connection once everything already queued is written.
+    public void closeWhenDrained() {
+        closing = true;
+        if (sending.compareAndSet(false, true)) {
+            drain();
+        }
+    }
+
+    // Is open: still accepting frames for a connected peer.
+    public boolean isOpen() {
+        return !evicted && !closing && sink.isOpen();
+    }
+
+    // Is evicted.
+    public boolean isEvicted() {
+        return evicted;
+    }
+
+    private void offer(Object frame) {
+        queue.add(frame);
+        if (depth.incrementAndGet() > settings.maxQueuedFrames()) {
+            evict();
+            return;
+        }
+        if (sending.compareAndSet(false, true)) {
+            drain();
+        }
+    }
+
+    // Writes frames until the queue is empty or a send completes asynchronously.
+    private void drain() {
+        while (true) {
+            if (evicted) return;
+
+            Object frame = queue.poll();
+            if (frame == null) {
+                if (closing) {
+                    closeSink();
+                    return;
+                }
+                sending.set(false);
+                // Re-check: a producer may have enqueued after the poll but before the flag cleared
+                if (queue.isEmpty() || !sending.compareAndSet(false, true)) return;
+                continue;
+            }
+            depth.decrementAndGet();
+
+            CompletableFuture<Void> sent;
+            try {
+                sent = (frame instanceof byte[] bytes ? sink.send(bytes) : sink.send((String) frame)).toCompletableFuture();
+            } catch (RuntimeException e) {
+                onSendFailure(e);
+                return;
+            }
+            metrics.frameSent();
+
+            if (sent.isDone() && !sent.isCompletedExceptionally()) continue;
+            sent.whenComplete((ok, err) -> {
+                if (err != null) onSendFailure(err);
+                else drain();
+            });
+            return;
+        }
+    }
+
+    private void onSendFailure(Throwable t) {
+        LOG.warnf(t, "Outbound send failed, closing connection");
+        evict();
+    }
+
+    private void evict() {
+        if (evicted) return;
+        evicted = true;
+        metrics.evicted();
+        queue.clear();
+        depth.set(0);
+        closeSink();
+    }
+
+    private void closeSink() {
+        try {
+            sink.close();
+        } catch (RuntimeException ignored) {}
+    }
+}
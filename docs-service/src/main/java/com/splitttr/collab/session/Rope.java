@@ -0,0 +1,332 @@
+package com.splitttr.collab.session;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// Immutable, height-balanced rope used as the in-memory document buffer.
+// Edits return a new rope that shares all untouched leaves with the old one, so an
+// insert/delete/replace costs O(log n) instead of copying the whole document.
+public final class Rope {
+
+    // Leaves are merged up to this size so typing does not degrade into one node per char.
+    static final int MAX_LEAF = 512;
+
+    private static final Rope EMPTY = new Rope(new Leaf(""));
+
+    // Rough per-object costs used by estimatedBytes(); a 64-bit JVM with compressed oops.
+    private static final int STRING_OVERHEAD = 24 + 16;
+    private static final int LEAF_OVERHEAD = 16;
+    private static final int BRANCH_OVERHEAD = 32;
+
+    // Null while the rope is packed and nobody has read it yet
+    private Node root;
+
+    // Deflated UTF-16 chars of a packed rope; dropped once the tree is rebuilt
+    private byte[] packed;
+    private final int packedLength;
+
+    // Materialized text, computed lazily and only once per rope instance.
+    private String flat;
+
+    private Rope(Node root) {
+        this.root = root;
+        this.packed = null;
+        this.packedLength = root.length();
+    }
+
+    private Rope(byte[] packed, int length) {
+        this.packed = packed;
+        this.packedLength = length;
+    }
+
+    // Empty.
+    public static Rope empty() {
+        return EMPTY;
+    }
+
+    // Of.
+    public static Rope of(String text) {
+        if (text == null || text.isEmpty()) return EMPTY;
+        return new Rope(build(text, 0, text.length()));
+    }
+
+    // Length.
+    public int length() {
+        return packedLength;
+    }
+
+    // Same text held deflated until it is next read; for documents nobody is editing.
+    // The packed copy carries no tree, so an inflated rope compresses again from scratch.
+    public Rope compress() {
+        if (isCompressed() || length() == 0) return this;
+        // Raw chars rather than a charset: encoders replace unpaired surrogates, and the text must come back as it was
+        String text = toString();
+        ByteBuffer chars = ByteBuffer.allocate(2 * text.length());
+        chars.asCharBuffer().put(text);
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(chars.array());
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, text.length() / 4));
+            byte[] chunk = new byte[8192];
+            while (!deflater.finished()) {
+                out.write(chunk, 0, deflater.deflate(chunk));
+            }
+            return new Rope(out.toByteArray(), length());
+        } finally {
+            deflater.end();
+        }
+    }
+
+    // Is compressed: packed and not inflated since.
+    public boolean isCompressed() {
+        return root == null;
+    }
+
+    // Approximate heap held by this rope, counting the cached flat text.
+    public long estimatedBytes() {
+        Node r = root;
+        byte[] p = packed;
+        long bytes = 16;
+        if (p != null) bytes += 16 + p.length;
+        if (r != null) bytes += estimate(r);
+        String s = flat;
+        if (s != null) bytes += STRING_OVERHEAD + 2L * s.length();
+        return bytes;
+    }
+
+    // Char at.
+    public char charAt(int index) {
+        checkIndex(index, length());
+        Node node = node();
+        while (node instanceof Branch b) {
+            if (index < b.left.length()) {
+                node = b.left;
+            } else {
+                index -= b.left.length();
+                node = b.right;
+            }
+        }
+        return ((Leaf) node).text.charAt(index);
+    }
+
+    // Insert.
+    public Rope insert(int position, String text) {
+        checkPosition(position, length());
+        if (text == null || text.isEmpty()) return this;
+        Node[] parts = split(node(), position);
+        return new Rope(join(join(parts[0], build(text, 0, text.length())), parts[1]));
+    }
+
+    // Delete.
+    public Rope delete(int position, int count) {
+        checkRange(position, count, length());
+        if (count == 0) return this;
+        Node[] head = split(node(), position);
+        Node[] tail = split(head[1], count);
+        return new Rope(join(head[0], tail[1]));
+    }
+
+    // Replace.
+    public Rope replace(int position, int deleteCount, String text) {
+        checkRange(position, deleteCount, length());
+        Node[] head = split(node(), position);
+        Node[] tail = split(head[1], deleteCount);
+        Node middle = (text == null || text.isEmpty()) ? EMPTY.root : build(text, 0, text.length());
+        return new Rope(join(join(head[0], middle), tail[1]));
+    }
+
+    // Substring.
+    public String substring(int start, int end) {
+        checkRange(start, end - start, length());
+        if (flat != null) return flat.substring(start, end);
+        StringBuilder sb = new StringBuilder(end - start);
+        appendRange(node(), start, end, sb);
+        return sb.toString();
+    }
+
+    // Depth.
+    int depth() {
+        return node().depth();
+    }
+
+    @Override
+    public String toString() {
+        String s = flat;
+        if (s == null) {
+            StringBuilder sb = new StringBuilder(length());
+            appendRange(node(), 0, length(), sb);
+            s = sb.toString();
+            flat = s;
+        }
+        return s;
+    }
+
+    // Tree of a packed rope is rebuilt on first read.
+    private Node node() {
+        Node r = root;
+        return r != null ? r : unpack();
+    }
+
+    // Racing readers wait for the first to inflate, then the packed bytes are let go.
+    private synchronized Node unpack() {
+        if (root == null) {
+            root = Rope.of(inflate(packed, packedLength)).root;
+            packed = null;
+        }
+        return root;
+    }
+
+    private static String inflate(byte[] packed, int length) {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(packed);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(2 * length);
+            byte[] chunk = new byte[8192];
+            while (!inflater.finished()) {
+                int n = inflater.inflate(chunk);
+                if (n == 0 && inflater.needsInput()) break;
+                out.write(chunk, 0, n);
+            }
+            if (out.size() != 2 * length) throw new IllegalStateException("Packed rope is truncated");
+            return ByteBuffer.wrap(out.toByteArray()).asCharBuffer().toString();
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Corrupt packed rope", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    // ---- tree ----
+
+    private sealed interface Node permits Leaf, Branch {
+        int length();
+        int depth();
+    }
+
+    private record Leaf(String text) implements Node {
+        public int length() { return text.length(); }
+        public int depth() { return 0; }
+    }
+
+    private record Branch(Node left, Node right, int length, int depth) implements Node {
+        Branch(Node left, Node right) {
+            this(left, right, left.length() + right.length(), Math.max(left.depth(), right.depth()) + 1);
+        }
+    }
+
+    private static Node build(String text, int start, int end) {
+        int len = end - start;
+        if (len <= MAX_LEAF) return new Leaf(text.substring(start, end));
+        int mid = start + len / 2;
+        return new Branch(build(text, start, mid), build(text, mid, end));
+    }
+
+    // Splits a node into [0, index) and [index, length) as two balanced trees.
+    private static Node[] split(Node node, int index) {
+        if (index == 0) return new Node[] { EMPTY.root, node };
+        if (index == node.length()) return new Node[] { node, EMPTY.root };
+        if (node instanceof Leaf leaf) {
+            return new Node[] { new Leaf(leaf.text.substring(0, index)), new Leaf(leaf.text.substring(index)) };
+        }
+        Branch b = (Branch) node;
+        int leftLen = b.left.length();
+        if (index < leftLen) {
+            Node[] parts = split(b.left, index);
+            return new Node[] { parts[0], join(parts[1], b.right) };
+        }
+        if (index > leftLen) {
+            Node[] parts = split(b.right, index - leftLen);
+            return new Node[] { join(b.left, parts[0]), parts[1] };
+        }
+        return new Node[] { b.left, b.right };
+    }
+
+    // AVL join: concatenates two balanced trees of arbitrary heights in O(|h1 - h2|).
+    private static Node join(Node left, Node right) {
+        if (left.length() == 0) return right;
+        if (right.length() == 0) return left;
+        if (left instanceof Leaf l && right instanceof Leaf r && l.length() + r.length() <= MAX_LEAF) {
+            return new Leaf(l.text + r.text);
+        }
+        if (left.depth() > right.depth() + 1) {
+            Branch b = (Branch) left;
+            return balance(b.left, join(b.right, right));
+        }
+        if (right.depth() > left.depth() + 1) {
+            Branch b = (Branch) right;
+            return balance(join(left, b.left), b.right);
+        }
+        // Small neighbouring leaves are merged across the seam to keep typing from fragmenting the tree.
+        if (left instanceof Branch lb && lb.right instanceof Leaf lr && right instanceof Leaf r
+                && lr.length() + r.length() <= MAX_LEAF) {
+            return balance(lb.left, new Leaf(lr.text + r.text));
+        }
+        if (right instanceof Branch rb && rb.left instanceof Leaf rl && left instanceof Leaf l
+                && l.length() + rl.length() <= MAX_LEAF) {
+            return balance(new Leaf(l.text + rl.text), rb.right);
+        }
+        return new Branch(left, right);
+    }
+
+    // Builds a branch, rotating once or twice when the children differ in height by two.
+    private static Node balance(Node left, Node right) {
+        int diff = left.depth() - right.depth();
+        if (diff > 1) {
+            Branch l = (Branch) left;
+            if (l.left.depth() >= l.right.depth()) {
+                return new Branch(l.left, new Branch(l.right, right));
+            }
+            Branch lr = (Branch) l.right;
+            return new Branch(new Branch(l.left, lr.left), new Branch(lr.right, right));
+        }
+        if (diff < -1) {
+            Branch r = (Branch) right;
+            if (r.right.depth() >= r.left.depth()) {
+                return new Branch(new Branch(left, r.left), r.right);
+            }
+            Branch rl = (Branch) r.left;
+            return new Branch(new Branch(left, rl.left), new Branch(rl.right, r.right));
+        }
+        return new Branch(left, right);
+    }
+
+    private static long estimate(Node node) {
+        if (node instanceof Leaf leaf) return LEAF_OVERHEAD + STRING_OVERHEAD + 2L * leaf.length();
+        Branch b = (Branch) node;
+        return BRANCH_OVERHEAD + estimate(b.left) + estimate(b.right);
+    }
+
+    private static void appendRange(Node node, int start, int end, StringBuilder sb) {
+        if (start >= end) return;
+        if (node instanceof Leaf leaf) {
+            sb.append(leaf.text, start, end);
+            return;
+        }
+        Branch b = (Branch) node;
+        int leftLen = b.left.length();
+        if (start < leftLen) appendRange(b.left, start, Math.min(end, leftLen), sb);
+        if (end > leftLen) appendRange(b.right, Math.max(start - leftLen, 0), end - leftLen, sb);
+    }
+
+    private static void checkIndex(int index, int length) {
+        if (index < 0 || index >= length) {
+            throw new IndexOutOfBoundsException("index " + index + ", length " + length);
+        }
+    }
+
+    private static void checkPosition(int position, int length) {
+        if (position < 0 || position > length) {
+            throw new IndexOutOfBoundsException("position " + position + ", length " + length);
+        }
+    }
+
+    private static void checkRange(int position, int count, int length) {
+        if (position < 0 || count < 0 || position > length - count) {
+            throw new IndexOutOfBoundsException("range [" + position + ", " + (position + count) + "), length " + length);
+        }
+    }
+}
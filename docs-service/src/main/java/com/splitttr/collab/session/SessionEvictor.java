@@ -0,0 +1,94 @@
+package com.splitttr.collab.session;
+
+import io.quarkus.scheduler.Scheduled;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+// Keeps open sessions within a heap budget.
+// Each sweep drops users whose connection died without a leave, evicts sessions nobody has been
+// in for the idle timeout, and deflates the content of sessions nobody has edited for a while.
+// Over budget, least recently used sessions are compressed and empty ones evicted early;
+// sessions with connected users are never evicted, only compressed.
+@ApplicationScoped
+public class SessionEvictor {
+
+    private static final Logger LOG = Logger.getLogger(SessionEvictor.class);
+
+    @Inject
+    SessionManager sessionManager;
+
+    @ConfigProperty(name = "collab.sessions.max-heap-bytes", defaultValue = "268435456")
+    long maxHeapBytes;
+
+    @ConfigProperty(name = "collab.sessions.idle-timeout", defaultValue = "60s")
+    Duration idleTimeout;
+
+    @ConfigProperty(name = "collab.sessions.cold-after", defaultValue = "2m")
+    Duration coldAfter;
+
+    @Scheduled(every = "{collab.sessions.sweep-interval}", concurrentExecution = Scheduled.ConcurrentExecution.SKIP)
+    // Sweep.
+    void sweep() {
+        long idleNanos = idleTimeout.toNanos();
+        long coldNanos = coldAfter.toNanos();
+
+        List<DocumentSession> sessions = new ArrayList<>(sessionManager.getSessions());
+        for (DocumentSession session : sessions) {
+            session.submitMaintenance(() -> {
+                if (session.isClosed()) return;
+                session.removeClosedUsers();
+
+                long idle = session.idleNanos();
+                if (session.isEmpty() && idle >= idleNanos) {
+                    sessionManager.removeSessionIfEmpty(session.getDocumentId());
+                } else if (idle >= coldNanos) {
+                    session.compress();
+                }
+            });
+        }
+
+        enforceBudget(sessions);
+    }
+
+    // Compress or evict least recently used sessions until the estimate fits the budget.
+    private void enforceBudget(List<DocumentSession> sessions) {
+        long total = 0;
+        for (DocumentSession session : sessions) total += session.estimatedBytes();
+        if (total <= maxHeapBytes) return;
+
+        sessions.sort(Comparator.comparingLong(DocumentSession::idleNanos).reversed());
+        for (DocumentSession session : sessions) {
+            if (total <= maxHeapBytes) return;
+            long bytes = session.estimatedBytes();
+            if (session.isEmpty()) {
+                session.submitMaintenance(() -> sessionManager.removeSessionIfEmpty(session.getDocumentId()));
+                total -= bytes;
+            } else if (!session.isCompressed() && !session.isDirty()) {
+                session.submitMaintenance(session::compress);
+                // Text deflates to a fraction of its in-memory size; count most of it as freed
+                total -= bytes * 3 / 4;
+            }
+        }
+        LOG.warnf("Open sessions estimated at %d bytes, above the budget of %d; nothing left to compress or evict",
+            total, maxHeapBytes);
+    }
+
+    // Estimated heap held by all open sessions.
+    public long totalBytes() {
+        long total = 0;
+        for (DocumentSession session : sessionManager.getSessions()) total += session.estimatedBytes();
+        return total;
+    }
+
+    // Retrieve get max heap bytes.
+    public long getMaxHeapBytes() {
+        return maxHeapBytes;
+    }
+}
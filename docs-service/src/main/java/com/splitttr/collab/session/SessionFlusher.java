@@ -0,0 +1,114 @@
+package com.splitttr.collab.session;
+
+import io.quarkus.runtime.ShutdownEvent;
+import io.quarkus.scheduler.Scheduled;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+// Write-behind persistence for live sessions.
+// Edits only mark a session dirty; the content is written to the document store on a timer,
+// early once enough edits or characters pile up, when the last user leaves, and on shutdown, when
+// every session is drained: its clients are sent elsewhere and it is flushed, several at a time.
+@ApplicationScoped
+public class SessionFlusher {
+
+    private static final Logger LOG = Logger.getLogger(SessionFlusher.class);
+
+    @Inject
+    SessionManager sessionManager;
+
+    @ConfigProperty(name = "collab.persist.max-edits", defaultValue = "200")
+    long maxEdits;
+
+    @ConfigProperty(name = "collab.persist.max-chars", defaultValue = "16384")
+    long maxChars;
+
+    @ConfigProperty(name = "collab.shutdown.flush-parallelism", defaultValue = "8")
+    int shutdownParallelism;
+
+    @ConfigProperty(name = "collab.shutdown.timeout", defaultValue = "20s")
+    Duration shutdownTimeout;
+
+    @ConfigProperty(name = "collab.shutdown.session-timeout", defaultValue = "5s")
+    Duration sessionTimeout;
+
+    private final ExecutorService flushExecutor = Executors.newVirtualThreadPerTaskExecutor();
+
+    // Called after an edit is applied; flushes ahead of the timer once a threshold is crossed.
+    public void onEdit(DocumentSession session) {
+        if (session.unpersistedEdits() >= maxEdits || session.unpersistedChars() >= maxChars) {
+            flushAsync(session);
+        }
+    }
+
+    @Scheduled(every = "{collab.persist.interval}", concurrentExecution = Scheduled.ConcurrentExecution.SKIP)
+    // Flush dirty sessions.
+    void flushDirtySessions() {
+        for (DocumentSession session : sessionManager.getSessions()) {
+            if (session.isDirty()) {
+                flushAsync(session);
+            }
+        }
+    }
+
+    private void flushAsync(DocumentSession session) {
+        // A flush already in flight will be followed by the next tick; don't pile up waiters
+        if (session.flushLock().isLocked()) return;
+        flushExecutor.execute(() -> sessionManager.tryPersistSession(session));
+    }
+
+    // On shutdown: turn joins away, then drain every loaded session, at most shutdown-parallelism at a
+    // time. A session gets session-timeout before its slot goes to the next one, and sessions still
+    // draining at the overall deadline are abandoned; with the write-ahead log enabled their edits
+    // are replayed on the next start. Sessions still loading have no edits and are not waited for.
+    void onShutdown(@Observes ShutdownEvent event) {
+        sessionManager.beginDrain();
+        List<Callable<Boolean>> drains = sessionManager.getSessions().stream()
+            .filter(session -> !session.isLoading())
+            .<Callable<Boolean>>map(session -> () -> sessionManager.drainSession(session, sessionTimeout))
+            .toList();
+
+        int flushed = 0, timedOut = 0;
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, shutdownParallelism),
+            Thread.ofVirtual().name("collab-drain-", 0).factory());
+        try {
+            for (Future<Boolean> drain : pool.invokeAll(drains, shutdownTimeout.toMillis(), TimeUnit.MILLISECONDS)) {
+                switch (drain.state()) {
+                    case SUCCESS -> { if (drain.resultNow()) flushed++; }
+                    case CANCELLED -> timedOut++;
+                    case FAILED -> { if (drain.exceptionNow() instanceof TimeoutException) timedOut++; }
+                    default -> {}
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            pool.shutdownNow();
+        }
+
+        long dirty = sessionManager.getSessions().stream().filter(DocumentSession::isDirty).count();
+        LOG.infof("Flushed %d dirty sessions on shutdown (%d open)", flushed, drains.size());
+        if (dirty > 0) {
+            LOG.errorf("%d sessions left unsaved on shutdown (%d past the deadline)", dirty, timedOut);
+        }
+    }
+
+    @PreDestroy
+    // Shutdown.
+    void shutdown() {
+        flushExecutor.shutdown();
+    }
+}
@@ -0,0 +1,33 @@
+package com.splitttr.collab.session;
+
+import com.splitttr.collab.message.EditOperation;
+
+// Receives every state change of every session, in order per document, so it can be made durable
+// before the write-behind flush reaches the document store.
+public interface SessionJournal {
+
+    // Journal that records nothing.
+    SessionJournal NONE = new SessionJournal() {
+        @Override public void opened(String documentId, long version, long remoteVersion) {}
+        @Override public void applied(String documentId, long version, EditOperation op) {}
+        @Override public void flushing(String documentId, long upToVersion, long expectedRemoteVersion) {}
+        @Override public void persisted(String documentId, long version, long remoteVersion) {}
+        @Override public void closed(String documentId) {}
+    };
+
+    // Session state was (re)loaded: local version and the store's version for the same content.
+    void opened(String documentId, long version, long remoteVersion);
+
+    // An op was applied and assigned this local version.
+    void applied(String documentId, long version, EditOperation op);
+
+    // A flush of everything up to this local version is about to be sent to the store, which will be at
+    // expectedRemoteVersion once it lands (-1 if that cannot be known up front).
+    void flushing(String documentId, long upToVersion, long expectedRemoteVersion);
+
+    // The store confirmed everything up to this local version under its remoteVersion.
+    void persisted(String documentId, long version, long remoteVersion);
+
+    // The session was dropped from memory.
+    void closed(String documentId);
+}
@@ -1,37 +1,233 @@
 package com.splitttr.collab.session;
 
 import com.splitttr.collab.client.DocumentClient;
+import com.splitttr.collab.cluster.ClusterMembership;
+import com.splitttr.collab.client.DocumentUpdateRequest;
+import com.splitttr.collab.client.OperationAppendRequest;
+import com.splitttr.collab.client.OperationAppendResponse;
+import com.splitttr.collab.message.EditOperation;
+import com.splitttr.collab.message.ServerMessage;
+import com.splitttr.collab.metrics.CollabMetrics;
+import com.splitttr.collab.wal.WriteAheadLog;
+import io.quarkus.runtime.StartupEvent;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
 import jakarta.inject.Inject;
+import jakarta.ws.rs.WebApplicationException;
+import jakarta.ws.rs.core.Response;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
 import org.eclipse.microprofile.rest.client.inject.RestClient;
+import org.jboss.logging.Logger;
 
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 // SessionManager.
 @ApplicationScoped
 public class SessionManager {
 
+    private static final Logger LOG = Logger.getLogger(SessionManager.class);
+
     private final ConcurrentHashMap<String, DocumentSession> sessions = new ConcurrentHashMap<>();
 
+    // Shared carrier for the per-document sequencers; each drain runs on its own virtual thread
+    private final ExecutorService sequencerExecutor = Executors.newVirtualThreadPerTaskExecutor();
+
+    // Fires short per-session ticks; tick tasks only hand work back to the session's sequencer
+    private final ScheduledExecutorService tickExecutor = Executors.newSingleThreadScheduledExecutor(
+        r -> Thread.ofPlatform().name("collab-tick").daemon().unstarted(r));
+
+    private final OutboundMetrics outboundMetrics = new OutboundMetrics();
+    private SessionRuntime runtime;
+
+    // Set once shutdown starts; joins are turned away from then on
+    private volatile boolean draining;
+
+    // Documents whose id starts with one of these run on the CRDT engine
+    private List<String> crdtPrefixes = List.of();
+
+    // Local durability for edits not yet in the document store; null when disabled
+    private WriteAheadLog wal;
+    private ScheduledExecutorService walSyncExecutor;
+
+    @ConfigProperty(name = "collab.outbound.presence-high-water", defaultValue = "64")
+    int presenceHighWater;
+
+    @ConfigProperty(name = "collab.outbound.max-queued-frames", defaultValue = "1024")
+    int maxQueuedFrames;
+
+    @ConfigProperty(name = "collab.history.capacity", defaultValue = "1024")
+    int historyCapacity;
+
+    @ConfigProperty(name = "collab.presence.interval-ms", defaultValue = "50")
+    long presenceIntervalMillis;
+
+    @ConfigProperty(name = "collab.edits.batch-window-ms", defaultValue = "10")
+    long editBatchWindowMillis;
+
+    @ConfigProperty(name = "collab.viewers.interval-ms", defaultValue = "500")
+    long viewerIntervalMillis;
+
+    @ConfigProperty(name = "collab.viewers.max-digest-ops", defaultValue = "1000")
+    int viewerMaxDigestOps;
+
+    @ConfigProperty(name = "collab.crdt.document-prefixes")
+    Optional<String> crdtDocumentPrefixes;
+
+    @ConfigProperty(name = "collab.wal.enabled", defaultValue = "true")
+    boolean walEnabled;
+
+    @ConfigProperty(name = "collab.wal.dir", defaultValue = "data/wal")
+    String walDir;
+
+    @ConfigProperty(name = "collab.wal.segment-bytes", defaultValue = "67108864")
+    int walSegmentBytes;
+
+    @ConfigProperty(name = "collab.wal.sync-interval-ms", defaultValue = "10")
+    long walSyncIntervalMillis;
+
+    @ConfigProperty(name = "collab.sessions.load-timeout", defaultValue = "10s")
+    Duration loadTimeout;
+
+    @ConfigProperty(name = "collab.shutdown.reconnect-url")
+    Optional<String> shutdownReconnectUrl;
+
     @Inject
     @RestClient
     DocumentClient documentClient;
 
-    // Retrieve get or create session.
-    public DocumentSession getOrCreateSession(String documentId) {
-        return sessions.computeIfAbsent(documentId, id -> {
-            var session = new DocumentSession(id);
+    @Inject
+    ClusterMembership clusterMembership;
 
-            // Load initial content from document-service
+    @Inject
+    CollabMetrics collabMetrics;
+
+    @PostConstruct
+    // Init.
+    void init() {
+        var settings = new SessionSettings(presenceHighWater, maxQueuedFrames, historyCapacity,
+            presenceIntervalMillis, editBatchWindowMillis, viewerIntervalMillis, viewerMaxDigestOps);
+        crdtPrefixes = Arrays.stream(crdtDocumentPrefixes.orElse("").split(","))
+            .map(String::trim).filter(p -> !p.isEmpty()).toList();
+        SessionJournal journal = SessionJournal.NONE;
+        if (walEnabled) {
+            wal = WriteAheadLog.open(Path.of(walDir), walSegmentBytes);
+            journal = wal;
+            // Group fsync: one force covers every op appended since the previous one
+            walSyncExecutor = Executors.newSingleThreadScheduledExecutor(
+                r -> Thread.ofPlatform().name("collab-wal-sync").daemon().unstarted(r));
+            walSyncExecutor.scheduleWithFixedDelay(this::syncWal, walSyncIntervalMillis, walSyncIntervalMillis,
+                TimeUnit.MILLISECONDS);
+        }
+        runtime = new SessionRuntime(
+            sequencerExecutor,
+            (task, delayMillis) -> tickExecutor.schedule(task, delayMillis, TimeUnit.MILLISECONDS),
+            settings,
+            outboundMetrics,
+            journal,
+            collabMetrics
+        );
+        clusterMembership.onChange(this::handOffMovedSessions);
+    }
+
+    // Rebuild sessions whose edits never reached the store before the last shutdown or crash.
+    void onStart(@Observes StartupEvent event) {
+        if (wal == null || wal.recovered().isEmpty()) return;
+
+        int restored = 0;
+        boolean complete = true;
+        for (WriteAheadLog.Recovery recovery : wal.recovered().values()) {
+            String id = recovery.documentId();
             try {
                 var doc = documentClient.getById(id);
-                session.initContent(doc.content(), doc.version());
+                long base = recovery.baseFor(doc.version());
+                if (base < 0) {
+                    LOG.warnf("Document %s changed outside this node; dropping %d logged ops", id, recovery.ops().size());
+                    collabMetrics.sessionError("wal-conflict");
+                    continue;
+                }
+
+                var session = new DocumentSession(id, runtime);
+                selectEngine(session);
+                session.restore(doc.content(), base, doc.version());
+                for (EditOperation op : recovery.opsAfter(base)) {
+                    session.applyEdit(op);
+                }
+                // Keep it for the flusher to retry if the store is not taking writes yet
+                if (!persistSession(session) && session.isDirty()) sessions.putIfAbsent(id, session);
+                else session.close();
+                restored++;
             } catch (Exception e) {
-                session.initContent("", 0);
+                // Keep the old segments so the next start can try again
+                complete = false;
+                LOG.errorf(e, "Failed to replay WAL for document %s", id);
+                collabMetrics.sessionError("wal-replay");
             }
+        }
+        if (complete) wal.discardRecovered();
+        LOG.infof("Replayed WAL for %d documents", restored);
+    }
 
-            return session;
-        });
+    private void syncWal() {
+        try {
+            wal.sync();
+            wal.prepareSegment();
+        } catch (Exception e) {
+            LOG.error("WAL sync failed", e);
+            collabMetrics.sessionError("wal-sync");
+        }
+    }
+
+    // Session for the document, starting a load if there is none. Never blocks: tasks submitted to a
+    // session that is still loading wait on its sequencer, and concurrent joiners share one load.
+    public DocumentSession getOrCreateSession(String documentId) {
+        DocumentSession session = sessions.get(documentId);
+        if (session != null) return session;
+
+        var created = DocumentSession.loading(documentId, runtime);
+        selectEngine(created);
+        session = sessions.putIfAbsent(documentId, created);
+        if (session != null) return session;
+
+        load(created);
+        return created;
+    }
+
+    // Documents listed in collab.crdt.document-prefixes resolve ops with the CRDT engine, as this node's replica.
+    private void selectEngine(DocumentSession session) {
+        String id = session.getDocumentId();
+        if (crdtPrefixes.stream().anyMatch(id::startsWith)) session.useCrdt(clusterMembership.getSelf());
+    }
+
+    // Fetch initial content from document-service; on failure the session is dropped so the next join retries.
+    private void load(DocumentSession session) {
+        String id = session.getDocumentId();
+        documentClient.getByIdAsync(id)
+            .ifNoItem().after(loadTimeout).fail()
+            // Off the IO thread: loading logs the session to the WAL
+            .emitOn(sequencerExecutor)
+            .subscribe().with(
+                doc -> session.loaded(doc.content(), doc.version()),
+                err -> {
+                    LOG.warnf(err, "Failed to load document %s", id);
+                    collabMetrics.sessionError("load");
+                    sessions.remove(id, session);
+                    session.loadFailed(err);
+                });
     }
 
     // Retrieve get session.
@@ -39,26 +235,196 @@ public class SessionManager {
         return sessions.get(documentId);
     }
 
-    // Delete remove session if empty.
+    // Retrieve get sessions.
+    public Collection<DocumentSession> getSessions() {
+        return sessions.values();
+    }
+
+    // Delete remove session if empty; call from the session's sequencer so no edit races the close.
     public void removeSessionIfEmpty(String documentId) {
-        sessions.computeIfPresent(documentId, (id, session) -> {
-            if (session.isEmpty()) {
-                // Persist final state before removing
-                persistSession(session, documentId);
-                return null; // removes from map
-            }
-            return session;
-        });
+        DocumentSession session = sessions.get(documentId);
+        if (session == null || !session.isEmpty()) return;
+        // Persist final state before removing; outside any map operation, as the store call blocks
+        persistSession(session);
+        // A session the store did not take stays until the evictor's next attempt
+        if (!session.isEmpty() || session.isDirty()) return;
+        if (sessions.remove(documentId, session)) session.close();
+    }
+
+    // Persist session if it has unsaved edits, waiting for an in-flight flush of the same document.
+    public boolean persistSession(DocumentSession session) {
+        session.flushLock().lock();
+        try {
+            return flush(session);
+        } finally {
+            session.flushLock().unlock();
+        }
     }
 
-    // Persist session.
-    public void persistSession(DocumentSession session, String documentId) {
+    // Persist session unless another flush of it is already running.
+    public boolean tryPersistSession(DocumentSession session) {
+        if (!session.flushLock().tryLock()) return false;
         try {
-            documentClient.update(documentId,
-                new com.splitttr.collab.client.DocumentUpdateRequest(null, session.getContent()));
+            return flush(session);
+        } finally {
+            session.flushLock().unlock();
+        }
+    }
+
+    private boolean flush(DocumentSession session) {
+        if (!session.isDirty()) return false;
+
+        var snapshot = session.snapshot();
+        long started = System.nanoTime();
+        try {
+            long storeVersion = session.getRemoteVersion();
+            long remoteVersion = -1;
+            var ops = session.unpersistedOps(snapshot);
+            if (ops != null) {
+                try {
+                    remoteVersion = appendOps(session, snapshot, ops);
+                } catch (WebApplicationException e) {
+                    if (e.getResponse() == null || e.getResponse().getStatus() != Response.Status.CONFLICT.getStatusCode()) throw e;
+                    // Someone saved the document outside this session; our content wins as a full save
+                    storeVersion = conflictVersion(e);
+                }
+            }
+            boolean delta = remoteVersion >= 0;
+            if (!delta) {
+                // A content save moves the store one version on from where it stands
+                session.markFlushing(snapshot, storeVersion < 0 ? -1 : storeVersion + 1);
+                var doc = documentClient.update(session.getDocumentId(),
+                    new DocumentUpdateRequest(null, snapshot.content().toString()));
+                remoteVersion = doc.version();
+            }
+            session.markPersisted(snapshot, remoteVersion);
+            collabMetrics.flushed(delta, System.nanoTime() - started);
+            return true;
         } catch (Exception e) {
-            // Log error, maybe retry later
-            System.err.println("Failed to persist document: " + e.getMessage());
+            // Stays dirty; the next flush retries with whatever is newest by then
+            collabMetrics.flushFailed();
+            LOG.warnf(e, "Failed to persist document %s", session.getDocumentId());
+            return false;
+        }
+    }
+
+    // Ship only the ops since the last persist; returns the store's new version. A 409 means the store moved on.
+    private long appendOps(DocumentSession session, DocumentSession.Snapshot snapshot, List<EditOperation> ops) {
+        // Edits that cancelled out leave the stored content as it is
+        if (ops.isEmpty()) return session.getRemoteVersion();
+        session.markFlushing(snapshot, session.getRemoteVersion() + ops.size());
+        var res = documentClient.appendOps(session.getDocumentId(),
+            new OperationAppendRequest(session.getRemoteVersion(), ops));
+        return res.version();
+    }
+
+    // Store version a 409 reported, or -1 if the body did not say.
+    private static long conflictVersion(WebApplicationException e) {
+        try {
+            var body = e.getResponse().readEntity(OperationAppendResponse.class);
+            return body == null ? -1 : body.version();
+        } catch (RuntimeException unreadable) {
+            return -1;
+        }
+    }
+
+    // After a membership change, hand every session this node no longer owns to its new owner.
+    void handOffMovedSessions() {
+        for (DocumentSession session : sessions.values()) {
+            if (!clusterMembership.isLocal(session.getDocumentId())) {
+                session.submit(() -> handOff(session));
+            }
+        }
+    }
+
+    // Persist the session, then point its users at the owner and drop it; runs on the session's sequencer.
+    private void handOff(DocumentSession session) {
+        String documentId = session.getDocumentId();
+        if (session.isClosed() || clusterMembership.isLocal(documentId)) return;
+
+        persistSession(session);
+        if (session.isDirty()) {
+            // The new owner loads from the store, so keep the session until its edits are saved
+            LOG.warnf("Hand-off of %s delayed: unsaved edits", documentId);
+            tickExecutor.schedule(() -> session.submit(() -> handOff(session)), 1, TimeUnit.SECONDS);
+            return;
+        }
+
+        session.disconnectAll(ServerMessage.redirect(documentId, clusterMembership.socketUrl(documentId)));
+        sessions.remove(documentId, session);
+        session.close();
+    }
+
+    // Stop taking joins ahead of shutdown; open sessions are then drained with drainSession.
+    public void beginDrain() {
+        draining = true;
+    }
+
+    // Is draining.
+    public boolean isDraining() {
+        return draining;
+    }
+
+    // Frame telling a document's clients where to go when this node stops: the node that owns the
+    // document without this one, else collab.shutdown.reconnect-url, else an error before the close.
+    public ServerMessage reconnectMessage(String documentId) {
+        String successor = clusterMembership.successorUrl(documentId);
+        if (successor != null) return ServerMessage.redirect(documentId, successor);
+        return shutdownReconnectUrl.map(url -> ServerMessage.redirect(documentId, url))
+            .orElseGet(() -> ServerMessage.error("Server is shutting down"));
+    }
+
+    // Send a session's clients elsewhere, then persist it; blocks until both are done or the timeout
+    // passes. The flush is queued on the sequencer once the clients are gone, behind the edits they sent
+    // before the redirect reached them, so the snapshot has those too. A session still loading has
+    // nothing to save and is skipped.
+    public boolean drainSession(DocumentSession session, Duration timeout)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        if (session.isLoading()) return false;
+        var drained = new CompletableFuture<Boolean>();
+        session.submit(() -> {
+            try {
+                if (session.isClosed()) {
+                    drained.complete(false);
+                    return;
+                }
+                session.disconnectAll(reconnectMessage(session.getDocumentId()));
+                session.submitMaintenance(() -> {
+                    try {
+                        drained.complete(persistSession(session));
+                    } catch (RuntimeException e) {
+                        drained.completeExceptionally(e);
+                    }
+                });
+            } catch (RuntimeException e) {
+                drained.completeExceptionally(e);
+            }
+        });
+        return drained.get(timeout.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    // Retrieve get outbound metrics.
+    public OutboundMetrics getOutboundMetrics() {
+        return outboundMetrics;
+    }
+
+    // Frames queued for delivery across every session.
+    public int queuedFrames() {
+        int total = 0;
+        for (DocumentSession session : sessions.values()) {
+            total += session.queuedFrames();
+        }
+        return total;
+    }
+
+    @PreDestroy
+    // Shutdown.
+    void shutdown() {
+        tickExecutor.shutdownNow();
+        sequencerExecutor.shutdown();
+        if (wal != null) {
+            walSyncExecutor.shutdownNow();
+            wal.close();
         }
     }
-}
\ No newline at end of file
+}
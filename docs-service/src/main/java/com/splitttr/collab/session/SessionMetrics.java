@@ -0,0 +1,14 @@
+package com.splitttr.collab.session;
+
+// Timings reported by sessions; implemented over the metrics registry outside this package.
+public interface SessionMetrics {
+
+    // Metrics that record nothing.
+    SessionMetrics NONE = (kind, recipients, nanos) -> {};
+
+    // A frame of the given kind was serialized and queued for recipients connections.
+    void fannedOut(String kind, int recipients, long nanos);
+
+    // A session failed at stage (task, load, wal-replay, wal-sync, wal-conflict); the cause is logged.
+    default void sessionError(String stage) {}
+}
@@ -0,0 +1,32 @@
+package com.splitttr.collab.session;
+
+import java.util.concurrent.Executor;
+
+// Shared infrastructure handed to every DocumentSession by SessionManager.
+public record SessionRuntime(
+    Executor executor,          // carrier for the per-document sequencers
+    Ticker ticker,              // delays short per-session ticks (presence, batching)
+    SessionSettings settings,
+    OutboundMetrics outboundMetrics,
+    SessionJournal journal,     // durability hook for applied ops; NONE when disabled
+    SessionMetrics metrics      // fan-out timings
+) {
+    public SessionRuntime(Executor executor, Ticker ticker, SessionSettings settings, OutboundMetrics outboundMetrics) {
+        this(executor, ticker, settings, outboundMetrics, SessionJournal.NONE, SessionMetrics.NONE);
+    }
+
+    // Runs a task once after a delay.
+    public interface Ticker {
+        void schedule(Runnable task, long delayMillis);
+    }
+
+    // Everything on the calling thread with default settings; ticks fire immediately.
+    public static SessionRuntime direct() {
+        return direct(SessionSettings.defaults());
+    }
+
+    // Direct.
+    public static SessionRuntime direct(SessionSettings settings) {
+        return new SessionRuntime(Runnable::run, (task, delayMillis) -> task.run(), settings, new OutboundMetrics());
+    }
+}
@@ -0,0 +1,83 @@
+package com.splitttr.collab.session;
+
+import org.jboss.logging.Logger;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Single-writer executor for one document.
+// Any thread may submit (lock-free MPSC inbox); at most one drain runs at a time on the
+// shared delegate, so tasks for a document run strictly in submission order while
+// different documents drain in parallel. A sequencer created held only queues tasks until
+// release(), so work can be accepted before the document it operates on is loaded.
+public class SessionSequencer implements Executor {
+
+    private static final Logger LOG = Logger.getLogger(SessionSequencer.class);
+
+    // Tasks run per drain before yielding the carrier back to other documents.
+    static final int DRAIN_BATCH = 256;
+
+    private final Queue<Runnable> inbox = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private final Executor delegate;
+    private final SessionMetrics metrics;
+    private volatile boolean held;
+
+    public SessionSequencer(Executor delegate) {
+        this(delegate, false, SessionMetrics.NONE);
+    }
+
+    public SessionSequencer(Executor delegate, boolean held) {
+        this(delegate, held, SessionMetrics.NONE);
+    }
+
+    public SessionSequencer(Executor delegate, boolean held, SessionMetrics metrics) {
+        this.delegate = delegate;
+        this.held = held;
+        this.metrics = metrics;
+    }
+
+    @Override
+    // Execute.
+    public void execute(Runnable task) {
+        inbox.add(task);
+        if (!held && scheduled.compareAndSet(false, true)) {
+            delegate.execute(this::drain);
+        }
+    }
+
+    // Start running tasks, including any queued while held.
+    public void release() {
+        held = false;
+        // A producer that saw held before this write left its task for us to schedule
+        if (!inbox.isEmpty() && scheduled.compareAndSet(false, true)) {
+            delegate.execute(this::drain);
+        }
+    }
+
+    // Pending tasks.
+    public int pending() {
+        return inbox.size();
+    }
+
+    private void drain() {
+        for (int i = 0; i < DRAIN_BATCH; i++) {
+            Runnable task = inbox.poll();
+            if (task == null) break;
+            try {
+                task.run();
+            } catch (Throwable t) {
+                LOG.error("Session task failed", t);
+                metrics.sessionError("task");
+            }
+        }
+
+        scheduled.set(false);
+        // A producer may have enqueued after our last poll but before the flag was cleared.
+        if (!inbox.isEmpty() && scheduled.compareAndSet(false, true)) {
+            delegate.execute(this::drain);
+        }
+    }
+}
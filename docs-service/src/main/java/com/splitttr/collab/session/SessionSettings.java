@@ -0,0 +1,22 @@
+package com.splitttr.collab.session;
+
+// Tunables shared by every DocumentSession, resolved from config by SessionManager.
+public record SessionSettings(
+    int presenceHighWater,          // queued frames above which presence frames are dropped
+    int maxQueuedFrames,            // queued frames above which the consumer is disconnected
+    int historyCapacity,            // recent ops kept per document
+    long presenceIntervalMillis,    // cursor moves are batched into one presence frame per interval
+    long editBatchWindowMillis,     // ops applied within this window go out as one frame; 0 sends each at once
+    long viewerIntervalMillis,      // viewers get one digest of the ops applied per interval
+    int viewerMaxDigestOps          // a digest longer than this is replaced by a snapshot of the content
+) {
+    public SessionSettings(int presenceHighWater, int maxQueuedFrames, int historyCapacity,
+                           long presenceIntervalMillis, long editBatchWindowMillis) {
+        this(presenceHighWater, maxQueuedFrames, historyCapacity, presenceIntervalMillis, editBatchWindowMillis, 500, 1000);
+    }
+
+    // Defaults.
+    public static SessionSettings defaults() {
+        return new SessionSettings(64, 1024, 1024, 50, 10);
+    }
+}
@@ -0,0 +1,106 @@
+package com.splitttr.collab.session;
+
+import com.splitttr.collab.message.EditOperation;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Minimal edit ops turning one text into another, for content saved outside the socket.
+// The common prefix and suffix are trimmed and the middle is diffed with Myers' O(ND) algorithm;
+// when the two differ by more than maxEdits inserted or deleted chars the middle becomes one replace,
+// which bounds the time and the trace kept for the backtrack (about maxEdits^2 ints).
+final class TextDiff {
+
+    // A changed span: from[aStart, aEnd) of the middle became to[bStart, bEnd)
+    private record Hunk(int aStart, int aEnd, int bStart, int bEnd) {}
+
+    private TextDiff() {}
+
+    // Ops by userId that, applied in order, turn from into to; empty when the texts are equal.
+    static List<EditOperation> diff(String from, String to, String userId, long clientVersion, int maxEdits) {
+        int prefix = 0;
+        int shorter = Math.min(from.length(), to.length());
+        while (prefix < shorter && from.charAt(prefix) == to.charAt(prefix)) prefix++;
+        int suffix = 0;
+        while (suffix < shorter - prefix
+                && from.charAt(from.length() - 1 - suffix) == to.charAt(to.length() - 1 - suffix)) suffix++;
+
+        String a = from.substring(prefix, from.length() - suffix);
+        String b = to.substring(prefix, to.length() - suffix);
+        if (a.isEmpty() && b.isEmpty()) return List.of();
+
+        List<Hunk> hunks = a.isEmpty() || b.isEmpty() ? null : myers(a, b, maxEdits);
+        if (hunks == null) hunks = List.of(new Hunk(0, a.length(), 0, b.length()));
+
+        List<EditOperation> ops = new ArrayList<>(hunks.size());
+        // Each op applies to the text the ones before it left, so later hunks move by what they changed
+        int shift = prefix;
+        for (Hunk h : hunks) {
+            int deleted = h.aEnd() - h.aStart();
+            String inserted = b.substring(h.bStart(), h.bEnd());
+            String type = deleted == 0 ? "insert" : inserted.isEmpty() ? "delete" : "replace";
+            ops.add(new EditOperation(userId, type, shift + h.aStart(), inserted.isEmpty() ? null : inserted,
+                deleted, clientVersion));
+            shift += inserted.length() - deleted;
+        }
+        return ops;
+    }
+
+    // Changed spans of a shortest edit script from a to b, or null if it takes more than maxEdits steps.
+    private static List<Hunk> myers(String a, String b, int maxEdits) {
+        int n = a.length(), m = b.length();
+        int limit = Math.min(maxEdits, n + m);
+        // trace[d][k + d]: furthest x reached on diagonal k = x - y with d edits
+        int[][] trace = new int[limit + 1][];
+        int[] previous = null;
+        for (int d = 0; d <= limit; d++) {
+            int[] v = new int[2 * d + 1];
+            for (int k = -d; k <= d; k += 2) {
+                int x;
+                if (d == 0) x = 0;
+                else if (k == -d || (k != d && previous[k - 1 + d - 1] < previous[k + 1 + d - 1])) x = previous[k + 1 + d - 1];
+                else x = previous[k - 1 + d - 1] + 1;
+                int y = x - k;
+                while (x < n && y < m && a.charAt(x) == b.charAt(y)) {
+                    x++;
+                    y++;
+                }
+                v[k + d] = x;
+                if (x >= n && y >= m) {
+                    trace[d] = v;
+                    return backtrack(trace, d, n, m);
+                }
+            }
+            trace[d] = v;
+            previous = v;
+        }
+        return null;
+    }
+
+    // Walk the trace back from (n, m), joining edit steps not separated by a match into one hunk.
+    private static List<Hunk> backtrack(int[][] trace, int edits, int n, int m) {
+        List<Hunk> hunks = new ArrayList<>();
+        int x = n, y = m;
+        int aEnd = -1, bEnd = -1;
+        for (int d = edits; d > 0; d--) {
+            int[] prev = trace[d - 1];
+            int k = x - y;
+            boolean down = k == -d || (k != d && prev[k - 1 + d - 1] < prev[k + 1 + d - 1]);
+            int prevK = down ? k + 1 : k - 1;
+            int prevX = prev[prevK + d - 1];
+            int prevY = prevX - prevK;
+            // The step lands here, then matches run diagonally to (x, y)
+            int stepX = down ? prevX : prevX + 1;
+            int stepY = down ? prevY + 1 : prevY;
+            if (stepX != x || stepY != y || aEnd < 0) {
+                if (aEnd >= 0) hunks.add(new Hunk(x, aEnd, y, bEnd));
+                aEnd = stepX;
+                bEnd = stepY;
+            }
+            x = prevX;
+            y = prevY;
+        }
+        if (aEnd >= 0) hunks.add(new Hunk(x, aEnd, y, bEnd));
+        return hunks.reversed();
+    }
+}
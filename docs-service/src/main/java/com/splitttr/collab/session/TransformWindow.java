@@ -0,0 +1,94 @@
+package com.splitttr.collab.session;
+
+import com.splitttr.collab.message.EditOperation;
+
+import java.util.ArrayDeque;
+import java.util.List;
+
+// Ops by others that one pipelining client may not have seen yet, as of the client's own ops.
+// The client sends each op as of the last server version it received; the op is transformed past
+// the entries newer than that, and those entries past the op, so the client's next op lines up too.
+// Holds at most capacity entries; ops sent as of a version older than what was dropped are refused.
+final class TransformWindow {
+
+    // Components of the op that produced version, moved past the client's ops since (mutable)
+    private static final class Entry {
+        final long version;
+        List<EditOperation> ops;
+
+        Entry(long version, List<EditOperation> ops) {
+            this.version = version;
+            this.ops = ops;
+        }
+    }
+
+    private final ArrayDeque<Entry> entries = new ArrayDeque<>();
+    private final int capacity;
+
+    // Oldest version the client may still send ops as of
+    private long floor;
+
+    // Version of the last fresh state sent to the client; ops sent before it arrived are dropped quietly
+    private long resyncedAt = -1;
+
+    TransformWindow(long version, int capacity) {
+        this.capacity = Math.max(capacity, 1);
+        this.floor = version;
+    }
+
+    // Record an op by someone else that produced version.
+    void add(long version, EditOperation op) {
+        entries.addLast(new Entry(version, OpTransform.components(op)));
+        if (entries.size() > capacity) floor = entries.removeFirst().version;
+    }
+
+    // Forget every entry; the client must send its next op as of version or later.
+    void reset(long version) {
+        entries.clear();
+        floor = version;
+    }
+
+    // Reset after the client was sent the state at version.
+    void resynced(long version) {
+        reset(version);
+        resyncedAt = version;
+    }
+
+    // Whether the client sent op before receiving the state it was last resynced to.
+    boolean predatesResync(EditOperation op) {
+        return op.clientVersion() < resyncedAt;
+    }
+
+    // The op moved past everything the client had not seen, as ops to apply now, or null when it
+    // was sent as of a version older than the window reaches back.
+    List<EditOperation> transform(EditOperation op) {
+        long seen = op.clientVersion();
+        if (seen < floor) return null;
+        while (!entries.isEmpty() && entries.peekFirst().version <= seen) entries.removeFirst();
+        // The client has now seen everything up to here; it never goes back
+        floor = seen;
+
+        List<EditOperation> components = OpTransform.components(op);
+        for (Entry entry : entries) {
+            var moved = OpTransform.transform(components, entry.ops);
+            components = moved.a();
+            entry.ops = moved.b();
+        }
+        return OpTransform.merge(components);
+    }
+
+    // Entries held.
+    int size() {
+        return entries.size();
+    }
+
+    // Approximate heap held by the entries.
+    long estimatedBytes() {
+        long bytes = 64;
+        for (Entry entry : entries) {
+            bytes += 48;
+            for (EditOperation op : entry.ops) bytes += 64 + (op.content() == null ? 0 : 2L * op.content().length());
+        }
+        return bytes;
+    }
+}
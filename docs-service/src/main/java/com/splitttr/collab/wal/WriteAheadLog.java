@@ -0,0 +1,552 @@
+package com.splitttr.collab.wal;
+
+import com.splitttr.collab.message.EditOperation;
+import com.splitttr.collab.session.SessionJournal;
+import org.jboss.logging.Logger;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+// Append-only, memory-mapped log of session changes on this node.
+// Records are [length][crc32][payload] followed by a zero length marking the end, so a torn
+// write at the tail is detected and ignored on replay. Appends only touch the mapping; sync()
+// forces everything written since the last sync in one go (group fsync). Every segment starts
+// with a checkpoint per tracked document, so a segment can be deleted once the store has
+// confirmed every op in it, and the active one is rewound when nothing in it is unsaved.
+// File work (creating, mapping and forcing segments) is left to the thread calling sync(), so
+// appends from sequencers never wait on the disk: prepareSegment() opens the segment a roll
+// switches to ahead of time, and a rolled-out segment is forced by the next sync.
+public class WriteAheadLog implements SessionJournal, AutoCloseable {
+
+    private static final Logger LOG = Logger.getLogger(WriteAheadLog.class);
+
+    private static final byte CHECKPOINT = 1;
+    private static final byte OP = 2;
+    private static final byte FLUSHING = 3;
+    private static final byte OPENED = 4;
+
+    private static final int HEADER = 8;
+    private static final String PREFIX = "wal-";
+    private static final String SUFFIX = ".log";
+
+    // An op as it was logged, with the local version it was assigned.
+    public record LoggedOp(long version, EditOperation op) {}
+
+    // What the log knows about one document that still had unsaved ops.
+    // version/remoteVersion: last confirmed flush; flushingUpTo: last flush sent but not confirmed,
+    // and flushingRemote the store version it would leave behind (-1 if unknown).
+    public record Recovery(String documentId, long version, long remoteVersion, long flushingUpTo,
+                           long flushingRemote, List<LoggedOp> ops) {
+
+        // Local version the store's current content corresponds to, or -1 if it changed without us.
+        public long baseFor(long storeVersion) {
+            if (storeVersion == remoteVersion) return version;
+            if (flushingUpTo > version && flushingRemote >= 0 && storeVersion == flushingRemote) return flushingUpTo;
+            return -1;
+        }
+
+        // Ops to re-apply on top of base, stopping at the first gap.
+        public List<EditOperation> opsAfter(long base) {
+            List<EditOperation> result = new ArrayList<>();
+            long next = base + 1;
+            for (LoggedOp logged : ops) {
+                if (logged.version() < next) continue;
+                if (logged.version() > next) break;
+                result.add(logged.op());
+                next++;
+            }
+            return result;
+        }
+    }
+
+    private static final class Segment {
+        final long sequence;
+        final Path path;
+        final FileChannel channel;
+        final MappedByteBuffer buffer;
+        // Highest op version logged in this segment per document
+        final Map<String, Long> opsUpTo = new HashMap<>();
+
+        Segment(long sequence, Path path, FileChannel channel, MappedByteBuffer buffer) {
+            this.sequence = sequence;
+            this.path = path;
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+    }
+
+    // Per-document bookkeeping for the live sessions of this node.
+    private static final class Tracked {
+        long version;
+        long remoteVersion;
+        long logged;
+    }
+
+    private final Path dir;
+    private final int segmentBytes;
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Deque<Segment> retired = new ArrayDeque<>();
+    // Rolled out but not forced yet; the next sync does it
+    private final List<Segment> unforced = new ArrayList<>();
+    private final Map<String, Tracked> tracked = new HashMap<>();
+    private final Set<String> dirty = new HashSet<>();
+    private final List<Path> recoveredSegments = new ArrayList<>();
+    private final Map<String, Recovery> recovered;
+
+    private Segment active;
+    private int syncedUpTo;
+    // Opened ahead of the next roll by prepareSegment(); null until then
+    private Segment spare;
+    private long nextSequence;
+
+    // Open the log in dir, reading what earlier runs left behind; new records go to a fresh segment.
+    public static WriteAheadLog open(Path dir, int segmentBytes) {
+        try {
+            Files.createDirectories(dir);
+            return new WriteAheadLog(dir, segmentBytes);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private WriteAheadLog(Path dir, int segmentBytes) throws IOException {
+        this.dir = dir;
+        this.segmentBytes = segmentBytes;
+
+        Map<String, RecoveryBuilder> builders = new LinkedHashMap<>();
+        long lastSequence = 0;
+        for (var entry : listSegments(dir).entrySet()) {
+            lastSequence = entry.getKey();
+            recoveredSegments.add(entry.getValue());
+            readSegment(entry.getValue(), builders);
+        }
+
+        Map<String, Recovery> result = new LinkedHashMap<>();
+        builders.forEach((id, b) -> {
+            Recovery r = b.build(id);
+            if (!r.ops().isEmpty()) result.put(id, r);
+        });
+        this.recovered = result;
+        this.active = openSegment(lastSequence + 1, segmentBytes);
+        this.nextSequence = lastSequence + 2;
+    }
+
+    // Documents that had ops the store never confirmed when the previous run stopped.
+    public Map<String, Recovery> recovered() {
+        return recovered;
+    }
+
+    // Delete the segments read at startup; call once their documents are rebuilt and logged again.
+    public void discardRecovered() {
+        for (Path path : recoveredSegments) {
+            try {
+                Files.deleteIfExists(path);
+            } catch (IOException e) {
+                LOG.warnf(e, "Failed to delete WAL segment %s", path);
+            }
+        }
+        recoveredSegments.clear();
+    }
+
+    @Override
+    public void opened(String documentId, long version, long remoteVersion) {
+        lock.lock();
+        try {
+            Tracked t = tracked.computeIfAbsent(documentId, id -> new Tracked());
+            t.version = version;
+            t.remoteVersion = remoteVersion;
+            t.logged = version;
+            dirty.remove(documentId);
+            append(checkpoint(OPENED, documentId, version, remoteVersion));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void applied(String documentId, long version, EditOperation op) {
+        lock.lock();
+        try {
+            Tracked t = tracked.computeIfAbsent(documentId, id -> new Tracked());
+            t.logged = version;
+            dirty.add(documentId);
+            append(opRecord(documentId, version, op));
+            active.opsUpTo.put(documentId, version);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void flushing(String documentId, long upToVersion, long expectedRemoteVersion) {
+        lock.lock();
+        try {
+            append(flushingRecord(documentId, upToVersion, expectedRemoteVersion));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void persisted(String documentId, long version, long remoteVersion) {
+        lock.lock();
+        try {
+            Tracked t = tracked.get(documentId);
+            if (t == null) return;
+            t.version = version;
+            t.remoteVersion = remoteVersion;
+            if (t.logged <= version) dirty.remove(documentId);
+            append(checkpoint(CHECKPOINT, documentId, version, remoteVersion));
+            truncate();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void closed(String documentId) {
+        lock.lock();
+        try {
+            // Unsaved ops of a dropped session stay in the log for the next startup to replay
+            if (!dirty.contains(documentId)) tracked.remove(documentId);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Force everything appended since the last sync to disk, including segments rolled out since.
+    public void sync() {
+        List<Segment> rolled;
+        MappedByteBuffer buffer;
+        int from;
+        int to;
+        lock.lock();
+        try {
+            rolled = List.copyOf(unforced);
+            unforced.clear();
+            buffer = active.buffer;
+            from = syncedUpTo;
+            to = active.buffer.position();
+            syncedUpTo = to;
+        } finally {
+            lock.unlock();
+        }
+        for (Segment segment : rolled) segment.buffer.force();
+        if (to == from) return;
+        // Include the end marker after the last record
+        from = Math.min(from, to);
+        buffer.force(from, Math.min(to + 4, buffer.capacity()) - from);
+    }
+
+    // Open the segment the next roll switches to, unless one is ready; call from the syncing thread.
+    public void prepareSegment() {
+        long sequence;
+        lock.lock();
+        try {
+            if (spare != null) return;
+            sequence = nextSequence++;
+        } finally {
+            lock.unlock();
+        }
+
+        Segment segment;
+        try {
+            segment = openSegment(sequence, segmentBytes);
+        } catch (IOException e) {
+            LOG.errorf(e, "Failed to open WAL segment %d", sequence);
+            return;
+        }
+
+        lock.lock();
+        try {
+            // A roll that could not wait for it has moved past this sequence; replay order is by sequence
+            if (spare == null && sequence > active.sequence) {
+                spare = segment;
+                return;
+            }
+        } finally {
+            lock.unlock();
+        }
+        discard(segment);
+    }
+
+    // Bytes written to the active segment.
+    public int activeBytes() {
+        lock.lock();
+        try {
+            return active.buffer.position();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Segments on disk, including the active one.
+    public int segmentCount() {
+        lock.lock();
+        try {
+            return retired.size() + recoveredSegments.size() + 1;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            unforced.forEach(segment -> segment.buffer.force());
+            unforced.clear();
+            active.buffer.force();
+            closeQuietly(active);
+            retired.forEach(WriteAheadLog::closeQuietly);
+            if (spare != null) discard(spare);
+            spare = null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Drop what the store has confirmed: whole retired segments, then the active one if it is clean.
+    private void truncate() {
+        retired.removeIf(segment -> {
+            if (!isConfirmed(segment)) return false;
+            unforced.remove(segment);
+            closeQuietly(segment);
+            try {
+                Files.deleteIfExists(segment.path);
+            } catch (IOException e) {
+                LOG.warnf(e, "Failed to delete WAL segment %s", segment.path);
+            }
+            return true;
+        });
+        if (retired.isEmpty() && !active.opsUpTo.isEmpty() && isConfirmed(active)) {
+            active.opsUpTo.clear();
+            active.buffer.position(0);
+            syncedUpTo = 0;
+            writeCheckpoints();
+        }
+    }
+
+    private boolean isConfirmed(Segment segment) {
+        for (var entry : segment.opsUpTo.entrySet()) {
+            Tracked t = tracked.get(entry.getKey());
+            if (t != null && t.version < entry.getValue()) return false;
+        }
+        return true;
+    }
+
+    private void append(byte[] payload) {
+        int size = HEADER + payload.length + 4;
+        if (active.buffer.remaining() < size) roll(size);
+
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        MappedByteBuffer buffer = active.buffer;
+        buffer.putInt(payload.length);
+        buffer.putInt((int) crc.getValue());
+        buffer.put(payload);
+        // End marker, overwritten by the next record
+        buffer.putInt(buffer.position(), 0);
+    }
+
+    // Start a new segment; the old one is kept until the store has confirmed its ops, and forced by the next sync.
+    private void roll(int needed) {
+        Segment next = spare;
+        spare = null;
+        if (next == null || next.buffer.capacity() < needed * 2) {
+            // Nothing prepared, or a record too big for it: the appending thread opens one after all
+            if (next != null) discard(next);
+            try {
+                next = openSegment(nextSequence++, Math.max(segmentBytes, needed * 2));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        retired.add(active);
+        unforced.add(active);
+        active = next;
+        syncedUpTo = 0;
+        writeCheckpoints();
+    }
+
+    private void writeCheckpoints() {
+        tracked.forEach((id, t) -> append(checkpoint(CHECKPOINT, id, t.version, t.remoteVersion)));
+    }
+
+    private Segment openSegment(long sequence, int size) throws IOException {
+        Path path = dir.resolve(PREFIX + String.format("%016d", sequence) + SUFFIX);
+        FileChannel channel = FileChannel.open(path,
+            StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        buffer.putInt(0, 0);
+        return new Segment(sequence, path, channel, buffer);
+    }
+
+    // Close and delete a segment that never took a record.
+    private static void discard(Segment segment) {
+        closeQuietly(segment);
+        try {
+            Files.deleteIfExists(segment.path);
+        } catch (IOException e) {
+            LOG.warnf(e, "Failed to delete WAL segment %s", segment.path);
+        }
+    }
+
+    private static void closeQuietly(Segment segment) {
+        try {
+            segment.channel.close();
+        } catch (IOException ignored) {}
+    }
+
+    private static TreeMap<Long, Path> listSegments(Path dir) throws IOException {
+        TreeMap<Long, Path> segments = new TreeMap<>();
+        try (Stream<Path> files = Files.list(dir)) {
+            files.forEach(path -> {
+                String name = path.getFileName().toString();
+                if (name.startsWith(PREFIX) && name.endsWith(SUFFIX)) {
+                    try {
+                        segments.put(Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length())), path);
+                    } catch (NumberFormatException ignored) {}
+                }
+            });
+        }
+        return segments;
+    }
+
+    // Replay state while reading segments oldest first.
+    private static final class RecoveryBuilder {
+        long version;
+        long remoteVersion;
+        long flushingUpTo;
+        long flushingRemote = -1;
+        final TreeMap<Long, EditOperation> ops = new TreeMap<>();
+
+        Recovery build(String documentId) {
+            List<LoggedOp> logged = new ArrayList<>(ops.size());
+            ops.forEach((v, op) -> logged.add(new LoggedOp(v, op)));
+            return new Recovery(documentId, version, remoteVersion, flushingUpTo, flushingRemote, logged);
+        }
+    }
+
+    private static void readSegment(Path path, Map<String, RecoveryBuilder> builders) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(path));
+        while (buffer.remaining() >= HEADER) {
+            int length = buffer.getInt();
+            int checksum = buffer.getInt();
+            if (length <= 0 || length > buffer.remaining()) return;
+
+            byte[] payload = new byte[length];
+            buffer.get(payload);
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+            if ((int) crc.getValue() != checksum) {
+                LOG.warnf("WAL segment %s has a torn record; ignoring the rest", path.getFileName());
+                return;
+            }
+            replay(ByteBuffer.wrap(payload), builders);
+        }
+    }
+
+    private static void replay(ByteBuffer in, Map<String, RecoveryBuilder> builders) {
+        byte kind = in.get();
+        RecoveryBuilder b = builders.computeIfAbsent(readString(in), id -> new RecoveryBuilder());
+        switch (kind) {
+            case OPENED -> {
+                // Freshly loaded from the store: nothing logged before this is still pending
+                b.version = in.getLong();
+                b.remoteVersion = in.getLong();
+                b.ops.clear();
+                b.flushingUpTo = 0;
+                b.flushingRemote = -1;
+            }
+            case CHECKPOINT -> {
+                b.version = in.getLong();
+                b.remoteVersion = in.getLong();
+                b.ops.headMap(b.version, true).clear();
+                if (b.flushingUpTo <= b.version) {
+                    b.flushingUpTo = 0;
+                    b.flushingRemote = -1;
+                }
+            }
+            case OP -> {
+                long version = in.getLong();
+                b.ops.put(version, new EditOperation(readString(in), readString(in), in.getInt(), readString(in),
+                    in.getInt(), in.getLong()));
+            }
+            case FLUSHING -> {
+                b.flushingUpTo = in.getLong();
+                // Records written before the expected store version was logged leave it unknown
+                b.flushingRemote = in.remaining() >= 8 ? in.getLong() : -1;
+            }
+            default -> {}
+        }
+    }
+
+    private static byte[] checkpoint(byte kind, String documentId, long version, long remoteVersion) {
+        byte[] id = bytes(documentId);
+        return ByteBuffer.allocate(1 + 4 + id.length + 16)
+            .put(kind).putInt(id.length).put(id).putLong(version).putLong(remoteVersion).array();
+    }
+
+    private static byte[] flushingRecord(String documentId, long upToVersion, long expectedRemoteVersion) {
+        byte[] id = bytes(documentId);
+        return ByteBuffer.allocate(1 + 4 + id.length + 16)
+            .put(FLUSHING).putInt(id.length).put(id).putLong(upToVersion).putLong(expectedRemoteVersion).array();
+    }
+
+    private static byte[] opRecord(String documentId, long version, EditOperation op) {
+        byte[] id = bytes(documentId);
+        byte[] user = bytes(op.userId());
+        byte[] type = bytes(op.type());
+        byte[] content = bytes(op.content());
+        int size = 1 + 4 + id.length + 8 + 4 + user.length + 4 + type.length + 4 + 4 + content.length + 4 + 8;
+        return ByteBuffer.allocate(size)
+            .put(OP).putInt(id.length).put(id)
+            .putLong(version)
+            .putInt(length(op.userId(), user)).put(user)
+            .putInt(length(op.type(), type)).put(type)
+            .putInt(op.position())
+            .putInt(length(op.content(), content)).put(content)
+            .putInt(op.deleteCount())
+            .putLong(op.clientVersion())
+            .array();
+    }
+
+    private static byte[] bytes(String s) {
+        return s == null ? new byte[0] : s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    // Strings are length-prefixed; -1 stands for null.
+    private static int length(String s, byte[] encoded) {
+        return s == null ? -1 : encoded.length;
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0) return null;
+        byte[] b = new byte[length];
+        in.get(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+}
@@ -1,13 +1,16 @@
 package com.splitttr.collab.websocket;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.splitttr.collab.cluster.ClusterMembership;
 import com.splitttr.collab.message.*;
+import com.splitttr.collab.metrics.CollabMetrics;
 import com.splitttr.collab.session.DocumentSession;
+import com.splitttr.collab.session.SessionFlusher;
 import com.splitttr.collab.session.SessionManager;
 import io.quarkus.websockets.next.*;
 import jakarta.inject.Inject;
+import org.jboss.logging.Logger;
 
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -15,98 +18,201 @@ import java.util.concurrent.ConcurrentHashMap;
 @WebSocket(path = "/ws/docs")
 public class CollaborationSocket {
 
-    private static final ObjectMapper mapper = new ObjectMapper()
-        .registerModule(new JavaTimeModule());
+    private static final Logger LOG = Logger.getLogger(CollaborationSocket.class);
 
     @Inject
     SessionManager sessionManager;
 
+    @Inject
+    SessionFlusher sessionFlusher;
+
+    @Inject
+    ClusterMembership clusterMembership;
+
+    @Inject
+    CollabMetrics collabMetrics;
+
     // Store connection state externally since the socket instance may not persist
     private static final Map<String, ConnectionState> connectionStates = new ConcurrentHashMap<>();
 
-    record ConnectionState(String userId, String username, String documentId) {}
+    // binary: the connection joined with a binary frame and is answered in the binary protocol
+    // viewer: read-only, served by the session's viewer tier
+    record ConnectionState(String userId, String username, String documentId, boolean binary, boolean viewer) {}
 
     @OnOpen
     // On open.
     public void onOpen(WebSocketConnection connection) {
         // Wait for join message
-        System.out.println("WebSocket opened: " + connection.id());
     }
 
     @OnTextMessage
     // On message.
     public void onMessage(String messageJson, WebSocketConnection connection) {
         try {
-            ClientMessage msg = mapper.readValue(messageJson, ClientMessage.class);
-            System.out.println("Received message: " + msg.type() + " from connection " + connection.id());
-
-            switch (msg.type()) {
-                case "join" -> handleJoin(msg, connection);
-                case "edit" -> handleEdit(msg, connection);
-                case "cursor" -> handleCursor(msg, connection);
-                case "leave" -> handleLeave(connection);
-            }
+            dispatch(CollabCodec.decodeClient(messageJson), connection, false);
         } catch (Exception e) {
-            e.printStackTrace();
+            LOG.warnf(e, "Failed to handle message on connection %s", connection.id());
+            collabMetrics.socketError("message");
             sendError(connection, e.getMessage());
         }
     }
 
-    private void handleJoin(ClientMessage msg, WebSocketConnection connection) {
+    @OnBinaryMessage
+    // On binary message: same protocol, compact encoding.
+    public void onBinaryMessage(byte[] frame, WebSocketConnection connection) {
+        try {
+            dispatch(BinaryCodec.decodeClient(frame), connection, true);
+        } catch (Exception e) {
+            LOG.warnf(e, "Failed to handle binary message on connection %s", connection.id());
+            collabMetrics.socketError("message");
+            sendError(connection, e.getMessage());
+        }
+    }
+
+    private void dispatch(ClientMessage msg, WebSocketConnection connection, boolean binary) {
+        collabMetrics.messageReceived(msg.type());
+
+        switch (msg.type()) {
+            case "join" -> handleJoin(msg, connection, binary);
+            case "edit" -> handleEdit(msg, connection, List.of(msg.edit()));
+            case "edits" -> handleEdit(msg, connection, msg.batchEdits());
+            case "cursor" -> handleCursor(msg, connection);
+            case "range" -> handleRange(msg, connection);
+            case "leave" -> handleLeave(connection);
+        }
+    }
+
+    private void handleJoin(ClientMessage msg, WebSocketConnection connection, boolean binary) {
         String userId = msg.userId();
         String username = (msg.username() == null || msg.username().isBlank()) ? userId : msg.username();
         String docId = msg.documentId();
+        if (userId == null || DocumentSession.SERVER_USER.equals(userId)) {
+            sendError(connection, "A userId is required");
+            return;
+        }
 
-        // Store state for this connection
-        connectionStates.put(connection.id(), new ConnectionState(userId, username, docId));
+        // Shutting down: the client is pointed at whoever takes the document over
+        if (sessionManager.isDraining()) {
+            sendAndClose(connection, sessionManager.reconnectMessage(docId), binary);
+            return;
+        }
 
-        DocumentSession session = sessionManager.getOrCreateSession(docId);
-        session.addUser(userId, username, connection);
+        // Every edit of a document goes through the one node that owns it
+        if (!clusterMembership.isLocal(docId)) {
+            sendAndClose(connection, ServerMessage.redirect(docId, clusterMembership.socketUrl(docId)), binary);
+            return;
+        }
+
+        // Store state for this connection; the join frame's encoding picks the protocol for the rest of it
+        var state = new ConnectionState(userId, username, docId, binary, msg.joinsAsViewer());
+        connectionStates.put(connection.id(), state);
 
-        System.out.println("User " + userId + " joined document " + docId);
-        System.out.println("Active users: " + session.getActiveUsers());
+        joinSession(sessionManager.getOrCreateSession(docId), state, msg, connection);
+    }
 
-        // Send initial state to joining user
-        var initMsg = ServerMessage.init(
-            docId,
-            session.getContent(),
-            session.getVersion(),
-            session.getActiveUsers()
-        );
-        session.sendTo(userId, initMsg);
+    private void joinSession(DocumentSession session, ConnectionState state, ClientMessage join,
+                             WebSocketConnection connection) {
+        String userId = state.userId();
+        String username = state.username();
+        boolean binary = state.binary();
+        String docId = session.getDocumentId();
+        onSequencer(session, connection, () -> {
+            if (session.loadFailure() != null) {
+                // The document could not be fetched; the client may retry with a new join
+                connectionStates.remove(connection.id());
+                sendAndClose(connection, ServerMessage.error("Could not load document " + docId), binary);
+                return;
+            }
+            if (session.isClosed()) {
+                // Last user left while this join was queued; retry on a fresh session
+                joinSession(sessionManager.getOrCreateSession(docId), state, join, connection);
+                return;
+            }
 
-        // Notify others
-        session.broadcast(
-            ServerMessage.userJoined(docId, userId, username, session.getActiveUsers()),
-            userId
-        );
+            if (state.viewer()) {
+                // Viewers are not part of the roster and get no per-op frames
+                session.addViewer(userId, connection, binary);
+                return;
+            }
+
+            session.addUser(userId, username, connection, binary);
+            // Range-mode clients see ops as shifts and do not pipeline
+            if (join.joinsPipelined() && !join.joinsInRangeMode()) session.pipeline(userId);
+
+            // A reconnecting client only needs what it missed, if we still have it. Range-mode joins
+            // always start over: the spans the client held before are not known here.
+            Long lastVersion = join.joinsInRangeMode() ? null : join.lastVersion();
+            List<EditOperation> missed = lastVersion == null ? null : session.resumeOps(userId, lastVersion);
+            if (join.joinsInRangeMode()) {
+                // The document length and the first span only; the client asks for more with "range"
+                int start = join.rangeStart() == null ? 0 : join.rangeStart();
+                session.sendInitialRange(userId, start, join.rangeLength());
+            } else if (missed != null) {
+                session.sendTo(userId, ServerMessage.resume(
+                    docId, session.getVersion(), missed, session.getActiveUsers(), session.presenceVersion()));
+            } else {
+                // Send initial state to joining user
+                var initMsg = ServerMessage.init(
+                    docId,
+                    session.getContent(),
+                    session.getVersion(),
+                    session.getActiveUsers(),
+                    session.presenceVersion()
+                );
+                session.sendTo(userId, initMsg);
+            }
+
+            // Notify others with just the delta; they already hold the rest of the roster
+            session.broadcast(
+                ServerMessage.userJoined(docId, userId, username, session.presenceVersion()),
+                userId
+            );
+        });
     }
 
-    private void handleEdit(ClientMessage msg, WebSocketConnection connection) {
+    private void handleEdit(ClientMessage msg, WebSocketConnection connection, List<EditOperation> ops) {
         ConnectionState state = connectionStates.get(connection.id());
         if (state == null) {
             sendError(connection, "Not joined to a document");
             return;
         }
+        if (state.viewer()) {
+            sendError(connection, "Viewers cannot edit");
+            return;
+        }
 
         DocumentSession session = sessionManager.getSession(state.documentId());
-        if (session == null) return;
+        if (session == null || ops == null || ops.isEmpty()) return;
+
+        onSequencer(session, connection, () -> {
+            // Queued behind a failed load or the last leave; nothing to apply it to
+            if (session.isClosed()) return;
 
-        EditOperation edit = msg.edit();
+            for (EditOperation op : ops) {
+                // Attribute the op to the joined user, whatever the frame claims
+                EditOperation edit = withUser(op, state.userId());
 
-        // Apply to in-memory state
-        session.applyEdit(edit.type(), edit.position(), edit.content(), edit.deleteCount());
+                // Apply to in-memory state; the sequencer assigns versions in arrival order
+                long started = System.nanoTime();
+                List<EditOperation> applied = session.applyClientEdit(edit);
+                collabMetrics.editApplied(state.documentId(), System.nanoTime() - started);
+                // Sent as of a state the session no longer transforms from; the client starts over
+                if (applied == null) continue;
 
+                // Peers get everything applied within the batch window as one frame
+                long version = session.getVersion() - applied.size();
+                for (EditOperation a : applied) session.publishEdit(++version, a);
+                if (session.pipelines(state.userId())) session.acknowledge(state.userId(), version);
+            }
 
-        // Persist best-effort (so content isn't lost if service restarts)
-        sessionManager.persistSession(session, state.documentId());
-        // Broadcast to others
-        session.broadcast(ServerMessage.edit(state.documentId(), edit), state.userId());
+            // Write-behind: persisted on the flush interval or once enough edits pile up
+            sessionFlusher.onEdit(session);
+        });
     }
 
     private void handleCursor(ClientMessage msg, WebSocketConnection connection) {
         ConnectionState state = connectionStates.get(connection.id());
-        if (state == null) return;
+        if (state == null || state.viewer()) return;
 
         DocumentSession session = sessionManager.getSession(state.documentId());
         if (session == null) return;
@@ -115,11 +221,19 @@ public class CollaborationSocket {
         final Integer cp = msg.cursorPosition();
         final int pos = (cp == null) ? 0 : cp.intValue();
 
-        session.updateCursor(state.userId(), pos);
-        session.broadcast(
-            ServerMessage.cursor(state.documentId(), state.userId(), state.username(), pos),
-            state.userId()
-        );
+        // Peers get the latest position in the next batched presence frame
+        onSequencer(session, connection, () -> session.updateCursor(state.userId(), pos));
+    }
+
+    private void handleRange(ClientMessage msg, WebSocketConnection connection) {
+        ConnectionState state = connectionStates.get(connection.id());
+        if (state == null || state.viewer()) return;
+
+        DocumentSession session = sessionManager.getSession(state.documentId());
+        if (session == null || msg.rangeLength() == null) return;
+
+        int start = msg.rangeStart() == null ? 0 : msg.rangeStart();
+        onSequencer(session, connection, () -> session.sendRange(state.userId(), start, msg.rangeLength()));
     }
 
     private void handleLeave(WebSocketConnection connection) {
@@ -128,29 +242,64 @@ public class CollaborationSocket {
 
         DocumentSession session = sessionManager.getSession(state.documentId());
         if (session != null) {
-            session.removeUser(state.userId());
-            session.broadcast(ServerMessage.userLeft(state.documentId(), state.userId(), state.username()), null);
-            sessionManager.removeSessionIfEmpty(state.documentId());
+            onSequencer(session, connection, () -> {
+                if (state.viewer()) {
+                    session.removeViewer(state.userId());
+                } else {
+                    session.removeUser(state.userId());
+                    session.broadcast(ServerMessage.userLeft(
+                        state.documentId(), state.userId(), state.username(), session.presenceVersion()), null);
+                }
+                sessionManager.removeSessionIfEmpty(state.documentId());
+            });
         }
     }
 
+    private static EditOperation withUser(EditOperation op, String userId) {
+        if (userId.equals(op.userId())) return op;
+        return new EditOperation(userId, op.type(), op.position(), op.content(), op.deleteCount(), op.clientVersion());
+    }
+
+    // Run a handler on the document's single writer, reporting failures back to the sender.
+    private void onSequencer(DocumentSession session, WebSocketConnection connection, Runnable task) {
+        session.submit(() -> {
+            try {
+                task.run();
+            } catch (Exception e) {
+                LOG.errorf(e, "Handler failed for document %s", session.getDocumentId());
+                collabMetrics.socketError("handler");
+                sendError(connection, e.getMessage());
+            }
+        });
+    }
+
     @OnClose
     // On close.
     public void onClose(WebSocketConnection connection) {
-        System.out.println("WebSocket closed: " + connection.id());
         handleLeave(connection);
     }
 
     @OnError
     // On error.
     public void onError(WebSocketConnection connection, Throwable t) {
-        System.err.println("WebSocket error: " + t.getMessage());
+        LOG.warnf(t, "WebSocket error on connection %s", connection.id());
+        collabMetrics.socketError("transport");
         handleLeave(connection);
     }
 
+    private void sendAndClose(WebSocketConnection conn, ServerMessage message, boolean binary) {
+        try {
+            var sent = binary ? conn.sendBinary(BinaryCodec.encode(message)) : conn.sendText(CollabCodec.encode(message));
+            sent.subscribe().with(ok -> conn.close().subscribe().with(c -> {}, err -> {}), err -> {});
+        } catch (Exception ignored) {}
+    }
+
     private void sendError(WebSocketConnection conn, String message) {
         try {
-            conn.sendText(mapper.writeValueAsString(ServerMessage.error(message)));
+            ConnectionState state = connectionStates.get(conn.id());
+            ServerMessage error = ServerMessage.error(message);
+            if (state != null && state.binary()) conn.sendBinary(BinaryCodec.encode(error));
+            else conn.sendText(CollabCodec.encode(error));
         } catch (Exception ignored) {}
     }
 }
\ No newline at end of file
@@ -0,0 +1,45 @@
+package com.splitttr.collab.cluster;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// ClusterMembershipTest.
+class ClusterMembershipTest {
+
+    @Test
+    void onlyAllowListedWebSocketMembersAreAccepted() {
+        var membership = membership(Optional.empty(), Optional.empty());
+
+        assertTrue(membership.isAllowed("ws://a:8082"));
+        assertTrue(membership.isAllowed("ws://self:8082"));
+        assertFalse(membership.isAllowed("ws://evil.example:8082"));
+        assertFalse(membership.isAllowed("http://a:8082"));
+
+        var wider = membership(Optional.of("ws://a:8082,wss://c.example"), Optional.empty());
+        assertTrue(wider.isAllowed("wss://c.example"));
+        assertFalse(wider.isAllowed("ws://b:8082"));
+    }
+
+    @Test
+    void membershipChangesNeedTheConfiguredToken() {
+        assertFalse(membership(Optional.empty(), Optional.empty()).authorized("anything"));
+
+        var membership = membership(Optional.empty(), Optional.of("s3cret"));
+        assertTrue(membership.authorized("s3cret"));
+        assertFalse(membership.authorized("s3cre"));
+        assertFalse(membership.authorized(null));
+    }
+
+    private static ClusterMembership membership(Optional<String> allowed, Optional<String> token) {
+        var membership = new ClusterMembership();
+        membership.self = "ws://self:8082";
+        membership.configuredMembers = Optional.of("ws://a:8082,ws://b:8082");
+        membership.allowedMembers = allowed;
+        membership.token = token;
+        membership.init();
+        return membership;
+    }
+}
@@ -0,0 +1,59 @@
+package com.splitttr.collab.cluster;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// HashRingTest.
+class HashRingTest {
+
+    private static final List<String> THREE = List.of("ws://a:8082", "ws://b:8082", "ws://c:8082");
+
+    @Test
+    void documentsSpreadAcrossAllMembers() {
+        var ring = new HashRing(THREE);
+        Map<String, Integer> counts = new HashMap<>();
+        for (int i = 0; i < 30_000; i++) {
+            counts.merge(ring.ownerOf("doc-" + i), 1, Integer::sum);
+        }
+
+        assertEquals(3, counts.size());
+        counts.forEach((member, n) -> assertTrue(n > 7_000 && n < 13_000, member + " owns " + n));
+    }
+
+    @Test
+    void addingAMemberOnlyMovesDocumentsToIt() {
+        var before = new HashRing(THREE);
+        var after = new HashRing(List.of("ws://a:8082", "ws://b:8082", "ws://c:8082", "ws://d:8082"));
+
+        int moved = 0;
+        for (int i = 0; i < 10_000; i++) {
+            String doc = "doc-" + i;
+            String was = before.ownerOf(doc);
+            String now = after.ownerOf(doc);
+            if (!was.equals(now)) {
+                assertEquals("ws://d:8082", now);
+                moved++;
+            }
+        }
+        assertTrue(moved > 1_500 && moved < 3_500, "moved " + moved);
+    }
+
+    @Test
+    void ownershipDoesNotDependOnMemberOrder() {
+        var ring = new HashRing(THREE);
+        var reversed = new HashRing(THREE.reversed());
+        for (int i = 0; i < 1_000; i++) {
+            assertEquals(ring.ownerOf("doc-" + i), reversed.ownerOf("doc-" + i));
+        }
+    }
+
+    @Test
+    void emptyRingHasNoOwner() {
+        assertNull(new HashRing(List.of()).ownerOf("doc-1"));
+    }
+}
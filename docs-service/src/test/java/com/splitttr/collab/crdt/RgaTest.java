@@ -0,0 +1,147 @@
+package com.splitttr.collab.crdt;
+
+import com.splitttr.collab.message.EditOperation;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// RgaTest.
+class RgaTest {
+
+    // A replica plus a plain copy of its text kept only from the positional ops it reports.
+    private static class Replica {
+        final Rga rga;
+        final StringBuilder shadow;
+        long version;
+
+        Replica(String name, String content) {
+            rga = new Rga(name, content, 0);
+            shadow = new StringBuilder(content);
+        }
+
+        List<CrdtOp> edit(EditOperation op) {
+            var result = rga.apply(op, version, ++version);
+            result.applied().forEach(this::applyToShadow);
+            return result.minted();
+        }
+
+        void receive(List<CrdtOp> ops) {
+            for (CrdtOp op : ops) rga.integrate(op, ++version).forEach(this::applyToShadow);
+        }
+
+        private void applyToShadow(EditOperation op) {
+            int end = op.position() + ("insert".equals(op.type()) ? 0 : op.deleteCount());
+            shadow.replace(op.position(), end, op.content() == null ? "" : op.content());
+        }
+    }
+
+    @Test
+    void anEditFromAStalePositionLandsWhereItsAuthorMeantIt() {
+        var rga = new Rga("node-a", "hello world", 0);
+
+        rga.apply(new EditOperation("alice", "insert", 0, ">> ", 0, 0), 0, 1);
+        var bob = rga.apply(new EditOperation("bob", "insert", 6, "big ", 0, 0), 0, 2);
+        var carol = rga.apply(new EditOperation("carol", "delete", 0, null, 5, 0), 0, 3);
+
+        assertEquals(">>  big world", rga.toString());
+        assertEquals(List.of(new EditOperation("bob", "insert", 9, "big ", 0, 0)), bob.applied());
+        assertEquals(List.of(new EditOperation("carol", "delete", 3, null, 5, 0)), carol.applied());
+    }
+
+    @Test
+    void anAuthorsOwnUnacknowledgedOpsArePartOfItsView() {
+        var rga = new Rga("node-a", "ab", 0);
+
+        rga.apply(new EditOperation("alice", "insert", 1, "X", 0, 0), 0, 1);
+        rga.apply(new EditOperation("bob", "insert", 0, "1", 0, 0), 0, 2);
+        // Bob typed "2" after his "1" before hearing back about either op
+        var second = rga.apply(new EditOperation("bob", "insert", 1, "2", 0, 0), 0, 3);
+
+        assertEquals("12aXb", rga.toString());
+        assertEquals(1, second.applied().get(0).position());
+    }
+
+    @Test
+    void deletingTextSomeoneChangedMeanwhileRemovesOnlyWhatIsLeft() {
+        var rga = new Rga("node-a", "abcdef", 0);
+
+        rga.apply(new EditOperation("alice", "insert", 3, "XY", 0, 0), 0, 1);
+        rga.apply(new EditOperation("alice", "delete", 1, null, 1, 1), 1, 2);
+        var bob = rga.apply(new EditOperation("bob", "delete", 1, null, 4, 0), 0, 3);
+
+        assertEquals("aXYf", rga.toString());
+        assertEquals(List.of(
+            new EditOperation("bob", "delete", 1, null, 1, 0),
+            new EditOperation("bob", "delete", 3, null, 2, 0)), bob.applied());
+    }
+
+    @Test
+    void replicasConvergeWhateverOrderTheyReceiveEachOthersOps() {
+        Random random = new Random(11);
+        String initial = "the quick brown fox";
+        var a = new Replica("node-a", initial);
+        var b = new Replica("node-b", initial);
+        var c = new Replica("node-c", initial);
+
+        for (int round = 0; round < 200; round++) {
+            List<CrdtOp> fromA = new ArrayList<>(), fromB = new ArrayList<>();
+            for (int i = random.nextInt(4); i >= 0; i--) fromA.addAll(a.edit(randomOp(random, "alice", a.shadow.length())));
+            for (int i = random.nextInt(4); i >= 0; i--) fromB.addAll(b.edit(randomOp(random, "bob", b.shadow.length())));
+
+            a.receive(fromB);
+            b.receive(fromA);
+            // c sees the two streams interleaved, each still in its own order
+            List<CrdtOp> mixed = new ArrayList<>();
+            for (int i = 0; i < Math.max(fromA.size(), fromB.size()); i++) {
+                if (i < fromB.size()) mixed.add(fromB.get(i));
+                if (i < fromA.size()) mixed.add(fromA.get(i));
+            }
+            c.receive(mixed);
+
+            assertEquals(a.rga.toString(), b.rga.toString(), "round " + round);
+            assertEquals(a.rga.toString(), c.rga.toString(), "round " + round);
+            for (var r : List.of(a, b, c)) {
+                assertEquals(r.rga.toString(), r.shadow.toString(), "round " + round);
+                assertEquals(r.shadow.length(), r.rga.length());
+            }
+        }
+    }
+
+    @Test
+    void compactionDropsOldTombstonesAndMergesTypedRuns() {
+        var rga = new Rga("node-a", "", 0);
+        long version = 0;
+        for (int i = 0; i < 500; i++) {
+            rga.apply(new EditOperation("alice", "insert", i, "x", 0, version), version, ++version);
+        }
+        rga.apply(new EditOperation("alice", "delete", 100, null, 50, version), version, ++version);
+        long before = rga.estimatedBytes();
+        assertEquals(500, rga.runCount(), "one run per keystroke");
+
+        rga.compact(version);
+
+        assertEquals("x".repeat(450), rga.toString());
+        assertEquals(2, rga.runCount(), "the runs either side of the deleted counters");
+        assertTrue(rga.estimatedBytes() * 50 < before, rga.estimatedBytes() + " vs " + before);
+
+        // Ops resolved after compaction still land correctly
+        rga.apply(new EditOperation("bob", "insert", 450, "!", 0, 0), 0, ++version);
+        assertEquals("x".repeat(450) + "!", rga.toString());
+    }
+
+    private static EditOperation randomOp(Random random, String user, int length) {
+        int position = random.nextInt(length + 1);
+        int deleteCount = Math.min(length - position, 1 + random.nextInt(4));
+        String text = Character.toString('a' + random.nextInt(26)).repeat(1 + random.nextInt(3));
+        return switch (random.nextInt(3)) {
+            case 0 -> new EditOperation(user, "insert", position, text, 0, 0);
+            case 1 -> deleteCount == 0 ? new EditOperation(user, "insert", position, text, 0, 0)
+                : new EditOperation(user, "delete", position, null, deleteCount, 0);
+            default -> new EditOperation(user, "replace", position, text, deleteCount, 0);
+        };
+    }
+}
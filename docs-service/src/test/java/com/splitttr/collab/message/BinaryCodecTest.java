@@ -0,0 +1,161 @@
+package com.splitttr.collab.message;
+
+import com.splitttr.collab.message.ServerMessage.ActiveUser;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// BinaryCodecTest.
+class BinaryCodecTest {
+
+    @Test
+    void clientFramesDecodeToTheSameMessagesAsJson() throws Exception {
+        var join = new BinaryCodec.Output();
+        join.writeByte(BinaryCodec.JOIN);
+        join.writeString("doc-1");
+        join.writeString("alice");
+        join.writeString("");
+        join.writeVarLong(42 + 1);
+
+        var edits = new BinaryCodec.Output();
+        edits.writeByte(BinaryCodec.EDITS);
+        edits.writeVarLong(0);
+        edits.writeVarInt(2);
+        edits.writeByte((byte) 1);
+        edits.writeVarInt(300);
+        edits.writeString("héllo");
+        edits.writeVarLong(7);
+        edits.writeByte((byte) 3);
+        edits.writeVarInt(0);
+        edits.writeString("x");
+        edits.writeVarInt(2);
+        edits.writeVarLong(7);
+
+        assertEquals(new ClientMessage("join", "doc-1", "alice", null, null, null, 42L, null, null, null, null, null, null),
+            BinaryCodec.decodeClient(join.toByteArray()));
+        assertEquals(new ClientMessage("edits", null, null, null, null, null, null, List.of(
+                new EditOperation(null, "insert", 300, "héllo", 0, 7),
+                new EditOperation(null, "replace", 0, "x", 2, 7)), null, null, null, null, null),
+            BinaryCodec.decodeClient(edits.toByteArray()));
+    }
+
+    @Test
+    void editsFramesReferToUsersByTheirSessionNumber() throws Exception {
+        var users = new UserTable();
+        users.intern("alice-0123456789", "Alice");
+        users.intern("bob-0123456789", "Bob");
+        var ops = List.of(
+            new EditOperation("bob-0123456789", "insert", 1200, "a", 0, 17),
+            new EditOperation("alice-0123456789", "delete", 4, null, 3, 16));
+        var message = ServerMessage.edits("doc-0123456789", 40, 42, ops);
+
+        byte[] frame = BinaryCodec.encode(message, users);
+
+        var in = new BinaryCodec.Input(frame);
+        assertEquals(BinaryCodec.SERVER_EDITS, in.readByte());
+        assertEquals(40, in.readVarLong());
+        assertEquals(42, in.readVarLong());
+        assertEquals(2, in.readVarInt());
+        assertEquals(1, in.readVarInt());
+        assertEquals(new EditOperation(null, "insert", 1200, "a", 0, 17), in.readOp(null));
+        assertEquals(0, in.readVarInt());
+        assertEquals(new EditOperation(null, "delete", 4, null, 3, 16), in.readOp(null));
+        assertThrows(IOException.class, in::readByte, "nothing after the last op");
+
+        int json = CollabCodec.encode(message).length();
+        assertTrue(frame.length * 5 < json, frame.length + " vs " + json);
+    }
+
+    @Test
+    void initCarriesTheUserTableAndPresenceOnlyNumbers() throws Exception {
+        var users = new UserTable();
+        users.intern("alice", "Alice");
+        var active = List.of(new ActiveUser("alice", "Alice", 3), new ActiveUser("bob", "Bob", 9));
+
+        var in = new BinaryCodec.Input(BinaryCodec.encode(ServerMessage.init("doc-1", "hi", 5, active, 2), users));
+        assertEquals(BinaryCodec.INIT, in.readByte());
+        assertEquals("hi", in.readString());
+        assertEquals(5, in.readVarLong());
+        assertEquals(2, in.readVarInt());
+        assertEquals(List.of("alice", "Alice", "bob", "Bob"),
+            List.of(in.readString(), in.readString(), in.readString(), in.readString()));
+
+        in = new BinaryCodec.Input(BinaryCodec.encode(ServerMessage.presence("doc-1", active.subList(1, 2)), users));
+        assertEquals(BinaryCodec.PRESENCE, in.readByte());
+        assertEquals(List.of(1, 1, 9), List.of(in.readVarInt(), in.readVarInt(), in.readVarInt()));
+    }
+
+    @Test
+    void authorsOffTheRosterGetANumberThatAUsersFrameAnnounces() throws Exception {
+        var users = new UserTable();
+        users.intern("alice", "Alice");
+        var message = ServerMessage.edits("doc-1", 3, 4, List.of(new EditOperation("server", "replace", 0, "x", 1, 3)));
+
+        var edits = new BinaryCodec.Input(BinaryCodec.encode(message, users));
+        assertEquals(2, BinaryCodec.usersReferenced(message, users));
+        assertEquals(BinaryCodec.SERVER_EDITS, edits.readByte());
+        // baseVersion, version, one op by the number just assigned
+        assertEquals(List.of(3, 4, 1, 1),
+            List.of(edits.readVarInt(), edits.readVarInt(), edits.readVarInt(), edits.readVarInt()));
+
+        var in = new BinaryCodec.Input(BinaryCodec.encodeUsers(users, 1, 2));
+        assertEquals(BinaryCodec.USERS, in.readByte());
+        assertEquals(List.of(1, 1), List.of(in.readVarInt(), in.readVarInt()));
+        assertEquals(List.of("server", "server"), List.of(in.readString(), in.readString()));
+        assertThrows(IOException.class, in::readByte, "nothing after the last entry");
+        assertEquals(0, BinaryCodec.usersReferenced(ServerMessage.ack("doc-1", 4), users));
+    }
+
+    @Test
+    void rangeModeFramesRoundTrip() throws Exception {
+        var join = new BinaryCodec.Output();
+        join.writeByte(BinaryCodec.JOIN);
+        join.writeString("doc-1");
+        join.writeString("alice");
+        join.writeString("");
+        join.writeVarLong(0);
+        join.writeByte((byte) 0);
+        join.writeVarInt(4000);
+        join.writeVarInt(200);
+
+        assertEquals(new ClientMessage("join", "doc-1", "alice", null, null, null, null, null, null, null, 4000, 200, null),
+            BinaryCodec.decodeClient(join.toByteArray()));
+
+        var users = new UserTable();
+        var shift = new EditOperation("bob", "shift", 90, null, -12, 4);
+        var in = new BinaryCodec.Input(BinaryCodec.encode(ServerMessage.edits("doc-1", 3, 4, List.of(shift)), users));
+        assertEquals(BinaryCodec.SERVER_EDITS, in.readByte());
+        assertEquals(List.of(3L, 4L), List.of(in.readVarLong(), in.readVarLong()));
+        assertEquals(List.of(1, 0), List.of(in.readVarInt(), in.readVarInt()));
+        assertEquals(new EditOperation(null, "shift", 90, null, -12, 4), in.readOp(null));
+    }
+
+    @Test
+    void pipelinedJoinsAndAcks() throws Exception {
+        var join = new BinaryCodec.Output();
+        join.writeByte(BinaryCodec.JOIN);
+        join.writeString("doc-1");
+        join.writeString("alice");
+        join.writeString("");
+        join.writeVarLong(0);
+        join.writeByte((byte) 2);
+
+        assertTrue(BinaryCodec.decodeClient(join.toByteArray()).joinsPipelined());
+        assertFalse(BinaryCodec.decodeClient(join.toByteArray()).joinsAsViewer());
+
+        var in = new BinaryCodec.Input(BinaryCodec.encode(ServerMessage.ack("doc-1", 300)));
+        assertEquals(BinaryCodec.ACK, in.readByte());
+        assertEquals(300L, in.readVarLong());
+    }
+
+    @Test
+    void truncatedOrUnknownFramesAreRejected() {
+        assertThrows(IOException.class, () -> BinaryCodec.decodeClient(new byte[0]));
+        assertThrows(IOException.class, () -> BinaryCodec.decodeClient(new byte[] {99}));
+        assertThrows(IOException.class, () -> BinaryCodec.decodeClient(new byte[] {BinaryCodec.JOIN, 5, 'd'}));
+        assertThrows(IOException.class, () -> BinaryCodec.decodeClient(new byte[] {BinaryCodec.EDITS, 0, 100, 1}));
+    }
+}
@@ -0,0 +1,79 @@
+package com.splitttr.collab.message;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.splitttr.collab.message.ServerMessage.ActiveUser;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// CollabCodecTest.
+class CollabCodecTest {
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    @Test
+    void serverFramesReadBackAsTheSameMessage() throws Exception {
+        var ops = List.of(
+            new EditOperation("alice", "insert", 3, "h\u00e9\"llo\n", 0, 7),
+            new EditOperation("bob", "delete", 0, null, 2, 8));
+        var users = List.of(new ActiveUser("alice", "Alice", 4), new ActiveUser("bob", null, 0));
+
+        for (ServerMessage m : List.of(
+                ServerMessage.init("doc-1", "text", 0, users, 2),
+                ServerMessage.edits("doc-1", 41, 43, ops),
+                ServerMessage.resume("doc-1", 43, ops, users, 2),
+                ServerMessage.presence("doc-1", users),
+                ServerMessage.initRange("doc-1", "ext", 40, 9000, 5, users, 2),
+                ServerMessage.range("doc-1", "more", 800, 9000, 6),
+                ServerMessage.ack("doc-1", 44),
+                ServerMessage.userLeft("doc-1", "bob", "Bob", 3),
+                ServerMessage.redirect("doc-1", "ws://node-b/ws/docs"),
+                ServerMessage.error("boom"))) {
+            String json = CollabCodec.encode(m);
+            assertEquals(m, mapper.readValue(json, ServerMessage.class), json);
+            assertFalse(json.contains("null"), json);
+        }
+    }
+
+    @Test
+    void clientFramesDecodeLikeDataBinding() throws Exception {
+        String edits = "{\"type\":\"edits\",\"documentId\":\"doc-1\",\"userId\":\"alice\",\"baseVersion\":12,"
+            + "\"edits\":[{\"userId\":\"alice\",\"type\":\"insert\",\"position\":0,\"content\":\"a\",\"deleteCount\":0,\"clientVersion\":12},"
+            + "{\"userId\":\"alice\",\"type\":\"delete\",\"position\":1,\"content\":null,\"deleteCount\":1,\"clientVersion\":12}]}";
+        String join = "{\"type\":\"join\",\"documentId\":\"doc-1\",\"userId\":\"bob\",\"lastVersion\":null,\"cursorPosition\":5}";
+        String range = "{\"type\":\"range\",\"rangeStart\":4096,\"rangeLength\":2048}";
+        String edit = "{\"type\":\"edit\",\"edit\":{\"type\":\"insert\",\"position\":2,\"content\":\"\\u00e9\"}}";
+
+        for (String json : List.of(edits, join, range, edit)) {
+            assertEquals(mapper.readValue(json, ClientMessage.class), CollabCodec.decodeClient(json), json);
+        }
+    }
+
+    @Test
+    void batchOpsWithoutAClientVersionTakeTheBatchBase() throws Exception {
+        String json = "{\"type\":\"edits\",\"baseVersion\":12,\"edits\":["
+            + "{\"type\":\"insert\",\"position\":0,\"content\":\"a\"},"
+            + "{\"type\":\"delete\",\"position\":1,\"deleteCount\":1,\"clientVersion\":14}]}";
+
+        assertEquals(List.of(new EditOperation(null, "insert", 0, "a", 0, 12), new EditOperation(null, "delete", 1, null, 1, 14)),
+            CollabCodec.decodeClient(json).batchEdits());
+    }
+
+    @Test
+    void unknownFieldsAreSkipped() throws Exception {
+        String json = "{\"type\":\"cursor\",\"extra\":{\"nested\":[1,2,{\"x\":null}]},\"cursorPosition\":9,\"tags\":[\"a\"]}";
+
+        var msg = CollabCodec.decodeClient(json);
+
+        assertEquals("cursor", msg.type());
+        assertEquals(Integer.valueOf(9), msg.cursorPosition());
+    }
+
+    @Test
+    void malformedFramesAreRejected() {
+        assertThrows(java.io.IOException.class, () -> CollabCodec.decodeClient("[1,2]"));
+        assertThrows(java.io.IOException.class, () -> CollabCodec.decodeClient("{\"type\":"));
+    }
+}
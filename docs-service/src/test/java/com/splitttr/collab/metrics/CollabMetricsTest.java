@@ -0,0 +1,65 @@
+package com.splitttr.collab.metrics;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// CollabMetricsTest.
+class CollabMetricsTest {
+
+    private static CollabMetrics metrics(int hotDocuments) {
+        var metrics = new CollabMetrics();
+        metrics.registry = new SimpleMeterRegistry();
+        metrics.hotDocuments = hotDocuments;
+        metrics.init();
+        return metrics;
+    }
+
+    @Test
+    void hotDocumentsAreRankedByEditsInTheLastWindow() {
+        var metrics = metrics(2);
+        for (int i = 0; i < 5; i++) metrics.editApplied("a", 1_000);
+        for (int i = 0; i < 9; i++) metrics.editApplied("b", 1_000);
+        metrics.editApplied("c", 1_000);
+
+        assertTrue(metrics.hotDocuments().isEmpty(), "nothing until the window closes");
+        metrics.rollWindow();
+        assertEquals(List.of(new CollabMetrics.HotDocument("b", 9), new CollabMetrics.HotDocument("a", 5)),
+            metrics.hotDocuments());
+
+        metrics.editApplied("c", 1_000);
+        metrics.rollWindow();
+        assertEquals(List.of(new CollabMetrics.HotDocument("c", 1)), metrics.hotDocuments());
+    }
+
+    @Test
+    void messagesAreCountedByTheirTypeAndUnknownOnesTogether() {
+        var metrics = metrics(2);
+        for (String type : List.of("join", "edit", "edits", "cursor", "range", "range", "leave", "bogus")) {
+            metrics.messageReceived(type);
+        }
+        metrics.messageReceived(null);
+
+        assertEquals(2.0, count(metrics, "range"));
+        assertEquals(1.0, count(metrics, "edits"));
+        assertEquals(2.0, count(metrics, "unknown"));
+    }
+
+    @Test
+    void socketErrorsAreCountedByStage() {
+        var metrics = metrics(2);
+        metrics.socketError("message");
+        metrics.socketError("message");
+        metrics.socketError("transport");
+
+        assertEquals(2.0, metrics.registry.get("collab.socket.errors").tag("stage", "message").counter().count());
+        assertEquals(1.0, metrics.registry.get("collab.socket.errors").tag("stage", "transport").counter().count());
+    }
+
+    private static double count(CollabMetrics metrics, String type) {
+        return metrics.registry.get("collab.messages").tag("type", type).counter().count();
+    }
+}
@@ -0,0 +1,627 @@
+package com.splitttr.collab.session;
+
+import com.splitttr.collab.message.BinaryCodec;
+import com.splitttr.collab.message.EditOperation;
+import com.splitttr.collab.message.ServerMessage;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// DocumentSessionTest.
+class DocumentSessionTest {
+
+    // Records frames; completes sends immediately unless told to stall.
+    private static class RecordingSink implements OutboundQueue.Sink {
+        final List<String> sent = new ArrayList<>();
+        boolean stalled;
+
+        @Override
+        public CompletionStage<Void> send(String text) {
+            sent.add(text);
+            return stalled ? new CompletableFuture<>() : CompletableFuture.completedFuture(null);
+        }
+
+        @Override
+        public void close() {}
+    }
+
+    // Records binary frames.
+    private static class BinarySink extends RecordingSink {
+        final List<byte[]> frames = new ArrayList<>();
+
+        @Override
+        public CompletionStage<Void> send(byte[] frame) {
+            frames.add(frame);
+            return CompletableFuture.completedFuture(null);
+        }
+    }
+
+    // Ticker that holds ticks until the test fires them.
+    private static class ManualTicker implements SessionRuntime.Ticker {
+        final List<Runnable> pending = new ArrayList<>();
+
+        @Override
+        public void schedule(Runnable task, long delayMillis) {
+            pending.add(task);
+        }
+
+        void fire() {
+            var due = new ArrayList<>(pending);
+            pending.clear();
+            due.forEach(Runnable::run);
+        }
+    }
+
+    @Test
+    void editsMarkTheSessionDirtyUntilPersisted() {
+        DocumentSession session = new DocumentSession("doc-1");
+        session.initContent("hello", 7);
+        assertFalse(session.isDirty());
+
+        session.applyEdit("insert", 5, " world", 0);
+        session.applyEdit("delete", 0, null, 1);
+        assertTrue(session.isDirty());
+        assertEquals(2, session.unpersistedEdits());
+        assertEquals(7, session.unpersistedChars());
+
+        var flushed = session.snapshot();
+        session.applyEdit("replace", 0, "J", 1);
+        session.markPersisted(flushed, flushed.version());
+
+        // The edit made while the flush was in flight is still pending
+        assertTrue(session.isDirty());
+        assertEquals(1, session.unpersistedEdits());
+        assertEquals(2, session.unpersistedChars());
+        assertEquals("Jllo world", session.getContent());
+
+        session.markPersisted(session.snapshot(), session.getVersion());
+        assertFalse(session.isDirty());
+    }
+
+    @Test
+    void reconnectingClientGetsOnlyMissedOpsWhileTheyAreBuffered() {
+        DocumentSession session = new DocumentSession("doc-1", SessionRuntime.direct(new SessionSettings(64, 1024, 3, 50, 10)));
+        session.initContent("", 10);
+        for (int i = 0; i < 5; i++) {
+            session.applyEdit(new EditOperation("u1", "insert", i, "x", 0, 10 + i));
+        }
+
+        // Runs of one user's typing come back merged
+        assertEquals(List.of(new EditOperation("u1", "insert", 3, "xx", 0, 13)), session.opsSince(13));
+        assertEquals(0, session.opsSince(15).size());
+        assertNull(session.opsSince(11), "gap larger than the buffer needs a full init");
+        assertNull(session.opsSince(16), "client ahead of the server needs a full init");
+    }
+
+    @Test
+    void rejoiningUserWhoseOwnOpLandedAfterItsVersionStartsOver() {
+        DocumentSession session = new DocumentSession("doc-1", SessionRuntime.direct(SessionSettings.defaults()));
+        session.initContent("", 10);
+        session.applyEdit(new EditOperation("u1", "insert", 0, "a", 0, 10));
+        session.applyEdit(new EditOperation("u2", "insert", 1, "b", 0, 11));
+
+        assertEquals(List.of(new EditOperation("u2", "insert", 1, "b", 0, 11)), session.resumeOps("u1", 11));
+        // u1 does not know whether its op reached the server, so it cannot be resumed past it
+        assertNull(session.resumeOps("u1", 10));
+        assertEquals(2, session.resumeOps("u3", 10).size());
+    }
+
+    @Test
+    void cursorMovesAreBatchedIntoOnePresenceFramePerTick() {
+        var ticker = new ManualTicker();
+        var runtime = new SessionRuntime(Runnable::run, ticker, new SessionSettings(64, 1024, 16, 50, 10), new OutboundMetrics());
+        var session = new DocumentSession("doc-1", runtime);
+        var alice = new RecordingSink();
+        var bob = new RecordingSink();
+        session.addUser("alice", "Alice", alice);
+        session.addUser("bob", "Bob", bob);
+
+        for (int i = 0; i < 10; i++) session.updateCursor("alice", i);
+        session.updateCursor("bob", 3);
+
+        assertEquals(1, ticker.pending.size(), "one tick armed no matter how many moves");
+        assertTrue(bob.sent.isEmpty());
+
+        ticker.fire();
+
+        assertEquals(1, bob.sent.size());
+        String frame = bob.sent.get(0);
+        assertTrue(frame.contains("\"type\":\"presence\""), frame);
+        assertTrue(frame.contains("\"userId\":\"alice\",\"username\":\"Alice\",\"cursorPosition\":9"), frame);
+        assertFalse(frame.contains("\"cursorPosition\":8"), frame);
+        assertTrue(ticker.pending.isEmpty(), "idle sessions do not keep ticking");
+    }
+
+    @Test
+    void presenceDroppedForALaggingRecipientIsRetriedNextTick() {
+        var ticker = new ManualTicker();
+        var runtime = new SessionRuntime(Runnable::run, ticker, new SessionSettings(1, 1024, 16, 50, 10), new OutboundMetrics());
+        var session = new DocumentSession("doc-1", runtime);
+        var alice = new RecordingSink();
+        var bob = new RecordingSink();
+        bob.stalled = true;
+        session.addUser("alice", "Alice", alice);
+        session.addUser("bob", "Bob", bob);
+
+        session.broadcast(ServerMessage.error("e1"), "alice");   // in flight to bob
+        session.broadcast(ServerMessage.error("e2"), "alice");   // queued: bob is at the high-water mark
+        session.updateCursor("alice", 5);
+        ticker.fire();
+
+        assertEquals(1, bob.sent.size());
+        assertTrue(bob.sent.get(0).contains("\"e1\""), bob.sent.get(0));
+        assertTrue(session.queuedFrames() > 0);
+        assertEquals(1, ticker.pending.size(), "retry armed for the lagging recipient");
+    }
+
+    @Test
+    void opsWithinTheWindowGoOutAsOneFramePerRecipientWithoutTheirOwnOps() {
+        var ticker = new ManualTicker();
+        var runtime = new SessionRuntime(Runnable::run, ticker, SessionSettings.defaults(), new OutboundMetrics());
+        var session = new DocumentSession("doc-1", runtime);
+        session.initContent("", 0);
+        var alice = new RecordingSink();
+        var bob = new RecordingSink();
+        var carol = new RecordingSink();
+        session.addUser("alice", "Alice", alice);
+        session.addUser("bob", "Bob", bob);
+        session.addUser("carol", "Carol", carol);
+
+        for (String ch : List.of("a", "b", "c")) {
+            var op = new EditOperation("alice", "insert", session.getContent().length(), ch, 0, 0);
+            session.publishEdit(session.applyEdit(op), op);
+        }
+        var bobOp = new EditOperation("bob", "insert", 0, "!", 0, 0);
+        session.publishEdit(session.applyEdit(bobOp), bobOp);
+
+        assertEquals(1, ticker.pending.size());
+        assertTrue(carol.sent.isEmpty());
+        ticker.fire();
+
+        assertEquals(1, carol.sent.size());
+        assertEquals(1, bob.sent.size());
+        assertEquals(1, alice.sent.size());
+        assertTrue(carol.sent.get(0).contains("\"baseVersion\":0"), carol.sent.get(0));
+        assertEquals(2, count(carol.sent.get(0), "\"type\":\"insert\""), "alice's typing merged into one op");
+        assertTrue(carol.sent.get(0).contains("\"content\":\"abc\""), carol.sent.get(0));
+        assertEquals(1, count(bob.sent.get(0), "\"userId\":\"alice\""));
+        assertEquals(0, count(bob.sent.get(0), "\"userId\":\"bob\""));
+        assertEquals(1, count(alice.sent.get(0), "\"type\":\"insert\""));
+        assertEquals("!abc", session.getContent());
+    }
+
+    @Test
+    void savedContentReachesEditorsAsTheOpsThatChangedIt() {
+        var runtime = new SessionRuntime(Runnable::run, new ManualTicker(),
+            new SessionSettings(64, 1024, 1024, 50, 0), new OutboundMetrics());
+        var session = new DocumentSession("doc-1", runtime);
+        session.initContent("Dear Bob, see you on Monday.", 4);
+        var alice = new RecordingSink();
+        session.addUser("alice", "Alice", alice);
+
+        var ops = session.applyContent("Dear Bob, see you on Tuesday!", 1000);
+        long version = session.getVersion() - ops.size();
+        for (EditOperation op : ops) session.publishEdit(++version, op);
+
+        assertEquals("Dear Bob, see you on Tuesday!", session.getContent());
+        assertEquals(4 + ops.size(), session.getVersion());
+        assertEquals(2, ops.size(), ops.toString());
+        assertEquals(2, alice.sent.size());
+        assertTrue(alice.sent.get(0).contains("\"content\":\"Tues\""), alice.sent.get(0));
+        assertTrue(alice.sent.get(1).contains("\"content\":\"!\""), alice.sent.get(1));
+        assertEquals(List.of(), session.applyContent(session.getContent(), 1000));
+    }
+
+    @Test
+    void savingUserWithTheDocumentOpenReceivesTheSavedText() {
+        var ticker = new ManualTicker();
+        var runtime = new SessionRuntime(Runnable::run, ticker, SessionSettings.defaults(), new OutboundMetrics());
+        var session = new DocumentSession("doc-1", runtime);
+        session.initContent("draft", 0);
+        var carol = new RecordingSink();
+        session.addUser("carol", "Carol", carol);
+        session.pipeline("carol");
+
+        // Carol saves from Drive while her editor is connected
+        var ops = session.applyContent("final draft", 1000);
+        long version = session.getVersion() - ops.size();
+        for (EditOperation op : ops) session.publishEdit(++version, op);
+        ticker.fire();
+
+        assertEquals(1, carol.sent.size());
+        assertTrue(carol.sent.get(0).contains("\"content\":\"final \""), carol.sent.get(0));
+        // Her next op, typed before the save reached her, is moved past it
+        var typed = session.applyClientEdit(new EditOperation("carol", "insert", 5, "!", 0, 0));
+        assertEquals("final draft!", session.getContent());
+        assertEquals(1, typed.size());
+    }
+
+    @Test
+    void joiningUserDoesNotReceiveOpsAlreadyInItsInitialState() {
+        var ticker = new ManualTicker();
+        var runtime = new SessionRuntime(Runnable::run, ticker, SessionSettings.defaults(), new OutboundMetrics());
+        var session = new DocumentSession("doc-1", runtime);
+        session.initContent("", 0);
+        var alice = new RecordingSink();
+        var bob = new RecordingSink();
+        session.addUser("alice", "Alice", alice);
+
+        var op = new EditOperation("alice", "insert", 0, "hi", 0, 0);
+        session.publishEdit(session.applyEdit(op), op);
+        session.addUser("bob", "Bob", bob);
+        ticker.fire();
+
+        assertTrue(bob.sent.isEmpty(), "bob's init already contains the op");
+    }
+
+    @Test
+    void crdtRunsAreMeasuredOnTheSequencerNotByTheCaller() {
+        var queued = new ArrayList<Runnable>();
+        var runtime = new SessionRuntime(queued::add, new ManualTicker(), SessionSettings.defaults(), new OutboundMetrics());
+        var session = new DocumentSession("doc-1", runtime);
+        session.useCrdt("node-a");
+        session.initContent("hello ".repeat(1_000), 0);
+
+        long unmeasured = session.estimatedBytes();
+        session.estimatedBytes();
+        // One measurement queued however often it is asked for, and nothing walked until it runs
+        assertEquals(1, queued.size());
+        queued.remove(0).run();
+
+        assertTrue(session.estimatedBytes() > unmeasured);
+    }
+
+    @Test
+    void onlyPersistedSessionsAreCompressedAndEditingThawsThem() {
+        var session = new DocumentSession("doc-1");
+        session.initContent("hello ".repeat(1_000), 3);
+        long before = session.estimatedBytes();
+
+        session.applyEdit("insert", 0, "x", 0);
+        session.compress();
+        assertFalse(session.isCompressed(), "unsaved edits stay in the tree");
+
+        session.markPersisted(session.snapshot(), 4);
+        session.compress();
+        assertTrue(session.isCompressed());
+        assertTrue(session.estimatedBytes() < before / 2);
+
+        session.applyEdit("delete", 0, null, 1);
+        assertFalse(session.isCompressed());
+        assertEquals("hello ".repeat(1_000), session.getContent());
+    }
+
+    @Test
+    void usersWhoseConnectionDiedAreRemoved() {
+        var session = new DocumentSession("doc-1");
+        var alive = new RecordingSink();
+        var dead = new RecordingSink() {
+            @Override
+            public boolean isOpen() {
+                return false;
+            }
+        };
+        session.addUser("alice", "Alice", alive);
+        session.addUser("bob", "Bob", dead);
+
+        assertEquals(java.util.Map.of("bob", "Bob"), session.removeClosedUsers());
+        assertEquals(1, session.getActiveUsers().size());
+        assertEquals("alice", session.getActiveUsers().get(0).userId());
+    }
+
+    @Test
+    void binaryRecipientsShareOneEncodingAndJsonRecipientsAnother() {
+        var ticker = new ManualTicker();
+        var runtime = new SessionRuntime(Runnable::run, ticker, SessionSettings.defaults(), new OutboundMetrics());
+        var session = new DocumentSession("doc-1", runtime);
+        session.initContent("", 0);
+        var alice = new RecordingSink();
+        var bob = new BinarySink();
+        var carol = new BinarySink();
+        var dave = new RecordingSink();
+        session.addUser("alice", "Alice", alice);
+        session.addUser("bob", "Bob", bob, true);
+        session.addUser("carol", "Carol", carol, true);
+        session.addUser("dave", "Dave", dave);
+        for (String user : List.of("bob", "carol")) {
+            session.sendTo(user, ServerMessage.init("doc-1", "", 0, session.getActiveUsers(), session.presenceVersion()));
+        }
+
+        var op = new EditOperation("alice", "insert", 0, "hi", 0, 0);
+        session.publishEdit(session.applyEdit(op), op);
+        ticker.fire();
+
+        assertTrue(bob.sent.isEmpty());
+        assertEquals(2, bob.frames.size());
+        assertSame(bob.frames.get(1), carol.frames.get(1));
+        assertEquals(1, dave.sent.size());
+        assertTrue(dave.sent.get(0).length() > 4 * bob.frames.get(1).length, dave.sent.get(0));
+    }
+
+    @Test
+    void binaryClientsAreToldAboutAuthorsOffTheRosterBeforeTheirOps() {
+        var ticker = new ManualTicker();
+        var runtime = new SessionRuntime(Runnable::run, ticker, SessionSettings.defaults(), new OutboundMetrics());
+        var session = new DocumentSession("doc-1", runtime);
+        session.initContent("draft", 0);
+        var bob = new BinarySink();
+        session.addUser("bob", "Bob", bob, true);
+        session.sendTo("bob", ServerMessage.init("doc-1", "draft", 0, session.getActiveUsers(), session.presenceVersion()));
+
+        for (String text : List.of("final draft", "final draft!")) {
+            var ops = session.applyContent(text, 1000);
+            long version = session.getVersion() - ops.size();
+            for (EditOperation op : ops) session.publishEdit(++version, op);
+            ticker.fire();
+        }
+
+        // init, then the server's number ahead of its first edits frame only
+        assertEquals(4, bob.frames.size());
+        byte[] users = bob.frames.get(1);
+        assertEquals(List.of(BinaryCodec.USERS, (byte) 1, (byte) 1, (byte) 6), List.of(users[0], users[1], users[2], users[3]));
+        assertEquals(DocumentSession.SERVER_USER, new String(users, 4, 6, StandardCharsets.UTF_8));
+        assertEquals(BinaryCodec.SERVER_EDITS, bob.frames.get(2)[0]);
+        assertEquals(BinaryCodec.SERVER_EDITS, bob.frames.get(3)[0]);
+    }
+
+    @Test
+    void rosterIsCachedUntilMembershipOrCursorsChange() {
+        var session = new DocumentSession("doc-1");
+        session.addUser("alice", "Alice", new RecordingSink());
+        long joined = session.presenceVersion();
+
+        var roster = session.getActiveUsers();
+        assertSame(roster, session.getActiveUsers());
+
+        session.updateCursor("alice", 4);
+        assertEquals(4, session.getActiveUsers().get(0).cursorPosition());
+        assertEquals(joined, session.presenceVersion(), "cursor moves are not membership changes");
+
+        session.addUser("bob", "Bob", new RecordingSink());
+        assertEquals(2, session.getActiveUsers().size());
+        assertEquals(joined + 1, session.presenceVersion());
+    }
+
+    @Test
+    void eachDroppedUserIsAnnouncedWithItsOwnPresenceVersion() {
+        var session = new DocumentSession("doc-1");
+        var alice = new RecordingSink();
+        var dead = new RecordingSink() {
+            @Override
+            public boolean isOpen() {
+                return false;
+            }
+        };
+        session.addUser("alice", "Alice", alice);
+        session.addUser("bob", "Bob", dead);
+        session.addUser("carol", "Carol", dead);
+        long before = session.presenceVersion();
+
+        session.removeClosedUsers();
+
+        assertEquals(2, alice.sent.size());
+        assertTrue(alice.sent.get(0).contains("\"presenceVersion\":" + (before + 1)), alice.sent.get(0));
+        assertTrue(alice.sent.get(1).contains("\"presenceVersion\":" + (before + 2)), alice.sent.get(1));
+        assertFalse(alice.sent.get(0).contains("activeUsers"), alice.sent.get(0));
+    }
+
+    @Test
+    void tasksSubmittedWhileLoadingRunAfterTheContentArrives() {
+        var session = DocumentSession.loading("doc-1", SessionRuntime.direct());
+        List<String> seen = new ArrayList<>();
+        session.submit(() -> seen.add(session.getContent()));
+        session.submit(() -> session.applyEdit("insert", 5, "!", 0));
+        assertTrue(session.isLoading());
+        assertTrue(seen.isEmpty(), "held until loaded");
+
+        session.loaded("hello", 3);
+
+        assertFalse(session.isLoading());
+        assertEquals(List.of("hello"), seen);
+        assertEquals("hello!", session.getContent());
+        assertEquals(4, session.getVersion());
+    }
+
+    @Test
+    void aFailedLoadClosesTheSessionAndReleasesQueuedTasks() {
+        var session = DocumentSession.loading("doc-1", SessionRuntime.direct());
+        List<Throwable> seen = new ArrayList<>();
+        session.submit(() -> seen.add(session.loadFailure()));
+
+        var cause = new IllegalStateException("store down");
+        session.loadFailed(cause);
+
+        assertEquals(List.of(cause), seen);
+        assertTrue(session.isClosed());
+        assertEquals("", session.getContent(), "never initialized as an empty document");
+    }
+
+    @Test
+    void viewersGetOneDigestPerIntervalOffTheEditorFanOut() {
+        var ticker = new ManualTicker();
+        var runtime = new SessionRuntime(Runnable::run, ticker, new SessionSettings(64, 1024, 64, 50, 0, 500, 1000),
+            new OutboundMetrics());
+        var session = new DocumentSession("doc-1", runtime);
+        session.initContent("", 0);
+        var alice = new RecordingSink();
+        var early = new RecordingSink();
+        var late = new RecordingSink();
+        session.addUser("alice", "Alice", alice);
+        session.addViewer("v1", early, false);
+
+        for (String ch : List.of("a", "b", "c")) {
+            var op = new EditOperation("alice", "insert", session.getContent().length(), ch, 0, 0);
+            session.publishEdit(session.applyEdit(op), op);
+        }
+        session.addViewer("v2", late, false);
+        var op = new EditOperation("alice", "insert", 3, "d", 0, 0);
+        session.publishEdit(session.applyEdit(op), op);
+
+        assertEquals(1, early.sent.size(), "only the init before the tick");
+        assertTrue(late.sent.get(0).contains("\"content\":\"abc\""), late.sent.get(0));
+        assertEquals(1, ticker.pending.size());
+        assertTrue(alice.sent.isEmpty(), "viewers are not announced to editors");
+        ticker.fire();
+
+        assertEquals(2, early.sent.size());
+        assertEquals(1, count(early.sent.get(1), "\"type\":\"insert\""));
+        assertTrue(early.sent.get(1).contains("\"content\":\"abcd\""), early.sent.get(1));
+        assertTrue(early.sent.get(1).contains("\"baseVersion\":0"), early.sent.get(1));
+        assertEquals(1, count(late.sent.get(1), "\"type\":\"insert\""), "ops in its init are left out");
+        assertTrue(late.sent.get(1).contains("\"baseVersion\":3"), late.sent.get(1));
+        assertEquals(1, session.userCount());
+        assertEquals(2, session.viewerCount());
+    }
+
+    @Test
+    void viewersTooFarBehindForADigestGetASnapshot() {
+        var ticker = new ManualTicker();
+        var runtime = new SessionRuntime(Runnable::run, ticker, new SessionSettings(64, 1024, 64, 50, 0, 500, 2),
+            new OutboundMetrics());
+        var session = new DocumentSession("doc-1", runtime);
+        session.initContent("", 0);
+        var viewer = new RecordingSink();
+        session.addViewer("v1", viewer, false);
+
+        for (int i = 0; i < 3; i++) {
+            var op = new EditOperation("alice", "insert", i, "x", 0, 0);
+            session.publishEdit(session.applyEdit(op), op);
+        }
+        ticker.fire();
+
+        String frame = viewer.sent.get(1);
+        assertTrue(frame.contains("\"type\":\"snapshot\""), frame);
+        assertTrue(frame.contains("\"content\":\"xxx\",\"version\":3"), frame);
+    }
+
+    @Test
+    void rangeModeClientsGetShiftsForOpsOutsideTheirSpans() {
+        var ticker = new ManualTicker();
+        var runtime = new SessionRuntime(Runnable::run, ticker, SessionSettings.defaults(), new OutboundMetrics());
+        var session = new DocumentSession("doc-1", runtime);
+        session.initContent("0123456789".repeat(100), 0);
+        var alice = new RecordingSink();
+        var bob = new RecordingSink();
+        session.addUser("alice", "Alice", alice);
+        session.addUser("bob", "Bob", bob);
+        session.sendInitialRange("bob", 100, 10);
+
+        var far = new EditOperation("alice", "insert", 900, "far away", 0, 0);
+        session.publishEdit(session.applyEdit(far), far);
+        var near = new EditOperation("alice", "replace", 0, "head", 2, 0);
+        session.publishEdit(session.applyEdit(near), near);
+        ticker.fire();
+        session.sendRange("bob", 0, 4);
+
+        assertTrue(bob.sent.get(0).contains("\"type\":\"init_range\""), bob.sent.get(0));
+        assertTrue(bob.sent.get(0).contains("\"content\":\"0123456789\""), bob.sent.get(0));
+        assertTrue(bob.sent.get(0).contains("\"length\":1000"), bob.sent.get(0));
+        assertTrue(bob.sent.get(1).contains("\"type\":\"shift\",\"position\":900,\"deleteCount\":-8"), bob.sent.get(1));
+        assertTrue(bob.sent.get(1).contains("\"type\":\"shift\",\"position\":0,\"deleteCount\":-2"), bob.sent.get(1));
+        assertTrue(alice.sent.isEmpty(), "the author gets none of its own ops");
+        assertTrue(bob.sent.get(2).contains("\"content\":\"head\""), bob.sent.get(2));
+        assertTrue(bob.sent.get(2).contains("\"rangeStart\":0"), bob.sent.get(2));
+        assertTrue(bob.sent.get(2).contains("\"length\":1010"), bob.sent.get(2));
+
+        var nowNear = new EditOperation("alice", "insert", 3, "!", 0, 0);
+        session.publishEdit(session.applyEdit(nowNear), nowNear);
+        ticker.fire();
+        assertTrue(bob.sent.get(3).contains("\"type\":\"insert\""), bob.sent.get(3));
+    }
+
+    @Test
+    void crdtDocumentsResolveClientOpsAgainstTheVersionTheirAuthorSaw() {
+        var positional = new DocumentSession("doc-1");
+        var crdt = new DocumentSession("doc-2");
+        crdt.useCrdt("node-a");
+        for (var session : List.of(positional, crdt)) {
+            session.initContent("hello world", 0);
+            session.applyClientEdit(new EditOperation("alice", "insert", 0, ">> ", 0, 0));
+            // Replayed ops are already at current positions
+            session.applyEdit(new EditOperation("alice", "delete", 0, null, 1, 1));
+        }
+
+        var applied = crdt.applyClientEdit(new EditOperation("bob", "insert", 6, "big ", 0, 0));
+        positional.applyClientEdit(new EditOperation("bob", "insert", 6, "big ", 0, 0));
+
+        assertEquals("> hello big world", crdt.getContent());
+        assertEquals(List.of(new EditOperation("bob", "insert", 8, "big ", 0, 0)), applied);
+        assertEquals(3, crdt.getVersion());
+        assertEquals("> hellbig o world", positional.getContent(), "positional ops land where they say");
+    }
+
+    @Test
+    void crdtOpsSentAtTheLastVersionReceivedLandPastAnInterleavedAuthor() {
+        var current = new DocumentSession("doc-1");
+        var stale = new DocumentSession("doc-2");
+        for (var session : List.of(current, stale)) {
+            session.useCrdt("node-a");
+            session.initContent("hello world", 0);
+            // bob saw this one in an edits frame; his page was loaded at version 0
+            session.applyClientEdit(new EditOperation("alice", "insert", 0, ">> ", 0, 0));
+            // ...and this one landed before his op arrived
+            session.applyClientEdit(new EditOperation("alice", "insert", 0, "! ", 0, 1));
+        }
+
+        current.applyClientEdit(new EditOperation("bob", "insert", 9, "big ", 0, 1));
+        stale.applyClientEdit(new EditOperation("bob", "insert", 9, "big ", 0, 0));
+
+        assertEquals("! >> hello big world", current.getContent());
+        assertEquals("! >> hello worbig ld", stale.getContent(), "the load's version misreads bob's view");
+    }
+
+    @Test
+    void pipeliningClientsGetTransformedOpsAndAcksInVersionOrder() {
+        var ticker = new ManualTicker();
+        var runtime = new SessionRuntime(Runnable::run, ticker, SessionSettings.defaults(), new OutboundMetrics());
+        var session = new DocumentSession("doc-1", runtime);
+        session.initContent("hello world", 0);
+        var alice = new RecordingSink();
+        var bob = new RecordingSink();
+        session.addUser("alice", "Alice", alice);
+        session.addUser("bob", "Bob", bob);
+        session.pipeline("alice");
+
+        var bobInsert = new EditOperation("bob", "insert", 0, ">> ", 0, 0);
+        session.publishEdit(session.applyEdit(bobInsert), bobInsert);
+        // Alice had not seen bob's insert yet
+        var applied = session.applyClientEdit(new EditOperation("alice", "insert", 11, "!", 0, 0));
+        session.publishEdit(session.getVersion(), applied.get(0));
+        session.acknowledge("alice", session.getVersion());
+        var bobDelete = new EditOperation("bob", "delete", 0, null, 3, 0);
+        session.publishEdit(session.applyEdit(bobDelete), bobDelete);
+        ticker.fire();
+
+        assertEquals("hello world!", session.getContent());
+        assertEquals(List.of(new EditOperation("alice", "insert", 14, "!", 0, 0)), applied);
+        assertEquals(3, alice.sent.size(), alice.sent.toString());
+        assertTrue(alice.sent.get(0).contains("\"version\":1"), alice.sent.get(0));
+        assertTrue(alice.sent.get(1).startsWith("{\"type\":\"ack\""), alice.sent.get(1));
+        assertTrue(alice.sent.get(1).contains("\"version\":2"), alice.sent.get(1));
+        assertTrue(alice.sent.get(2).contains("\"baseVersion\":2"), alice.sent.get(2));
+        assertEquals(1, bob.sent.size());
+        assertFalse(bob.sent.get(0).contains("ack"));
+
+        // Content replaced out of band: alice's next op is too old to transform, so she starts over once
+        session.initContent("fresh", 10);
+        assertNull(session.applyClientEdit(new EditOperation("alice", "insert", 0, "x", 0, 3)));
+        assertNull(session.applyClientEdit(new EditOperation("alice", "insert", 1, "y", 0, 3)));
+        assertEquals(4, alice.sent.size());
+        assertTrue(alice.sent.get(3).startsWith("{\"type\":\"init\""), alice.sent.get(3));
+        assertEquals("fresh", session.getContent());
+        assertEquals(List.of(new EditOperation("alice", "insert", 0, "x", 0, 10)),
+            session.applyClientEdit(new EditOperation("alice", "insert", 0, "x", 0, 10)));
+    }
+
+    private static int count(String haystack, String needle) {
+        int n = 0;
+        for (int i = haystack.indexOf(needle); i >= 0; i = haystack.indexOf(needle, i + 1)) n++;
+        return n;
+    }
+}
@@ -0,0 +1,123 @@
+package com.splitttr.collab.session;
+
+import com.splitttr.collab.message.EditOperation;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// LoadedRangesTest.
+class LoadedRangesTest {
+
+    // A range-mode client following the README rules: loaded segments plus shifts, no full text.
+    private static class Client {
+        final List<int[]> starts = new ArrayList<>();
+        final List<StringBuilder> texts = new ArrayList<>();
+
+        void load(int start, String text) {
+            int i = 0;
+            while (i < starts.size() && starts.get(i)[0] < start) i++;
+            starts.add(i, new int[] {start});
+            texts.add(i, new StringBuilder(text));
+            merge();
+        }
+
+        void apply(EditOperation op) {
+            int p = op.position();
+            if ("shift".equals(op.type())) {
+                for (int[] s : starts) if (s[0] > p) s[0] -= op.deleteCount();
+                return;
+            }
+            int deleted = "insert".equals(op.type()) ? 0 : op.deleteCount();
+            String inserted = "delete".equals(op.type()) ? "" : op.content();
+            boolean taken = false;
+            for (int i = 0; i < starts.size(); i++) {
+                int start = starts.get(i)[0];
+                StringBuilder text = texts.get(i);
+                int from = Math.max(start, p), to = Math.min(start + text.length(), p + deleted);
+                if (from < to) text.delete(from - start, to - start);
+                if (start > p) start = Math.max(p, start - deleted);
+                starts.get(i)[0] = start;
+                if (inserted.isEmpty()) continue;
+                if (!taken && start <= p && p <= start + text.length()) {
+                    text.insert(p - start, inserted);
+                    taken = true;
+                } else if (start >= p) {
+                    starts.get(i)[0] = start + inserted.length();
+                }
+            }
+            merge();
+        }
+
+        private void merge() {
+            for (int i = starts.size() - 1; i > 0; i--) {
+                int beforeStart = starts.get(i - 1)[0];
+                StringBuilder before = texts.get(i - 1);
+                int start = starts.get(i)[0];
+                int overlap = beforeStart + before.length() - start;
+                if (overlap >= 0) {
+                    String text = texts.get(i).toString();
+                    before.append(text, Math.min(overlap, text.length()), text.length());
+                    starts.remove(i);
+                    texts.remove(i);
+                }
+            }
+        }
+    }
+
+    @Test
+    void opsAwayFromEveryLoadedSpanBecomeShifts() {
+        var ranges = new LoadedRanges();
+        ranges.add(100, 120);
+
+        var far = ranges.transform(new EditOperation("bob", "insert", 500, "hello", 0, 3));
+        var before = ranges.transform(new EditOperation("bob", "replace", 10, "xy", 5, 3));
+        var inside = ranges.transform(new EditOperation("bob", "delete", 90, null, 15, 3));
+
+        assertEquals(new EditOperation("bob", "shift", 500, null, -5, 3), far);
+        assertEquals(new EditOperation("bob", "shift", 10, null, 3, 3), before);
+        assertEquals("delete", inside.type(), "overlaps the span");
+        assertArrayEquals(new int[] {90, 102}, ranges.spans().get(0));
+    }
+
+    @Test
+    void aClientFollowingTheRulesKeepsItsSpansEqualToTheDocument() {
+        Random random = new Random(7);
+        StringBuilder doc = new StringBuilder("x".repeat(2_000));
+        var ranges = new LoadedRanges();
+        var client = new Client();
+        ranges.add(900, 1_000);
+        client.load(900, doc.substring(900, 1_000));
+
+        for (int i = 0; i < 5_000; i++) {
+            if (random.nextInt(200) == 0) {
+                int start = random.nextInt(doc.length() + 1);
+                int end = Math.min(doc.length(), start + random.nextInt(50));
+                ranges.add(start, end);
+                client.load(start, doc.substring(start, end));
+                continue;
+            }
+            int p = random.nextInt(doc.length() + 1);
+            int deleted = Math.min(doc.length() - p, random.nextInt(20));
+            String text = Character.toString('a' + random.nextInt(26)).repeat(random.nextInt(5));
+            EditOperation op = switch (random.nextInt(3)) {
+                case 0 -> new EditOperation("bob", "insert", p, text, 0, i);
+                case 1 -> new EditOperation("bob", "delete", p, null, deleted, i);
+                default -> new EditOperation("bob", "replace", p, text, deleted, i);
+            };
+            doc.replace(p, p + ("insert".equals(op.type()) ? 0 : deleted), "delete".equals(op.type()) ? "" : text);
+            client.apply(ranges.transform(op));
+
+            assertEquals(ranges.spans().size(), client.starts.size(), "op " + i);
+            for (int s = 0; s < client.starts.size(); s++) {
+                int start = client.starts.get(s)[0];
+                String loaded = client.texts.get(s).toString();
+                assertArrayEquals(new int[] {start, start + loaded.length()}, ranges.spans().get(s), "op " + i);
+                assertEquals(doc.substring(start, start + loaded.length()), loaded, "op " + i);
+            }
+        }
+    }
+}
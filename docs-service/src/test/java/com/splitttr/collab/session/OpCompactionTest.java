@@ -0,0 +1,90 @@
+package com.splitttr.collab.session;
+
+import com.splitttr.collab.message.EditOperation;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// OpCompactionTest.
+class OpCompactionTest {
+
+    @Test
+    void typingAndBackspacingMergeIntoOneOpEach() {
+        List<EditOperation> typed = new ArrayList<>();
+        for (int i = 0; i < 5; i++) typed.add(new EditOperation("alice", "insert", 10 + i, "hello".substring(i, i + 1), 0, 3));
+        assertEquals(List.of(new EditOperation("alice", "insert", 10, "hello", 0, 3)), OpCompaction.compact(typed));
+
+        List<EditOperation> backspaced = new ArrayList<>();
+        for (int i = 0; i < 4; i++) backspaced.add(new EditOperation("alice", "delete", 9 - i, null, 1, 3));
+        assertEquals(List.of(new EditOperation("alice", "delete", 6, null, 4, 3)), OpCompaction.compact(backspaced));
+    }
+
+    @Test
+    void textTypedAndDeletedAgainCancelsOut() {
+        var ops = List.of(
+            new EditOperation("alice", "insert", 4, "teh", 0, 0),
+            new EditOperation("alice", "delete", 6, null, 1, 0),
+            new EditOperation("alice", "delete", 5, null, 1, 0),
+            new EditOperation("alice", "delete", 4, null, 1, 0));
+
+        assertEquals(List.of(), OpCompaction.compact(ops));
+    }
+
+    @Test
+    void opsByOtherUsersOrFarApartAreKept() {
+        var ops = List.of(
+            new EditOperation("alice", "insert", 0, "a", 0, 0),
+            new EditOperation("bob", "insert", 1, "b", 0, 0),
+            new EditOperation("bob", "insert", 40, "c", 0, 0));
+
+        assertSame(ops, OpCompaction.compact(ops));
+    }
+
+    @Test
+    void compactedOpsHaveTheSameEffect() {
+        Random random = new Random(9);
+        for (int round = 0; round < 500; round++) {
+            StringBuilder text = new StringBuilder("0123456789abcdefghij");
+            String initial = text.toString();
+            List<EditOperation> ops = new ArrayList<>();
+            int cursor = random.nextInt(text.length());
+            for (int i = 0; i < 30; i++) {
+                // Mostly edits near a cursor, so runs form, with an occasional jump or second user
+                if (random.nextInt(8) == 0) cursor = random.nextInt(text.length() + 1);
+                String user = random.nextInt(6) == 0 ? "bob" : "alice";
+                EditOperation op = randomOp(random, user, text.length(), Math.min(cursor, text.length()));
+                ops.add(op);
+                apply(text, op);
+                cursor = Math.min(op.position() + (op.content() == null ? 0 : op.content().length()), text.length());
+            }
+
+            List<EditOperation> compacted = OpCompaction.compact(ops);
+            StringBuilder replayed = new StringBuilder(initial);
+            compacted.forEach(op -> apply(replayed, op));
+
+            assertEquals(text.toString(), replayed.toString(), "round " + round + ": " + ops);
+            assertTrue(compacted.size() <= ops.size());
+        }
+    }
+
+    private static EditOperation randomOp(Random random, String user, int length, int cursor) {
+        int deleteBack = Math.min(cursor, 1 + random.nextInt(2));
+        int deleteAhead = Math.min(length - cursor, 1 + random.nextInt(2));
+        String text = Character.toString('k' + random.nextInt(16)).repeat(1 + random.nextInt(2));
+        return switch (random.nextInt(4)) {
+            case 0, 1 -> new EditOperation(user, "insert", cursor, text, 0, 0);
+            case 2 -> deleteBack == 0 ? new EditOperation(user, "insert", cursor, text, 0, 0)
+                : new EditOperation(user, "delete", cursor - deleteBack, null, deleteBack, 0);
+            default -> new EditOperation(user, "replace", cursor, text, deleteAhead, 0);
+        };
+    }
+
+    private static void apply(StringBuilder text, EditOperation op) {
+        int end = op.position() + ("insert".equals(op.type()) ? 0 : op.deleteCount());
+        text.replace(op.position(), end, op.content() == null ? "" : op.content());
+    }
+}
@@ -0,0 +1,55 @@
+package com.splitttr.collab.session;
+
+import com.splitttr.collab.message.EditOperation;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// OpHistoryTest.
+class OpHistoryTest {
+
+    private static EditOperation insert(String text) {
+        return new EditOperation("u1", "insert", 0, text, 0, 0);
+    }
+
+    @Test
+    void rangeReturnsOpsInVersionOrder() {
+        OpHistory history = new OpHistory(8);
+        history.reset(10);
+        for (int i = 1; i <= 5; i++) history.append(10 + i, insert("op" + i));
+
+        assertEquals(List.of(insert("op2"), insert("op3"), insert("op4")), history.range(11, 14));
+        assertEquals(List.of(), history.range(15, 15));
+        assertNull(history.range(14, 16), "future versions are not available");
+    }
+
+    @Test
+    void overwrittenOpsAreReportedAsMissing() {
+        OpHistory history = new OpHistory(4);
+        history.reset(0);
+        for (int i = 1; i <= 10; i++) history.append(i, insert("op" + i));
+
+        assertEquals(7, history.oldestVersion());
+        assertEquals(List.of(insert("op7"), insert("op8"), insert("op9"), insert("op10")), history.range(6, 10));
+        assertNull(history.range(5, 10));
+    }
+
+    @Test
+    void sessionHandsOutOnlyUnpersistedOps() {
+        DocumentSession session = new DocumentSession("doc-1");
+        session.initContent("", 4);
+
+        session.applyEdit(new EditOperation("u1", "insert", 0, "ab", 0, 4));
+        session.markPersisted(session.snapshot(), 5);
+        session.applyEdit(new EditOperation("u1", "insert", 2, "c", 0, 5));
+        session.applyEdit(new EditOperation("u2", "delete", 0, null, 1, 5));
+
+        var ops = session.unpersistedOps(session.snapshot());
+        assertEquals(2, ops.size());
+        assertEquals("c", ops.get(0).content());
+        assertEquals("delete", ops.get(1).type());
+        assertEquals("bc", session.getContent());
+    }
+}
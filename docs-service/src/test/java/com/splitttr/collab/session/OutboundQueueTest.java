@@ -0,0 +1,135 @@
+package com.splitttr.collab.session;
+
+import com.splitttr.collab.message.ServerMessage;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// OutboundQueueTest.
+class OutboundQueueTest {
+
+    // Sink whose sends stay pending until the test completes them, like a stalled client.
+    private static class ManualSink implements OutboundQueue.Sink {
+        final List<String> sent = new ArrayList<>();
+        final List<CompletableFuture<Void>> inFlight = new ArrayList<>();
+        boolean closed;
+
+        @Override
+        public CompletionStage<Void> send(String text) {
+            sent.add(text);
+            var f = new CompletableFuture<Void>();
+            inFlight.add(f);
+            return f;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+
+        void completeAll() {
+            while (!inFlight.isEmpty()) {
+                inFlight.remove(0).complete(null);
+            }
+        }
+    }
+
+    @Test
+    void framesAreWrittenInOrderOneAtATime() {
+        var sink = new ManualSink();
+        var queue = new OutboundQueue(sink, new SessionSettings(8, 100, 16, 50, 10), new OutboundMetrics());
+
+        queue.enqueue("a");
+        queue.enqueue("b");
+        queue.enqueue("c");
+
+        assertEquals(List.of("a"), sink.sent);
+        assertEquals(2, queue.depth());
+
+        sink.completeAll();
+        sink.completeAll();
+        sink.completeAll();
+        assertEquals(List.of("a", "b", "c"), sink.sent);
+        assertEquals(0, queue.depth());
+    }
+
+    @Test
+    void presenceFramesAreDroppedAboveHighWaterButEditsAreKept() {
+        var sink = new ManualSink();
+        var metrics = new OutboundMetrics();
+        var queue = new OutboundQueue(sink, new SessionSettings(2, 100, 16, 50, 10), metrics);
+
+        queue.enqueue("e1");    // in flight
+        queue.enqueue("e2");
+        assertTrue(queue.enqueuePresence("p1"));
+        assertFalse(queue.enqueuePresence("p2"));
+        queue.enqueue("e3");
+
+        for (int i = 0; i < 5; i++) sink.completeAll();
+
+        assertEquals(List.of("e1", "e2", "p1", "e3"), sink.sent);
+        assertEquals(1, metrics.presenceFramesDropped());
+        assertFalse(sink.closed);
+    }
+
+    @Test
+    void consumerPastTheLimitIsDisconnected() {
+        var sink = new ManualSink();
+        var metrics = new OutboundMetrics();
+        var queue = new OutboundQueue(sink, new SessionSettings(2, 3, 16, 50, 10), metrics);
+
+        for (int i = 0; i < 5; i++) queue.enqueue("e" + i);
+
+        assertTrue(sink.closed);
+        assertTrue(queue.isEvicted());
+        assertEquals(0, queue.depth());
+        assertEquals(1, metrics.slowConsumerEvictions());
+
+        sink.completeAll();
+        assertEquals(List.of("e0"), sink.sent);
+    }
+
+    @Test
+    void closeWhenDrainedWritesQueuedFramesFirst() {
+        var sink = new ManualSink();
+        var queue = new OutboundQueue(sink, new SessionSettings(8, 100, 16, 50, 10), new OutboundMetrics());
+
+        queue.enqueue("a");
+        queue.enqueue("redirect");
+        queue.closeWhenDrained();
+        queue.enqueue("late");
+        assertFalse(sink.closed);
+
+        sink.completeAll();
+        sink.completeAll();
+        assertEquals(List.of("a", "redirect"), sink.sent);
+        assertTrue(sink.closed);
+    }
+
+    @Test
+    void slowRecipientDoesNotDelayOthers() {
+        var slow = new ManualSink();
+        var fast = new ManualSink() {
+            @Override
+            public CompletionStage<Void> send(String text) {
+                sent.add(text);
+                return CompletableFuture.completedFuture(null);
+            }
+        };
+        var session = new DocumentSession("doc-1");
+        session.initContent("", 0);
+        session.addUser("slow", "slow", slow);
+        session.addUser("fast", "fast", fast);
+
+        for (int i = 0; i < 10; i++) session.broadcast(ServerMessage.error("m" + i), null);
+
+        assertEquals(10, fast.sent.size());
+        assertEquals(1, slow.sent.size());
+        assertEquals(9, session.queuedFrames());
+    }
+}
@@ -0,0 +1,151 @@
+package com.splitttr.collab.session;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// RopeTest.
+class RopeTest {
+
+    // Reference implementation: the substring logic DocumentSession used before the rope.
+    private static String apply(String content, String type, int position, String text, int deleteCount) {
+        return switch (type) {
+            case "insert" -> content.substring(0, position) + text + content.substring(position);
+            case "delete" -> content.substring(0, position) + content.substring(position + deleteCount);
+            case "replace" -> content.substring(0, position) + text + content.substring(position + deleteCount);
+            default -> content;
+        };
+    }
+
+    private static Rope apply(Rope rope, String type, int position, String text, int deleteCount) {
+        return switch (type) {
+            case "insert" -> rope.insert(position, text);
+            case "delete" -> rope.delete(position, deleteCount);
+            case "replace" -> rope.replace(position, deleteCount, text);
+            default -> rope;
+        };
+    }
+
+    @Test
+    void basicEdits() {
+        Rope rope = Rope.of("hello world");
+        assertEquals("hello, world", rope.insert(5, ",").toString());
+        assertEquals("hello", rope.delete(5, 6).toString());
+        assertEquals("hello there", rope.replace(6, 5, "there").toString());
+        assertEquals("hello world", rope.toString(), "edits must not mutate the original rope");
+    }
+
+    @Test
+    void emptyRope() {
+        Rope rope = Rope.empty();
+        assertEquals(0, rope.length());
+        assertEquals("", rope.toString());
+        assertEquals("abc", rope.insert(0, "abc").toString());
+        assertSame(rope, Rope.of(""));
+    }
+
+    @Test
+    void outOfBoundsEditsAreRejected() {
+        Rope rope = Rope.of("abc");
+        assertThrows(IndexOutOfBoundsException.class, () -> rope.insert(4, "x"));
+        assertThrows(IndexOutOfBoundsException.class, () -> rope.delete(2, 2));
+        assertThrows(IndexOutOfBoundsException.class, () -> rope.replace(-1, 1, "x"));
+        assertThrows(IndexOutOfBoundsException.class, () -> rope.charAt(3));
+    }
+
+    @Test
+    void typingAtEndMatchesSubstringLogic() {
+        String expected = "";
+        Rope rope = Rope.empty();
+        for (int i = 0; i < 20_000; i++) {
+            String ch = String.valueOf((char) ('a' + i % 26));
+            expected = apply(expected, "insert", expected.length(), ch, 0);
+            rope = apply(rope, "insert", rope.length(), ch, 0);
+        }
+        assertEquals(expected, rope.toString());
+        assertTrue(rope.depth() < 16, "rope should stay balanced, depth " + rope.depth());
+    }
+
+    @Test
+    void randomEditsMatchSubstringLogic() {
+        Random random = new Random(42);
+        String expected = randomText(random, 5_000);
+        Rope rope = Rope.of(expected);
+        String[] types = { "insert", "delete", "replace" };
+
+        for (int i = 0; i < 5_000; i++) {
+            String type = types[random.nextInt(types.length)];
+            int position = random.nextInt(expected.length() + 1);
+            int deleteCount = type.equals("insert") ? 0 : random.nextInt(Math.min(expected.length() - position, 40) + 1);
+            String text = type.equals("delete") ? "" : randomText(random, 1 + random.nextInt(random.nextInt(10) == 0 ? 2_000 : 8));
+
+            expected = apply(expected, type, position, text, deleteCount);
+            rope = apply(rope, type, position, text, deleteCount);
+
+            assertEquals(expected.length(), rope.length());
+        }
+
+        assertEquals(expected, rope.toString());
+        for (int i = 0; i < 200; i++) {
+            int start = random.nextInt(expected.length() + 1);
+            int end = start + random.nextInt(expected.length() - start + 1);
+            assertEquals(expected.substring(start, end), rope.substring(start, end));
+            if (start < expected.length()) assertEquals(expected.charAt(start), rope.charAt(start));
+        }
+    }
+
+    @Test
+    void documentSessionAppliesEditsThroughRope() {
+        DocumentSession session = new DocumentSession("doc-1");
+        session.initContent("hello world", 3);
+
+        session.applyEdit("insert", 5, ",", 0);
+        session.applyEdit("replace", 7, "there", 5);
+        session.applyEdit("delete", 0, null, 0);
+
+        assertEquals("hello, there", session.getContent());
+        assertEquals(6, session.getVersion());
+    }
+
+    private static String randomText(Random random, int length) {
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            sb.append((char) ('a' + random.nextInt(26)));
+        }
+        return sb.toString();
+    }
+
+    @Test
+    void compressedRopeReadsBackTheSameTextInLessSpace() {
+        String text = "lorem ipsum dolor sit amet ".repeat(2_000) + "żółw";
+        Rope rope = Rope.of(text).insert(10, "x");
+        Rope packed = rope.compress();
+
+        assertTrue(packed.isCompressed());
+        assertEquals(rope.length(), packed.length());
+        assertTrue(packed.estimatedBytes() * 10 < rope.estimatedBytes(), "deflated well below the tree");
+
+        assertEquals(rope.toString(), packed.toString());
+        assertFalse(packed.isCompressed());
+        assertEquals(rope.toString() + "!", packed.insert(packed.length(), "!").toString());
+    }
+
+    @Test
+    void compressionKeepsUnpairedSurrogatesAndDropsTheBytesOnceRead() {
+        // A half-typed emoji: the high surrogate arrives in one edit, its low half in the next
+        String text = "abc ".repeat(1_000) + "\uD83D" + " tail";
+        Rope packed = Rope.of(text).compress();
+        Rope plain = Rope.of(text);
+
+        assertEquals(text, packed.toString());
+        assertFalse(packed.isCompressed());
+        plain.toString();
+        assertEquals(plain.estimatedBytes(), packed.estimatedBytes(), "tree and flat text only, not the deflated copy");
+
+        Rope again = packed.compress();
+        assertTrue(again.isCompressed());
+        assertEquals(text, again.toString());
+    }
+}
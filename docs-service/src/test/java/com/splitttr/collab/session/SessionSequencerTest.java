@@ -0,0 +1,102 @@
+package com.splitttr.collab.session;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// SessionSequencerTest.
+class SessionSequencerTest {
+
+    @Test
+    void concurrentEditsAreAppliedOneAtATimeInPerProducerOrder() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            DocumentSession session = new DocumentSession("doc-1",
+                new SessionRuntime(pool, (task, delay) -> task.run(), SessionSettings.defaults(), new OutboundMetrics()));
+            session.initContent("", 0);
+
+            int producers = 8;
+            int editsPerProducer = 2_000;
+            CountDownLatch done = new CountDownLatch(producers * editsPerProducer);
+            AtomicInteger inFlight = new AtomicInteger();
+            List<Long> versions = new ArrayList<>();
+
+            List<Thread> threads = new ArrayList<>();
+            for (int p = 0; p < producers; p++) {
+                char letter = (char) ('a' + p);
+                threads.add(Thread.ofPlatform().start(() -> {
+                    for (int i = 0; i < editsPerProducer; i++) {
+                        session.submit(() -> {
+                            assertEquals(1, inFlight.incrementAndGet(), "two tasks ran at once");
+                            versions.add(session.applyEdit("insert", session.getContent().length(), String.valueOf(letter), 0));
+                            inFlight.decrementAndGet();
+                            done.countDown();
+                        });
+                    }
+                }));
+            }
+            for (Thread t : threads) t.join();
+            assertTrue(done.await(10, TimeUnit.SECONDS), "sequencer did not drain");
+
+            String content = session.getContent();
+            assertEquals(producers * editsPerProducer, content.length());
+            assertEquals(producers * editsPerProducer, session.getVersion());
+            for (int i = 0; i < versions.size(); i++) {
+                assertEquals(i + 1, versions.get(i).longValue());
+            }
+            for (int p = 0; p < producers; p++) {
+                char letter = (char) ('a' + p);
+                assertEquals(editsPerProducer, content.chars().filter(c -> c == letter).count());
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    void failingTaskDoesNotStopTheInbox() {
+        List<String> ran = new ArrayList<>();
+        List<String> errors = new ArrayList<>();
+        SessionMetrics metrics = new SessionMetrics() {
+            @Override
+            public void fannedOut(String kind, int recipients, long nanos) {}
+
+            @Override
+            public void sessionError(String stage) {
+                errors.add(stage);
+            }
+        };
+        SessionSequencer sequencer = new SessionSequencer(Runnable::run, false, metrics);
+
+        sequencer.execute(() -> ran.add("first"));
+        sequencer.execute(() -> { throw new IllegalStateException("boom"); });
+        sequencer.execute(() -> ran.add("third"));
+
+        assertEquals(List.of("first", "third"), ran);
+        assertEquals(List.of("task"), errors);
+        assertEquals(0, sequencer.pending());
+    }
+
+    @Test
+    void aHeldSequencerQueuesTasksUntilReleased() {
+        List<Integer> ran = new ArrayList<>();
+        SessionSequencer sequencer = new SessionSequencer(Runnable::run, true);
+        sequencer.execute(() -> ran.add(1));
+        sequencer.execute(() -> ran.add(2));
+        assertTrue(ran.isEmpty());
+        assertEquals(2, sequencer.pending());
+
+        sequencer.release();
+        sequencer.execute(() -> ran.add(3));
+
+        assertEquals(List.of(1, 2, 3), ran);
+    }
+}
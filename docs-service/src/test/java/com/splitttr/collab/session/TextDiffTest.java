@@ -0,0 +1,85 @@
+package com.splitttr.collab.session;
+
+import com.splitttr.collab.message.EditOperation;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// TextDiffTest.
+class TextDiffTest {
+
+    @Test
+    void aSmallChangeInALargeTextIsOneSmallOp() {
+        String from = "x".repeat(10_000) + "hello world" + "y".repeat(10_000);
+        String to = "x".repeat(10_000) + "hello, world" + "y".repeat(10_000);
+
+        assertEquals(List.of(new EditOperation("alice", "insert", 10_005, ",", 0, 3)),
+            TextDiff.diff(from, to, "alice", 3, 100));
+        assertEquals(List.of(), TextDiff.diff(from, from, "alice", 3, 100));
+    }
+
+    @Test
+    void separateChangesBecomeSeparateOpsAppliedInOrder() {
+        var ops = TextDiff.diff("the quick brown fox", "the slow brown cat", "bob", 0, 100);
+
+        assertEquals(List.of(
+            new EditOperation("bob", "replace", 4, "slow", 5, 0),
+            new EditOperation("bob", "replace", 15, "cat", 3, 0)), ops);
+    }
+
+    @Test
+    void textsDifferingByMoreThanTheLimitBecomeOneReplace() {
+        var ops = TextDiff.diff("abcdefgh", "a1b2c3d4e5", "bob", 0, 4);
+
+        assertEquals(List.of(new EditOperation("bob", "replace", 1, "1b2c3d4e5", 7, 0)), ops);
+    }
+
+    @Test
+    void diffsTurnOneTextIntoTheOther() {
+        Random random = new Random(11);
+        for (int round = 0; round < 2000; round++) {
+            String from = randomText(random, random.nextInt(40));
+            StringBuilder edited = new StringBuilder(from);
+            for (int i = random.nextInt(6); i > 0; i--) {
+                int at = random.nextInt(edited.length() + 1);
+                int end = Math.min(edited.length(), at + random.nextInt(4));
+                edited.replace(at, end, randomText(random, random.nextInt(4)));
+            }
+            String to = edited.toString();
+
+            var ops = TextDiff.diff(from, to, "alice", 0, 1000);
+            StringBuilder replayed = new StringBuilder(from);
+            int changed = 0;
+            for (EditOperation op : ops) {
+                int end = op.position() + ("insert".equals(op.type()) ? 0 : op.deleteCount());
+                replayed.replace(op.position(), end, op.content() == null ? "" : op.content());
+                changed += ("insert".equals(op.type()) ? 0 : op.deleteCount())
+                    + (op.content() == null ? 0 : op.content().length());
+            }
+            assertEquals(to, replayed.toString(), "round " + round + ": " + ops);
+            // Shortest script: everything outside a longest common subsequence, nothing more
+            assertEquals(from.length() + to.length() - 2 * lcs(from, to), changed, "round " + round);
+        }
+    }
+
+    private static int lcs(String a, String b) {
+        int[][] best = new int[a.length() + 1][b.length() + 1];
+        for (int i = 1; i <= a.length(); i++) {
+            for (int j = 1; j <= b.length(); j++) {
+                best[i][j] = a.charAt(i - 1) == b.charAt(j - 1) ? best[i - 1][j - 1] + 1
+                    : Math.max(best[i - 1][j], best[i][j - 1]);
+            }
+        }
+        return best[a.length()][b.length()];
+    }
+
+    private static String randomText(Random random, int length) {
+        StringBuilder text = new StringBuilder(length);
+        // A small alphabet, so the texts share plenty of chars for the diff to keep
+        for (int i = 0; i < length; i++) text.append((char) ('a' + random.nextInt(4)));
+        return text.toString();
+    }
+}
@@ -0,0 +1,174 @@
+package com.splitttr.collab.session;
+
+import com.splitttr.collab.message.EditOperation;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// TransformWindowTest.
+class TransformWindowTest {
+
+    // A pipelining client following the README rules: it applies its ops at once, keeps them until
+    // acked, and moves each op it receives past the ones still pending.
+    private static class Client {
+        final String userId;
+        final StringBuilder text;
+        final List<List<EditOperation>> pending = new ArrayList<>();
+        long seen;
+
+        Client(String userId, String content) {
+            this.userId = userId;
+            this.text = new StringBuilder(content);
+        }
+
+        EditOperation edit(Random random) {
+            EditOperation op = randomOp(random, userId, text.length(), seen);
+            apply(text, OpTransform.components(op));
+            pending.add(OpTransform.components(op));
+            return op;
+        }
+
+        void receive(EditOperation op, long version) {
+            List<EditOperation> incoming = OpTransform.components(op);
+            for (int i = 0; i < pending.size(); i++) {
+                var moved = OpTransform.transform(pending.get(i), incoming);
+                pending.set(i, moved.a());
+                incoming = moved.b();
+            }
+            apply(text, incoming);
+            seen = version;
+        }
+
+        void ack(long version) {
+            pending.remove(0);
+            seen = version;
+        }
+    }
+
+    // Server frame to one client: an op by someone else, or an ack when op is null.
+    private record Delivery(EditOperation op, long version) {}
+
+    @Test
+    void textInsertedInsideARangeDeletedMeanwhileSurvives() {
+        var window = new TransformWindow(0, 16);
+        // Someone else deleted "bcde" of "abcdefg" while alice typed "X" after the "c"
+        window.add(1, new EditOperation("bob", "delete", 1, null, 4, 0));
+
+        var applied = window.transform(new EditOperation("alice", "insert", 3, "X", 0, 0));
+
+        assertEquals(List.of(new EditOperation("alice", "insert", 1, "X", 0, 0)), applied);
+    }
+
+    @Test
+    void pipelinedOpsLineUpBehindOpsTheClientHadNotSeen() {
+        var window = new TransformWindow(0, 16);
+        // "hello world": bob inserts at the start, alice sends two ops before hearing about it
+        window.add(1, new EditOperation("bob", "insert", 0, ">> ", 0, 0));
+
+        var first = window.transform(new EditOperation("alice", "insert", 5, ",", 0, 0));
+        var second = window.transform(new EditOperation("alice", "replace", 7, "W", 1, 0));
+
+        assertEquals(List.of(new EditOperation("alice", "insert", 8, ",", 0, 0)), first);
+        assertEquals(List.of(new EditOperation("alice", "replace", 10, "W", 1, 0)), second);
+
+        // Once alice has seen version 1, nothing is left to transform against
+        window.add(4, new EditOperation("bob", "delete", 0, null, 3, 1));
+        assertEquals(List.of(new EditOperation("alice", "insert", 0, "!", 0, 4)),
+            window.transform(new EditOperation("alice", "insert", 0, "!", 0, 4)));
+        assertEquals(0, window.size());
+    }
+
+    @Test
+    void opsOlderThanTheWindowAreRefused() {
+        var window = new TransformWindow(0, 2);
+        for (int v = 1; v <= 3; v++) window.add(v, new EditOperation("bob", "insert", 0, "x", 0, v - 1));
+
+        assertNull(window.transform(new EditOperation("alice", "insert", 0, "a", 0, 0)));
+        assertNotNull(window.transform(new EditOperation("alice", "insert", 0, "a", 0, 1)));
+
+        window.resynced(3);
+        var late = new EditOperation("alice", "insert", 0, "b", 0, 1);
+        assertNull(window.transform(late));
+        assertTrue(window.predatesResync(late));
+    }
+
+    @Test
+    void pipeliningClientsConvergeWithTheServer() {
+        Random random = new Random(5);
+        String initial = "the quick brown fox jumps over the lazy dog";
+        StringBuilder server = new StringBuilder(initial);
+        long version = 0;
+
+        List<Client> clients = new ArrayList<>();
+        Map<String, TransformWindow> windows = new HashMap<>();
+        Map<String, ArrayDeque<EditOperation>> toServer = new HashMap<>();
+        Map<String, ArrayDeque<Delivery>> toClient = new HashMap<>();
+        for (String id : List.of("alice", "bob", "carol")) {
+            clients.add(new Client(id, initial));
+            windows.put(id, new TransformWindow(0, 1024));
+            toServer.put(id, new ArrayDeque<>());
+            toClient.put(id, new ArrayDeque<>());
+        }
+
+        // Edit for a while, then deliver whatever is still in flight
+        for (int step = 0; step < 5000 || busy(toServer) || busy(toClient); step++) {
+            Client client = clients.get(random.nextInt(clients.size()));
+            int action = random.nextInt(3);
+            if (action == 0 && step < 5000) {
+                toServer.get(client.userId).add(client.edit(random));
+            } else if (action == 1 && !toServer.get(client.userId).isEmpty()) {
+                EditOperation op = toServer.get(client.userId).poll();
+                var applied = windows.get(client.userId).transform(op);
+                assertNotNull(applied, "step " + step);
+                for (EditOperation a : applied) {
+                    apply(server, OpTransform.components(a));
+                    version++;
+                    for (Client other : clients) {
+                        if (other == client) continue;
+                        windows.get(other.userId).add(version, a);
+                        toClient.get(other.userId).add(new Delivery(a, version));
+                    }
+                }
+                toClient.get(client.userId).add(new Delivery(null, version));
+            } else if (action == 2 && !toClient.get(client.userId).isEmpty()) {
+                Delivery d = toClient.get(client.userId).poll();
+                if (d.op() == null) client.ack(d.version());
+                else client.receive(d.op(), d.version());
+            }
+        }
+        assertTrue(version > 1000, "versions applied: " + version);
+        for (Client client : clients) {
+            assertTrue(client.pending.isEmpty());
+            assertEquals(server.toString(), client.text.toString(), client.userId);
+        }
+    }
+
+    private static boolean busy(Map<String, ? extends ArrayDeque<?>> queues) {
+        return queues.values().stream().anyMatch(q -> !q.isEmpty());
+    }
+
+    private static void apply(StringBuilder text, List<EditOperation> components) {
+        for (EditOperation c : components) {
+            if ("insert".equals(c.type())) text.insert(c.position(), c.content());
+            else text.delete(c.position(), c.position() + c.deleteCount());
+        }
+    }
+
+    private static EditOperation randomOp(Random random, String user, int length, long seen) {
+        int position = random.nextInt(length + 1);
+        int deleteCount = Math.min(length - position, 1 + random.nextInt(5));
+        String text = Character.toString('a' + random.nextInt(26)).repeat(1 + random.nextInt(3));
+        return switch (random.nextInt(3)) {
+            case 0 -> new EditOperation(user, "insert", position, text, 0, seen);
+            case 1 -> new EditOperation(user, "delete", position, null, deleteCount, seen);
+            default -> new EditOperation(user, "replace", position, text, deleteCount, seen);
+        };
+    }
+}
@@ -0,0 +1,205 @@
+package com.splitttr.collab.wal;
+
+import com.splitttr.collab.message.EditOperation;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// WriteAheadLogTest.
+class WriteAheadLogTest {
+
+    private Path dir;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        dir = Files.createTempDirectory("wal-test");
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    private static EditOperation insert(int position, String text) {
+        return new EditOperation("u1", "insert", position, text, 0, 0);
+    }
+
+    @Test
+    void unconfirmedOpsAreRecoveredAfterRestart() {
+        try (var wal = WriteAheadLog.open(dir, 4096)) {
+            wal.opened("doc-1", 5, 5);
+            wal.applied("doc-1", 6, insert(0, "a"));
+            wal.applied("doc-1", 7, new EditOperation(null, "delete", 0, null, 1, 3));
+            wal.sync();
+        }
+
+        try (var wal = WriteAheadLog.open(dir, 4096)) {
+            var recovery = wal.recovered().get("doc-1");
+            assertNotNull(recovery);
+            assertEquals(5, recovery.baseFor(5));
+            var ops = recovery.opsAfter(5);
+            assertEquals(List.of(insert(0, "a"), new EditOperation(null, "delete", 0, null, 1, 3)), ops);
+        }
+    }
+
+    @Test
+    void confirmedOpsAreTruncatedAndNotReplayed() {
+        try (var wal = WriteAheadLog.open(dir, 4096)) {
+            wal.opened("doc-1", 5, 5);
+            for (int v = 6; v <= 20; v++) wal.applied("doc-1", v, insert(0, "x"));
+            int before = wal.activeBytes();
+            wal.persisted("doc-1", 20, 6);
+            assertTrue(wal.activeBytes() < before / 4, "active segment rewound");
+        }
+
+        try (var wal = WriteAheadLog.open(dir, 4096)) {
+            assertTrue(wal.recovered().isEmpty());
+        }
+    }
+
+    @Test
+    void opsAfterAFlushInFlightAreReplayedOnTopOfWhatTheStoreGot() {
+        try (var wal = WriteAheadLog.open(dir, 4096)) {
+            wal.opened("doc-1", 5, 5);
+            wal.applied("doc-1", 6, insert(0, "a"));
+            wal.applied("doc-1", 7, insert(1, "b"));
+            wal.flushing("doc-1", 7, 7);
+            wal.applied("doc-1", 8, insert(2, "c"));
+        }
+
+        try (var wal = WriteAheadLog.open(dir, 4096)) {
+            var recovery = wal.recovered().get("doc-1");
+            assertEquals(5, recovery.baseFor(5), "flush never arrived");
+            assertEquals(3, recovery.opsAfter(5).size());
+            assertEquals(7, recovery.baseFor(7), "flush arrived but was not confirmed");
+            assertEquals(List.of(insert(2, "c")), recovery.opsAfter(7));
+        }
+    }
+
+    @Test
+    void storeThatMovedPastAnUnconfirmedFlushIsNotTakenForIt() {
+        try (var wal = WriteAheadLog.open(dir, 4096)) {
+            wal.opened("doc-1", 5, 5);
+            wal.applied("doc-1", 6, insert(0, "a"));
+            wal.flushing("doc-1", 6, 6);
+            wal.applied("doc-1", 7, insert(1, "b"));
+            wal.flushing("doc-1", 7, -1);
+        }
+
+        try (var wal = WriteAheadLog.open(dir, 4096)) {
+            var recovery = wal.recovered().get("doc-1");
+            assertEquals(5, recovery.baseFor(5));
+            assertEquals(-1, recovery.baseFor(6), "the last flush could have left any version");
+            assertEquals(-1, recovery.baseFor(9), "saved by someone else");
+        }
+    }
+
+    @Test
+    void reopenedDocumentDoesNotReplayOpsOfAnEarlierSession() {
+        try (var wal = WriteAheadLog.open(dir, 4096)) {
+            wal.opened("doc-1", 5, 5);
+            wal.applied("doc-1", 6, insert(0, "a"));
+            wal.applied("doc-1", 7, insert(0, "b"));
+            wal.persisted("doc-1", 6, 6);
+            wal.opened("doc-1", 6, 6);
+        }
+
+        try (var wal = WriteAheadLog.open(dir, 4096)) {
+            assertTrue(wal.recovered().isEmpty());
+        }
+    }
+
+    @Test
+    void tornRecordAtTheTailIsIgnored() throws IOException {
+        try (var wal = WriteAheadLog.open(dir, 4096)) {
+            wal.opened("doc-1", 0, 0);
+            wal.applied("doc-1", 1, insert(0, "a"));
+            wal.applied("doc-1", 2, insert(1, "b"));
+        }
+        Path segment;
+        try (Stream<Path> files = Files.list(dir)) {
+            segment = files.findFirst().orElseThrow();
+        }
+        // Flip a byte in the middle of the last record
+        try (var channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer buf = ByteBuffer.allocate(4096);
+            channel.read(buf, 0);
+            int end = 0;
+            int last = 0;
+            while (buf.getInt(end) != 0) {
+                last = end;
+                end += 8 + buf.getInt(end);
+            }
+            channel.write(ByteBuffer.wrap(new byte[] {(byte) ~buf.get(last + 12)}), last + 12);
+        }
+
+        try (var wal = WriteAheadLog.open(dir, 4096)) {
+            assertEquals(List.of(insert(0, "a")), wal.recovered().get("doc-1").opsAfter(0));
+        }
+    }
+
+    @Test
+    void fullSegmentsRollAndAreDeletedOnceConfirmed() {
+        try (var wal = WriteAheadLog.open(dir, 512)) {
+            wal.opened("doc-1", 0, 0);
+            wal.opened("doc-2", 0, 0);
+            for (int v = 1; v <= 40; v++) {
+                wal.applied("doc-1", v, insert(0, "x"));
+                wal.applied("doc-2", v, insert(0, "y"));
+            }
+            assertTrue(wal.segmentCount() > 2);
+
+            wal.persisted("doc-1", 40, 40);
+            assertTrue(wal.segmentCount() > 2, "doc-2 still needs them");
+
+            wal.persisted("doc-2", 40, 40);
+            assertEquals(1, wal.segmentCount());
+        }
+
+        try (var wal = WriteAheadLog.open(dir, 512)) {
+            assertTrue(wal.recovered().isEmpty());
+        }
+    }
+
+    @Test
+    void rollsSwitchToThePreparedSegmentAndLeaveForcingToSync() throws IOException {
+        try (var wal = WriteAheadLog.open(dir, 512)) {
+            wal.opened("doc-1", 0, 0);
+            wal.prepareSegment();
+            Path prepared;
+            try (Stream<Path> files = Files.list(dir)) {
+                prepared = files.max(Comparator.naturalOrder()).orElseThrow();
+            }
+
+            int v = 0;
+            int segments = wal.segmentCount();
+            while (wal.segmentCount() == segments) wal.applied("doc-1", ++v, insert(0, "x"));
+            wal.applied("doc-1", ++v, insert(0, "y"));
+            wal.sync();
+
+            try (Stream<Path> files = Files.list(dir)) {
+                assertEquals(2, files.count());
+            }
+            assertTrue(Files.exists(prepared), "the prepared segment took the roll");
+        }
+
+        try (var wal = WriteAheadLog.open(dir, 512)) {
+            var ops = wal.recovered().get("doc-1").opsAfter(0);
+            assertEquals(insert(0, "y"), ops.get(ops.size() - 1));
+        }
+    }
+}
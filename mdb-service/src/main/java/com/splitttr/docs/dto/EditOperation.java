@@ -0,0 +1,11 @@
+package com.splitttr.docs.dto;
+
+// Data model for a single positional edit, same shape docs-service uses on the wire.
+public record EditOperation(
+    String userId,
+    String type,        // "insert", "delete", "replace"
+    int position,
+    String content,
+    int deleteCount,
+    long clientVersion
+) {}
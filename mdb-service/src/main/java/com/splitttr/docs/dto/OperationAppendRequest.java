@@ -0,0 +1,9 @@
+package com.splitttr.docs.dto;
+
+import java.util.List;
+
+// Data model for operation append request; ops apply in order on top of baseVersion.
+public record OperationAppendRequest(
+    long baseVersion,
+    List<EditOperation> ops
+) {}
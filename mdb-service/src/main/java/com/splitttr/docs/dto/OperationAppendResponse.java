@@ -0,0 +1,7 @@
+package com.splitttr.docs.dto;
+
+// Data model for operation append response; on conflict, version is the store's current version.
+public record OperationAppendResponse(
+    String id,
+    long version
+) {}
@@ -23,5 +23,9 @@ public class Document extends PanacheMongoEntityBase {
 
     public long version;
 
+    // Op log bookkeeping: content reflects snapshotVersion, pendingOps ops are appended after it.
+    public long snapshotVersion;
+    public long pendingOps;
+
     public List<String> activeEditors = new ArrayList<>();
 }
@@ -0,0 +1,21 @@
+package com.splitttr.docs.entity;
+
+import io.quarkus.mongodb.panache.PanacheMongoEntity;
+import io.quarkus.mongodb.panache.common.MongoEntity;
+import java.time.Instant;
+
+// One appended edit; folded into Document.content by compaction and then deleted.
+@MongoEntity(collection = "document_ops")
+public class DocumentOp extends PanacheMongoEntity {
+
+    public String documentId;
+    public long version;
+
+    public String userId;
+    public String type;
+    public int position;
+    public String content;
+    public int deleteCount;
+
+    public Instant createdAt;
+}
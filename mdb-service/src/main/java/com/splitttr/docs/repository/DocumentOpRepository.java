@@ -0,0 +1,61 @@
+package com.splitttr.docs.repository;
+
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoException;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Indexes;
+import io.quarkus.mongodb.panache.PanacheMongoRepository;
+import io.quarkus.panache.common.Sort;
+import io.quarkus.runtime.StartupEvent;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import com.splitttr.docs.entity.DocumentOp;
+import org.bson.types.ObjectId;
+import java.time.Instant;
+import java.util.List;
+
+// Database access for the document op log.
+@ApplicationScoped
+public class DocumentOpRepository implements PanacheMongoRepository<DocumentOp> {
+
+    // One op per (documentId, version): of two appends racing for a version, the second insert fails.
+    void ensureIndexes(@Observes StartupEvent event) {
+        mongoCollection().createIndex(Indexes.ascending("documentId", "version"), new IndexOptions().unique(true));
+    }
+
+    // Whether a write failed because a version was already taken.
+    public static boolean isDuplicateVersion(MongoException e) {
+        if (e instanceof MongoBulkWriteException bulk) {
+            return bulk.getWriteErrors().stream()
+                .anyMatch(err -> ErrorCategory.fromErrorCode(err.getCode()) == ErrorCategory.DUPLICATE_KEY);
+        }
+        return ErrorCategory.fromErrorCode(e.getCode()) == ErrorCategory.DUPLICATE_KEY;
+    }
+
+    // Retrieve ops in (afterVersion, upToVersion], oldest first.
+    public List<DocumentOp> findRange(String documentId, long afterVersion, long upToVersion) {
+        return find("documentId = ?1 and version > ?2 and version <= ?3", Sort.ascending("version"),
+            documentId, afterVersion, upToVersion).list();
+    }
+
+    // Delete ops up to and including version.
+    public long deleteUpTo(String documentId, long version) {
+        return delete("documentId = ?1 and version <= ?2", documentId, version);
+    }
+
+    // Delete the given ops, e.g. a batch whose version range was lost to another writer.
+    public long deleteByIds(List<ObjectId> ids) {
+        return delete("_id in ?1", ids);
+    }
+
+    // Delete ops above a version written before a cutoff: left by appends that never advanced the document.
+    public long deleteOrphans(String documentId, long aboveVersion, Instant before) {
+        return delete("documentId = ?1 and version > ?2 and createdAt < ?3", documentId, aboveVersion, before);
+    }
+
+    // Delete all ops of a document.
+    public long deleteByDocument(String documentId) {
+        return delete("documentId", documentId);
+    }
+}
@@ -6,6 +6,7 @@ import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.Response;
 import com.splitttr.docs.dto.*;
 import com.splitttr.docs.service.DocumentService;
+import com.splitttr.docs.service.VersionConflictException;
 
 // REST endpoints for document resource.
 @Path("/api/documents")
@@ -39,9 +40,29 @@ public class DocumentResource {
     @Path("/{id}")
     // Update update.
     public Response update(@PathParam("id") String id, DocumentUpdateRequest req) {
-        return service.update(id, req.title(), req.content())
-            .map(doc -> Response.ok(DocumentResponse.from(doc)).build())
-            .orElse(Response.status(Response.Status.NOT_FOUND).build());
+        try {
+            return service.update(id, req.title(), req.content())
+                .map(doc -> Response.ok(DocumentResponse.from(doc)).build())
+                .orElse(Response.status(Response.Status.NOT_FOUND).build());
+        } catch (VersionConflictException e) {
+            // Kept losing to appends and compactions; the caller may retry
+            return Response.status(Response.Status.CONFLICT).build();
+        }
+    }
+
+    @POST
+    @Path("/{id}/ops")
+    // Append a batch of edit ops; 409 with the current version if baseVersion is stale.
+    public Response appendOps(@PathParam("id") String id, OperationAppendRequest req) {
+        try {
+            return service.appendOps(id, req.baseVersion(), req.ops())
+                .map(doc -> Response.ok(new OperationAppendResponse(doc.id, doc.version)).build())
+                .orElse(Response.status(Response.Status.NOT_FOUND).build());
+        } catch (VersionConflictException e) {
+            return Response.status(Response.Status.CONFLICT)
+                .entity(new OperationAppendResponse(id, e.currentVersion()))
+                .build();
+        }
     }
 
     @DELETE
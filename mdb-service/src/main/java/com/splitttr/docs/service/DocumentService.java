@@ -1,10 +1,24 @@
 package com.splitttr.docs.service;
 
+import com.mongodb.MongoException;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Updates;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import com.splitttr.docs.dto.EditOperation;
 import com.splitttr.docs.entity.Document;
+import com.splitttr.docs.entity.DocumentOp;
+import com.splitttr.docs.repository.DocumentOpRepository;
 import com.splitttr.docs.repository.DocumentRepository;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+import org.jboss.logging.Logger;
+import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
 
@@ -12,9 +26,24 @@ import java.util.Optional;
 @ApplicationScoped
 public class DocumentService {
 
+    private static final Logger LOG = Logger.getLogger(DocumentService.class);
+
     @Inject
     DocumentRepository repo;
 
+    @Inject
+    DocumentOpRepository opRepo;
+
+    @Inject
+    MeterRegistry registry;
+
+    // Ops this old above the document's version belong to an append that never finished.
+    private static final Duration ORPHAN_AGE = Duration.ofMinutes(1);
+
+    // Appended ops are folded into the content snapshot once this many are pending.
+    @ConfigProperty(name = "docs.oplog.compact-threshold", defaultValue = "500")
+    long compactThreshold;
+
     // Retrieve list all.
     public List<Document> listAll() {
         return repo.listAll();
@@ -27,7 +56,12 @@ public class DocumentService {
 
     // Retrieve get by id.
     public Optional<Document> getById(String id) {
-        return Optional.ofNullable(repo.findById(id));
+        Document doc = repo.findById(id);
+        if (doc != null && doc.pendingOps > 0) {
+            // Readers always get content that includes every appended op
+            doc = compact(id);
+        }
+        return Optional.ofNullable(doc);
     }
 
     // Create create.
@@ -40,25 +74,194 @@ public class DocumentService {
     doc.createdAt = Instant.now();
     doc.updatedAt = doc.createdAt;
     doc.version = 1;
+    doc.snapshotVersion = 1;
     repo.persist(doc);
     return doc;
 }
 
-    // Update update.
+    // Update update. Written only if the document is still at the version and snapshot read, so a
+    // concurrent append or compaction is never overwritten; retried a few times against the newer state.
     public Optional<Document> update(String id, String title, String content) {
+        for (int attempt = 0; attempt < 5; attempt++) {
+            Document doc = repo.findById(id);
+            if (doc == null) return Optional.empty();
+            long readVersion = doc.version;
+            long readSnapshot = doc.snapshotVersion;
+            // Written back with the rest, so a document from before the op log gets the field
+            doc.snapshotVersion = snapshotOf(doc);
+
+            if (title != null) doc.title = title;
+            doc.updatedAt = Instant.now();
+            if (content != null) {
+                // A full replace supersedes everything in the op log. Title-only updates keep the
+                // version, which counts content changes, so a live session's next append still fits
+                doc.version++;
+                doc.content = content;
+                doc.snapshotVersion = doc.version;
+                doc.pendingOps = 0;
+            }
+            long replaced = repo.mongoCollection()
+                .replaceOne(unchanged(id, readVersion, readSnapshot), doc)
+                .getMatchedCount();
+            if (replaced == 0) continue;
+            if (content != null) opRepo.deleteUpTo(id, doc.version);
+            return Optional.of(doc);
+        }
+        throw new VersionConflictException(repo.findByIdOptional(id).map(d -> d.version).orElse(0L));
+    }
+
+    // Append ops on top of baseVersion; fails with VersionConflictException if the document moved on.
+    // The ops are written before the version moves past them, so every version a reader can see has
+    // its op stored; the unique (documentId, version) index makes the write itself the claim.
+    public Optional<Document> appendOps(String id, long baseVersion, List<EditOperation> ops) {
         Document doc = repo.findById(id);
         if (doc == null) return Optional.empty();
+        if (doc.version != baseVersion) throw new VersionConflictException(doc.version);
+        if (ops == null || ops.isEmpty()) return Optional.of(doc);
+
+        int count = ops.size();
+        Instant now = Instant.now();
+
+        List<DocumentOp> entries = new ArrayList<>(count);
+        List<ObjectId> ids = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            EditOperation op = ops.get(i);
+            DocumentOp entry = new DocumentOp();
+            // Known up front, so a batch that loses its versions can be removed exactly
+            entry.id = new ObjectId();
+            entry.documentId = id;
+            entry.version = baseVersion + i + 1;
+            entry.userId = op.userId();
+            entry.type = op.type();
+            entry.position = op.position();
+            entry.content = op.content();
+            entry.deleteCount = op.deleteCount();
+            entry.createdAt = now;
+            entries.add(entry);
+            ids.add(entry.id);
+        }
+        try {
+            opRepo.persist(entries);
+        } catch (MongoException e) {
+            if (!DocumentOpRepository.isDuplicateVersion(e)) throw e;
+            // Another append took these versions; drop whatever part of ours got in
+            opRepo.deleteByIds(ids);
+            // Ops left above the version by an append that died before advancing it would block
+            // every later append; an append takes milliseconds, so old ones there are such leftovers
+            opRepo.deleteOrphans(id, baseVersion, now.minus(ORPHAN_AGE));
+            throw conflict(id);
+        }
+
+        long advanced = repo.update("{'$inc': {'version': ?1, 'pendingOps': ?1}, '$set': {'updatedAt': ?2}}", count, now)
+            .where("{'_id': ?1, 'version': ?2}", id, baseVersion);
+        if (advanced == 0) {
+            // A full update replaced the document meanwhile
+            opRepo.deleteByIds(ids);
+            throw conflict(id);
+        }
 
-        if (title != null) doc.title = title;
-        if (content != null) doc.content = content;
-        doc.updatedAt = Instant.now();
-        doc.version++;
-        repo.update(doc);
+        doc.version = baseVersion + count;
+        doc.pendingOps += count;
+        doc.updatedAt = now;
+        if (doc.pendingOps >= compactThreshold) {
+            Document compacted = compact(id);
+            if (compacted != null) doc = compacted;
+        }
         return Optional.of(doc);
     }
 
+    private VersionConflictException conflict(String id) {
+        return new VersionConflictException(repo.findByIdOptional(id).map(d -> d.version).orElse(0L));
+    }
+
+    // Version the content snapshot is at. Documents stored before the op log have no snapshotVersion
+    // (read as 0, which is never written) and no pendingOps, so their content is at their version.
+    private static long snapshotOf(Document doc) {
+        return doc.snapshotVersion > 0 ? doc.snapshotVersion : doc.version - doc.pendingOps;
+    }
+
+    // Matches the document only while it is at the version and snapshot read; a snapshotVersion read
+    // as 0 also matches the field being absent.
+    private static Bson unchanged(String id, long version, long snapshotVersion) {
+        Bson snapshot = snapshotVersion == 0
+            ? Filters.in("snapshotVersion", 0L, null)
+            : Filters.eq("snapshotVersion", snapshotVersion);
+        return Filters.and(Filters.eq("_id", id), Filters.eq("version", version), snapshot);
+    }
+
+    // Fold pending ops into the content snapshot and drop them from the log. Folding stops at the
+    // first version with no op stored, so the snapshot never skips an edit.
+    Document compact(String id) {
+        Document doc = null;
+        for (int attempt = 0; attempt < 3; attempt++) {
+            doc = repo.findById(id);
+            if (doc == null || doc.pendingOps == 0) return doc;
+
+            long fromVersion = snapshotOf(doc);
+            long toVersion = fromVersion;
+            StringBuilder content = new StringBuilder(doc.content != null ? doc.content : "");
+            for (DocumentOp op : opRepo.findRange(id, fromVersion, doc.version)) {
+                if (op.version != toVersion + 1) break;
+                applyOp(content, op);
+                toVersion = op.version;
+            }
+            if (toVersion == fromVersion) {
+                LOG.errorf("Op %d of document %s is missing; not compacting", fromVersion + 1, id);
+                compactionError("missing-op");
+                return doc;
+            }
+            long pending = doc.version - toVersion;
+
+            // Only commit if nobody appended or compacted in the meantime
+            long updated = repo.mongoCollection()
+                .updateOne(unchanged(id, doc.version, doc.snapshotVersion), Updates.combine(
+                    Updates.set("content", content.toString()),
+                    Updates.set("snapshotVersion", toVersion),
+                    Updates.set("pendingOps", pending)))
+                .getMatchedCount();
+            if (updated > 0) {
+                opRepo.deleteUpTo(id, toVersion);
+                doc.content = content.toString();
+                doc.snapshotVersion = toVersion;
+                doc.pendingOps = pending;
+                return doc;
+            }
+        }
+        return doc;
+    }
+
+    private void applyOp(StringBuilder content, DocumentOp op) {
+        int length = content.length();
+        String text = op.content != null ? op.content : "";
+        int deleteCount = Math.max(op.deleteCount, 0);
+        if (op.position < 0 || op.position > length || op.position + deleteCount > length) {
+            LOG.warnf("Skipping out-of-range op %d for document %s", op.version, op.documentId);
+            compactionError("out-of-range");
+            return;
+        }
+        switch (op.type) {
+            case "insert" -> content.insert(op.position, text);
+            case "delete" -> content.delete(op.position, op.position + deleteCount);
+            case "replace" -> content.replace(op.position, op.position + deleteCount, text);
+            default -> {
+                LOG.warnf("Skipping op %d of unknown type %s for document %s", op.version, op.type, op.documentId);
+                compactionError("unknown-type");
+            }
+        }
+    }
+
+    // Count an op log entry compaction could not fold in, by reason.
+    private void compactionError(String reason) {
+        Counter.builder("docs.compaction.errors")
+            .description("Op log entries compaction stopped at or skipped")
+            .tag("reason", reason)
+            .register(registry)
+            .increment();
+    }
+
     // Delete delete.
     public boolean delete(String id) {
+        opRepo.deleteByDocument(id);
         return repo.deleteById(id);
     }
 }
@@ -0,0 +1,16 @@
+package com.splitttr.docs.service;
+
+// Thrown when an op batch was built on a version the document has already moved past.
+public class VersionConflictException extends RuntimeException {
+
+    private final long currentVersion;
+
+    public VersionConflictException(long currentVersion) {
+        super("Document is at version " + currentVersion);
+        this.currentVersion = currentVersion;
+    }
+
+    public long currentVersion() {
+        return currentVersion;
+    }
+}
@@ -0,0 +1,160 @@
+package com.splitttr.docs.service;
+
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Updates;
+import com.splitttr.docs.dto.EditOperation;
+import com.splitttr.docs.entity.Document;
+import com.splitttr.docs.entity.DocumentOp;
+import com.splitttr.docs.repository.DocumentOpRepository;
+import com.splitttr.docs.repository.DocumentRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.quarkus.test.junit.QuarkusTest;
+import jakarta.inject.Inject;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// DocumentServiceTest: runs against the throwaway MongoDB that Dev Services starts for tests.
+@QuarkusTest
+class DocumentServiceTest {
+
+    @Inject
+    DocumentService service;
+
+    @Inject
+    DocumentRepository repo;
+
+    @Inject
+    DocumentOpRepository opRepo;
+
+    @Inject
+    MeterRegistry registry;
+
+    @Test
+    void appendsContinueTheVersionAndReadersSeeEveryOp() {
+        String id = newDocument("hello");
+
+        service.appendOps(id, 1, List.of(op("insert", 5, " world", 0)));
+        var doc = service.appendOps(id, 2, List.of(op("replace", 0, "J", 1), op("delete", 5, null, 1))).orElseThrow();
+
+        assertEquals(4, doc.version);
+        assertEquals(List.of(2L, 3L, 4L), opRepo.findRange(id, 1, 4).stream().map(o -> o.version).toList());
+        var read = service.getById(id).orElseThrow();
+        assertEquals("Jelloworld", read.content);
+        assertEquals(4, read.version);
+    }
+
+    @Test
+    void appendOnAStaleVersionIsAConflict() {
+        String id = newDocument("abc");
+        service.appendOps(id, 1, List.of(op("insert", 3, "d", 0)));
+
+        var conflict = assertThrows(VersionConflictException.class,
+            () -> service.appendOps(id, 1, List.of(op("insert", 0, "x", 0))));
+
+        assertEquals(2, conflict.currentVersion());
+        assertEquals(1, opRepo.findRange(id, 0, 10).size());
+        assertEquals("abcd", service.getById(id).orElseThrow().content);
+    }
+
+    @Test
+    void compactionFoldsPendingOpsAndStopsAtAMissingOne() {
+        String id = newDocument("abc");
+        service.appendOps(id, 1, List.of(op("insert", 3, "d", 0), op("insert", 4, "e", 0)));
+        // Version 4 claimed with no op stored, as an append that died between the two writes used to leave it
+        Document doc = repo.findById(id);
+        doc.version = 5;
+        doc.pendingOps = 3;
+        doc.update();
+        DocumentOp orphan = new DocumentOp();
+        orphan.id = new ObjectId();
+        orphan.documentId = id;
+        orphan.version = 5;
+        orphan.type = "insert";
+        orphan.position = 0;
+        orphan.content = ">";
+        orphan.createdAt = Instant.now();
+        opRepo.persist(orphan);
+
+        var compacted = service.compact(id);
+
+        assertEquals("abcde", compacted.content);
+        assertEquals(3, compacted.snapshotVersion);
+        assertEquals(2, compacted.pendingOps);
+        assertEquals(List.of(5L), opRepo.findRange(id, 0, 10).stream().map(o -> o.version).toList());
+    }
+
+    @Test
+    void opsCompactionCannotApplyAreSkippedAndCounted() {
+        String id = newDocument("abc");
+        var skipped = registry.counter("docs.compaction.errors", "reason", "out-of-range");
+        double before = skipped.count();
+        service.appendOps(id, 1, List.of(op("delete", 2, null, 5), op("insert", 3, "d", 0)));
+
+        var compacted = service.compact(id);
+
+        assertEquals("abcd", compacted.content);
+        assertEquals(3, compacted.snapshotVersion);
+        assertEquals(before + 1, skipped.count());
+    }
+
+    @Test
+    void titleOnlyUpdatesLeaveTheVersionToAppends() {
+        String id = newDocument("abc");
+        service.appendOps(id, 1, List.of(op("insert", 0, "x", 0)));
+
+        var renamed = service.update(id, "Renamed", null).orElseThrow();
+        service.appendOps(id, 2, List.of(op("insert", 4, "y", 0)));
+
+        assertEquals(2, renamed.version);
+        var read = service.getById(id).orElseThrow();
+        assertEquals("Renamed", read.title);
+        assertEquals("xabcy", read.content);
+        assertEquals(3, read.version);
+    }
+
+    @Test
+    void documentsFromBeforeTheOpLogTakeRenamesAppendsAndSaves() {
+        String id = newDocument("abc");
+        // As such documents are stored: content at version 3, no snapshotVersion or pendingOps
+        repo.mongoCollection().updateOne(Filters.eq("_id", id), Updates.combine(
+            Updates.set("version", 3L), Updates.unset("snapshotVersion"), Updates.unset("pendingOps")));
+
+        assertEquals(3, service.update(id, "Renamed", null).orElseThrow().version);
+        service.appendOps(id, 3, List.of(op("insert", 3, "d", 0)));
+        var compacted = service.compact(id);
+        assertEquals("abcd", compacted.content);
+        assertEquals(4, compacted.snapshotVersion);
+        assertEquals(0, compacted.pendingOps);
+
+        var saved = service.update(id, null, "new").orElseThrow();
+        assertEquals(5, saved.version);
+        assertEquals("new", service.getById(id).orElseThrow().content);
+    }
+
+    @Test
+    void compactionOfADocumentThatNeverHadASnapshotStartsAtItsVersion() {
+        String id = newDocument("abc");
+        repo.mongoCollection().updateOne(Filters.eq("_id", id), Updates.combine(
+            Updates.set("version", 7L), Updates.unset("snapshotVersion"), Updates.unset("pendingOps")));
+
+        service.appendOps(id, 7, List.of(op("insert", 0, ">", 0), op("insert", 4, "<", 0)));
+
+        var read = service.getById(id).orElseThrow();
+        assertEquals(">abc<", read.content);
+        assertEquals(9, read.version);
+    }
+
+    private String newDocument(String content) {
+        return service.create(UUID.randomUUID().toString(), "Doc", content, "owner").id;
+    }
+
+    private static EditOperation op(String type, int position, String content, int deleteCount) {
+        return new EditOperation("alice", type, position, content, deleteCount, 0);
+    }
+}